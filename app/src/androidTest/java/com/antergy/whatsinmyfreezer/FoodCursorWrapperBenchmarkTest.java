@@ -0,0 +1,205 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.antergy.whatsinmyfreezer.database.FoodCursorWrapper;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares mapping rows to food items by looking up the column indices for every row, as
+ * FoodCursorWrapper used to do, against FoodCursorWrapper, which looks them up once per cursor,
+ * and reading list rows with the list projection against the projection of a whole Food object.
+ * The rows are kept in memory, so only the mapping is measured. Both paths must give the same
+ * food items. The timings are written to the log under the tag FoodCursorWrapperBenchmark, and
+ * are not asserted, since a single run on a loaded device says little about which is faster.
+ */
+public class FoodCursorWrapperBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "FoodCursorWrapperBenchmark";
+    private static final int ROWS = 100000;
+
+    public void testMap100000() {
+        Cursor cursor = createCursor(ROWS);
+        try {
+            // Warm up both paths before measuring
+            mapWithColumnLookups(cursor);
+            mapWithWrapper(cursor);
+
+            long start = SystemClock.elapsedRealtime();
+            List<Food> oldFoods = mapWithColumnLookups(cursor);
+            long oldTime = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            List<Food> newFoods = mapWithWrapper(cursor);
+            long newTime = SystemClock.elapsedRealtime() - start;
+
+            assertEquals(ROWS, oldFoods.size());
+            assertEquals(ROWS, newFoods.size());
+            for (int i = 0; i < ROWS; i += 997) {
+                assertSameFood(oldFoods.get(i), newFoods.get(i));
+            }
+            Log.i(TAG, ROWS + " rows: column lookups " + oldTime + " ms, cached indices " +
+                    newTime + " ms, speedup " + (newTime == 0 ? "-" : oldTime / (float) newTime));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testListProjection100000() {
+        Cursor listCursor = createCursor(FoodCursorWrapper.LIST_PROJECTION, ROWS);
+        Cursor foodCursor = createCursor(FoodCursorWrapper.FOOD_PROJECTION, ROWS);
+        try {
+            // Warm up both paths before measuring
+            readSnapshot(listCursor);
+            readSnapshot(foodCursor);
+
+            long start = SystemClock.elapsedRealtime();
+            FoodSnapshot foods = readSnapshot(foodCursor);
+            long foodTime = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            FoodSnapshot rows = readSnapshot(listCursor);
+            long listTime = SystemClock.elapsedRealtime() - start;
+
+            assertEquals(ROWS, rows.size());
+            for (int i = 0; i < ROWS; i += 997) {
+                assertEquals(foods.getId(i), rows.getId(i));
+                assertEquals(foods.getName(i), rows.getName(i));
+                assertEquals(foods.getQuantity(i), rows.getQuantity(i));
+                assertEquals(foods.getAmount(i), rows.getAmount(i));
+                assertEquals(foods.getBrand(i), rows.getBrand(i));
+                assertEquals(foods.getCategory(i), rows.getCategory(i));
+                assertEquals(0, rows.getVersion(i));
+            }
+            Log.i(TAG, ROWS + " rows: food projection " + foodTime + " ms, list projection " +
+                    listTime + " ms");
+        } finally {
+            listCursor.close();
+            foodCursor.close();
+        }
+    }
+
+    public void testIdProjection() {
+        MatrixCursor cursor = new MatrixCursor(FoodCursorWrapper.ID_PROJECTION);
+        cursor.addRow(new Object[] {42});
+        FoodCursorWrapper wrapper = new FoodCursorWrapper(cursor);
+        try {
+            assertTrue(wrapper.moveToFirst());
+            assertEquals(42, wrapper.getFoodId());
+            Food food = wrapper.getFood();
+            assertEquals(42, food.getId());
+            assertNull(food.getName());
+            assertNull(food.getCategory());
+        } finally {
+            wrapper.close();
+        }
+    }
+
+    /**
+     * Maps the rows the way FoodCursorWrapper did before the column indices were cached.
+     */
+    private static List<Food> mapWithColumnLookups(Cursor cursor) {
+        List<Food> foods = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            String name = cursor.getString(cursor.getColumnIndex(FoodTable.Cols.NAME));
+            int quantity = cursor.getInt(cursor.getColumnIndex(FoodTable.Cols.QUANTITY));
+            String amount = cursor.getString(cursor.getColumnIndex(FoodTable.Cols.AMOUNT));
+            String brand = cursor.getString(cursor.getColumnIndex(FoodTable.Cols.BRAND));
+            int foodId = cursor.getInt(cursor.getColumnIndex(FoodTable.Cols.FOOD_ID));
+            String category = cursor.getString(cursor.getColumnIndex(FoodTable.Cols.CATEGORY));
+            foods.add(new Food(name, quantity, amount, brand, foodId, category));
+        }
+        return foods;
+    }
+
+    private static List<Food> mapWithWrapper(Cursor cursor) {
+        List<Food> foods = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        // The wrapper is not closed, since that would close the shared cursor
+        FoodCursorWrapper wrapper = new FoodCursorWrapper(cursor);
+        while (wrapper.moveToNext()) {
+            foods.add(wrapper.getFood());
+        }
+        return foods;
+    }
+
+    private static FoodSnapshot readSnapshot(Cursor cursor) {
+        FoodSnapshot.Builder builder = new FoodSnapshot.Builder(cursor.getCount());
+        cursor.moveToPosition(-1);
+        // The wrapper is not closed, since that would close the shared cursor
+        FoodCursorWrapper wrapper = new FoodCursorWrapper(cursor);
+        while (wrapper.moveToNext()) {
+            wrapper.addTo(builder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a cursor with some of the columns of the food view.
+     */
+    private static Cursor createCursor(String[] projection, int count) {
+        MatrixCursor cursor = new MatrixCursor(projection, count);
+        for (int i = 0; i < count; ++i) {
+            Object[] row = new Object[projection.length];
+            for (int column = 0; column < projection.length; ++column) {
+                row[column] = getValue(projection[column], i);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static Object getValue(String column, int i) {
+        if (column.equals(FoodTable.Cols.FOOD_ID)) {
+            return i + 1;
+        } else if (column.equals(FoodTable.Cols.NAME)) {
+            return "Food " + i;
+        } else if (column.equals(FoodTable.Cols.QUANTITY)) {
+            return 1 + i % 3;
+        } else if (column.equals(FoodTable.Cols.AMOUNT)) {
+            return (i % 5) * 100 + " g";
+        } else if (column.equals(FoodTable.Cols.BRAND)) {
+            return "Brand " + i % 20;
+        } else if (column.equals(FoodTable.Cols.CATEGORY)) {
+            return "Category " + i % 8;
+        }
+        return i % 4;
+    }
+
+    /**
+     * Creates a cursor with the columns of the food view, in the order of the view, so the
+     * category id column the food items do not use is also there.
+     */
+    private static Cursor createCursor(int count) {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                FoodTable.Cols.FOOD_ID,
+                FoodTable.Cols.NAME,
+                FoodTable.Cols.QUANTITY,
+                FoodTable.Cols.AMOUNT,
+                FoodTable.Cols.BRAND,
+                FoodTable.Cols.CATEGORY_ID,
+                FoodTable.Cols.CATEGORY
+        }, count);
+        for (int i = 0; i < count; ++i) {
+            cursor.addRow(new Object[] {i + 1, "Food " + i, 1 + i % 3, (i % 5) * 100 + " g",
+                    "Brand " + i % 20, 1 + i % 8, "Category " + i % 8});
+        }
+        return cursor;
+    }
+
+    private static void assertSameFood(Food expected, Food actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getQuantity(), actual.getQuantity());
+        assertEquals(expected.getAmount(), actual.getAmount());
+        assertEquals(expected.getBrand(), actual.getBrand());
+        assertEquals(expected.getCategory(), actual.getCategory());
+    }
+}
@@ -0,0 +1,84 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares adding food items one at a time with addFood() against adding them in one batch with
+ * addFoods(), and checks that both store the same food items. The timings are written to the log
+ * under the tag FoodManagerBenchmark. They are not asserted, since a single run on a loaded
+ * device says little about which is faster.
+ */
+public class FoodManagerBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "FoodManagerBenchmark";
+    private static final String DATABASE_NAME = "foodBaseBenchmark.db";
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testAdd1000() {
+        compare(1000);
+    }
+
+    public void testAdd10000() {
+        compare(10000);
+    }
+
+    /**
+     * Adds the same food items through both paths, each to an empty database, and logs the time.
+     * Every tenth food item duplicates another one, so both the insert and the increment paths
+     * are measured.
+     */
+    private void compare(int count) {
+        List<Food> foods = createFoods(count);
+
+        getContext().deleteDatabase(DATABASE_NAME);
+        FoodManager single = new FoodManager(getContext(), DATABASE_NAME);
+        long singleTime;
+        int singleCount;
+        try {
+            long start = SystemClock.elapsedRealtime();
+            for (Food food : foods) {
+                single.addFood(food.getName(), food.getQuantity(), food.getAmount(),
+                        food.getBrand(), food.getCategory());
+            }
+            singleTime = SystemClock.elapsedRealtime() - start;
+            singleCount = single.getAll().size();
+        } finally {
+            single.close();
+        }
+
+        getContext().deleteDatabase(DATABASE_NAME);
+        FoodManager bulk = new FoodManager(getContext(), DATABASE_NAME);
+        long bulkTime;
+        try {
+            long start = SystemClock.elapsedRealtime();
+            int[] ids = bulk.addFoods(foods);
+            bulkTime = SystemClock.elapsedRealtime() - start;
+
+            assertEquals(count, ids.length);
+            assertEquals(singleCount, bulk.getAll().size());
+        } finally {
+            bulk.close();
+        }
+        Log.i(TAG, count + " items: addFood " + singleTime + " ms, addFoods " + bulkTime +
+                " ms, speedup " + (bulkTime == 0 ? "-" : singleTime / (float) bulkTime));
+    }
+
+    private static List<Food> createFoods(int count) {
+        List<Food> foods = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            int item = i % 10 == 9 ? i - 1 : i;
+            foods.add(new Food("Food " + item, 1 + i % 3, (item % 5) * 100 + " g",
+                    "Brand " + item % 20, "Category " + item % 8));
+        }
+        return foods;
+    }
+}
@@ -0,0 +1,56 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that updateFood() only writes a food item over the version it was read with, so an
+ * update made with a stale copy is refused instead of overwriting a newer change.
+ */
+public class FoodManagerUpdateTest extends AndroidTestCase {
+    private static final String DATABASE_NAME = "foodBaseUpdate.db";
+    private FoodManager mFoodManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+        mFoodManager = new FoodManager(getContext(), DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFoodManager.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUpdateWithCurrentVersionSucceeds() {
+        Food added = mFoodManager.addFood("Peas", 2, "500 g", "Findus", "Vegetables");
+        Food read = mFoodManager.getFood(added.getId());
+        read.setQuantity(4);
+        read.setCategory("Frozen");
+
+        assertTrue(mFoodManager.updateFood(read.getId(), read));
+        Food updated = mFoodManager.getFood(added.getId());
+        assertEquals(4, updated.getQuantity());
+        assertEquals("Frozen", updated.getCategory());
+        assertEquals(read.getVersion() + 1, updated.getVersion());
+    }
+
+    public void testUpdateWithStaleVersionFails() {
+        Food added = mFoodManager.addFood("Peas", 2, "500 g", "Findus", "Vegetables");
+        Food first = mFoodManager.getFood(added.getId());
+        Food second = mFoodManager.getFood(added.getId());
+        first.setQuantity(4);
+        assertTrue(mFoodManager.updateFood(first.getId(), first));
+
+        // The second copy was read before the first update, so its version is stale
+        second.setQuantity(9);
+        second.setCategory("Frozen");
+        assertFalse(mFoodManager.updateFood(second.getId(), second));
+        Food stored = mFoodManager.getFood(added.getId());
+        assertEquals(4, stored.getQuantity());
+        assertEquals("Vegetables", stored.getCategory());
+        assertEquals(first.getVersion() + 1, stored.getVersion());
+    }
+}
@@ -0,0 +1,112 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.antergy.whatsinmyfreezer.database.CheckpointPolicy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs every kind of write against a food manager with an inventory mirror, and checks that the
+ * mirror still matches the database and gives the same answers as a food manager without one.
+ * The time it takes to read all food items from the mirror and from the database is written to
+ * the log under the tag InventoryMirrorTest. It is not asserted, since a single run on a loaded
+ * device says little about which is faster.
+ */
+public class InventoryMirrorTest extends AndroidTestCase {
+    private static final String TAG = "InventoryMirrorTest";
+    private static final String DATABASE_NAME = "foodBaseMirror.db";
+    private static final int ITEMS = 2000;
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testMirrorFollowsWrites() {
+        getContext().deleteDatabase(DATABASE_NAME);
+        FoodManager mirrored =
+                new FoodManager(getContext(), DATABASE_NAME, CheckpointPolicy.DEFAULT, true);
+        FoodManager plain =
+                new FoodManager(getContext(), DATABASE_NAME, CheckpointPolicy.DEFAULT, false);
+        try {
+            checkMirror(mirrored, plain);
+        } finally {
+            mirrored.close();
+            plain.close();
+        }
+    }
+
+    /**
+     * Runs the writes against the mirrored food manager and compares it with a food manager of
+     * the same database without a mirror.
+     */
+    private void checkMirror(FoodManager mirrored, FoodManager plain) {
+        mirrored.addFoods(createFoods(ITEMS));
+        mirrored.loadMirror();
+        assertEquals(0, mirrored.checkMirror().size());
+
+        Food added = mirrored.addFood("Peas", 2, "500 g", "Findus", "Category 1");
+        mirrored.addFood("Peas", 3, "500 g", "Findus", "Category 1");
+        assertEquals(5, mirrored.getFood(added.getId()).getQuantity());
+        assertTrue(mirrored.hasFood("Peas", "500 g", "Findus", "Category 1"));
+
+        mirrored.addFoods(createFoods(ITEMS / 10));
+        Map<Integer, Integer> deltas = new HashMap<>();
+        deltas.put(added.getId(), -5);
+        deltas.put(added.getId() - 1, 4);
+        mirrored.adjustQuantities(deltas);
+        assertNull(mirrored.getFood(added.getId()));
+
+        Food moved = mirrored.getFood(1);
+        moved.setQuantity(7);
+        moved.setCategory("Category 2");
+        assertTrue(mirrored.updateFood(1, moved));
+        // The update increased the version, so writing the same food item again is a conflict
+        assertFalse(mirrored.updateFood(1, moved));
+        assertEquals(8, mirrored.adjustQuantity(1, 1).getQuantity());
+        assertEquals(7, mirrored.adjustQuantity(1, -1).getQuantity());
+        mirrored.deleteFood(2);
+        mirrored.renameCategory("Category 3", "Category 3b");
+        mirrored.mergeCategory("Category 4", "Category 5");
+        mirrored.removeAllInCategory("Category 6");
+        mirrored.removeCategory("Category 7");
+
+        List<String> problems = mirrored.checkMirror();
+        assertEquals(problems.toString(), 0, problems.size());
+
+        for (String category : new String[] {null, "Category 2", "Category 3b", "Category 5"}) {
+            assertEquals(plain.getCount(category), mirrored.getCount(category));
+            assertEquals(plain.getFoodIds(category).length,
+                    mirrored.getFoodIds(category).length);
+        }
+        assertEquals(0, mirrored.getCount("Category 4"));
+        assertEquals(7, mirrored.getFood(1).getQuantity());
+        assertEquals("Category 2", mirrored.getFood(1).getCategory());
+
+        long start = SystemClock.elapsedRealtime();
+        int plainCount = plain.getAll().size();
+        long plainTime = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        int mirroredCount = mirrored.getAll().size();
+        long mirroredTime = SystemClock.elapsedRealtime() - start;
+        assertEquals(plainCount, mirroredCount);
+        Log.i(TAG, mirroredCount + " items: database " + plainTime + " ms, mirror " +
+                mirroredTime + " ms");
+    }
+
+    private static List<Food> createFoods(int count) {
+        List<Food> foods = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            foods.add(new Food("Food " + i, 1 + i % 3, (i % 5) * 100 + " g",
+                    "Brand " + i % 20, "Category " + i % 8));
+        }
+        return foods;
+    }
+}
@@ -0,0 +1,160 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.antergy.whatsinmyfreezer.database.CheckpointPolicy;
+import com.antergy.whatsinmyfreezer.database.FoodBaseHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a writer and several readers against the same database at the same time, with and without
+ * write-ahead logging, and checks that the slowest reads are not slower with write-ahead logging.
+ * The readers time readPage(), which skips the query cache of FoodManager, so every read goes to
+ * the database and the times show how the journal mode blocks them. The percentiles of the time
+ * each page read took are written to the log under the tag WalStressTest.
+ */
+public class WalStressTest extends AndroidTestCase {
+    private static final String TAG = "WalStressTest";
+    private static final String DATABASE_NAME = "foodBaseStress.db";
+    private static final int ITEMS = 5000;
+    private static final int CATEGORIES = 10;
+    private static final int READERS = 2;
+    private static final long DURATION_MILLIS = 10000;
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testReadLatency() throws InterruptedException {
+        long[] journal = run(null);
+        long[] wal = run(CheckpointPolicy.DEFAULT);
+        Log.i(TAG, "Rollback journal: " + report(journal));
+        Log.i(TAG, "Write-ahead log:  " + report(wal));
+        assertTrue(journal.length > 0);
+        assertTrue(wal.length > 0);
+        // Readers wait for the writer in rollback journal mode, which shows in the slowest reads
+        assertTrue(percentile(wal, 99) <= percentile(journal, 99));
+    }
+
+    public void testAutoCheckpointIsSetOnPrimaryConnection() {
+        getContext().deleteDatabase(DATABASE_NAME);
+        FoodBaseHelper helper =
+                new FoodBaseHelper(getContext(), DATABASE_NAME, CheckpointPolicy.DEFAULT);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            // A transaction runs on the primary connection, which is the one that writes
+            db.beginTransactionNonExclusive();
+            try {
+                assertEquals(CheckpointPolicy.DEFAULT.getAutoCheckpointPages(),
+                        DatabaseUtils.longForQuery(db, "pragma wal_autocheckpoint", null));
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Fills a new database and runs the writer and readers on it.
+     * @param checkpointPolicy the checkpoint policy, null for rollback journal mode.
+     * @return the sorted read times in microseconds.
+     */
+    private long[] run(CheckpointPolicy checkpointPolicy) throws InterruptedException {
+        getContext().deleteDatabase(DATABASE_NAME);
+        final FoodManager foodManager =
+                new FoodManager(getContext(), DATABASE_NAME, checkpointPolicy);
+        foodManager.addFoods(createFoods(0));
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Long> times = new ArrayList<>();
+
+        // The writer removes a whole category and adds it back, which are long transactions
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int round = 0;
+                while (running.get()) {
+                    int category = round % CATEGORIES;
+                    foodManager.removeAllInCategory("Category " + category);
+                    foodManager.addFoods(createFoods(++round));
+                }
+            }
+        });
+
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; ++i) {
+            final int reader = i;
+            readers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int page = 0;
+                    while (running.get()) {
+                        String category = "Category " + (reader + page++) % CATEGORIES;
+                        long start = System.nanoTime();
+                        foodManager.readPage(category, FoodSort.NAME, null, 50);
+                        long time = (System.nanoTime() - start) / 1000;
+                        synchronized (times) {
+                            times.add(time);
+                        }
+                    }
+                }
+            }));
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        Thread.sleep(DURATION_MILLIS);
+        running.set(false);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        foodManager.close();
+
+        long[] sorted = new long[times.size()];
+        for (int i = 0; i < sorted.length; ++i) {
+            sorted[i] = times.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static String report(long[] sorted) {
+        return sorted.length + " reads, p50 " + percentile(sorted, 50) +
+                " us, p90 " + percentile(sorted, 90) +
+                " us, p99 " + percentile(sorted, 99) +
+                " us, max " + sorted[sorted.length - 1] + " us";
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /**
+     * Creates the food items of one category, or of all categories for round 0.
+     */
+    private static List<Food> createFoods(int round) {
+        List<Food> foods = new ArrayList<>();
+        for (int i = 0; i < ITEMS; ++i) {
+            int category = i % CATEGORIES;
+            if (round == 0 || category == (round - 1) % CATEGORIES) {
+                foods.add(new Food("Food " + i, 1, "1 pcs", "Brand " + i % 50,
+                        "Category " + category));
+            }
+        }
+        return foods;
+    }
+}
@@ -2,7 +2,7 @@ package com.antergy.whatsinmyfreezer;
 
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
+import android.graphics.Point;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
@@ -23,7 +23,7 @@ import android.widget.Spinner;
 import android.widget.Toast;
 
 import java.io.File;
-import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * Fragment class for adding new food items.
@@ -38,12 +38,15 @@ public class AddFragment extends Fragment {
     private NumberPicker mQuantityNumberPicker;
     private Button mAddButton;
     private Spinner mCategorySpinner;
+    private CategoryAdapter mCategoryAdapter;
     private Button mClearButton;
     private ImageButton mPhotoButton;
     private ImageView mPhotoView;
     private File mPhotoFile;
     private FoodManager mFoodManager;
+    private AsyncFoodManager mAsyncFoodManager;
     private boolean mIsPhotoTaken;
+    private boolean mIsAdding;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -68,6 +71,7 @@ public class AddFragment extends Fragment {
         mPhotoButton = (ImageButton) view.findViewById(R.id.add_picture_button);
         mPhotoView = (ImageView) view.findViewById(R.id.food_picture);
         mFoodManager = FoodManager.get(getActivity());
+        mAsyncFoodManager = AsyncFoodManager.get(getActivity());
         // Configure graphics
         setNameEditText();
         setBrandEditText();
@@ -91,7 +95,12 @@ public class AddFragment extends Fragment {
             mIsPhotoTaken = false;
         }
 
-        updatePhotoView();
+        if (mIsPhotoTaken && mPhotoFile != null) {
+            // The processing may have been interrupted by the rotation
+            processPhoto();
+        } else {
+            updatePhotoView();
+        }
 
         Toolbar toolbar = (Toolbar) view.findViewById(R.id.toolbar);
         AddActivity activity = (AddActivity) getActivity();
@@ -106,18 +115,38 @@ public class AddFragment extends Fragment {
     }
 
     /**
-     * Result from camera.
+     * Result from camera. The photo is turned upright and scaled down before it is shown.
      */
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == REQUEST_PHOTO) {
             if (resultCode == getActivity().RESULT_OK) {
                 mIsPhotoTaken = true;
-                updatePhotoView();
+                processPhoto();
             }
         }
     }
 
+    /**
+     * Processes the photo in the background with PhotoProcessor, and shows it when it is done.
+     * The placeholder is shown meanwhile, so the full size photo is not decoded for the preview.
+     * The photo that was shown before under the same file name is dropped from memory.
+     */
+    private void processPhoto() {
+        ImageLoader.get(getActivity()).cancel(mPhotoView);
+        mPhotoView.setImageResource(R.drawable.ic_panorama_black_48dp);
+        PhotoProcessor.get().process(mPhotoFile,
+                new AsyncFoodManager.Callback<Boolean>() {
+                    @Override
+                    public void onResult(Boolean processed) {
+                        if (isAdded()) {
+                            ImageLoader.get(getActivity()).evictPhoto(mPhotoFile);
+                            updatePhotoView();
+                        }
+                    }
+                });
+    }
+
     /**
      * Enables the user to take a photo of the food item.
      */
@@ -144,16 +173,17 @@ public class AddFragment extends Fragment {
 
     /**
      * Updates the imageView displaying a photo. If no photo is taken, an icon is set to the
-     * imageView to show where the photo will be.
+     * imageView to show where the photo will be. The photo is loaded in the background.
      */
     private void updatePhotoView() {
+        ImageLoader imageLoader = ImageLoader.get(getActivity());
         if (mPhotoView == null || !mPhotoFile.exists()) {
+            imageLoader.cancel(mPhotoView);
             mPhotoView.setImageResource(R.drawable.ic_panorama_black_48dp);
         } else {
-            mPhotoView.setImageDrawable(null);
-            Bitmap bitmap = PictureUtils.getScaledBitmap(
-                    mPhotoFile.getPath(), getActivity());
-            mPhotoView.setImageBitmap(bitmap);
+            Point size = PictureUtils.getDisplaySize(getActivity());
+            imageLoader.load(this, mPhotoView, mPhotoFile, Math.max(size.x, size.y),
+                    R.drawable.ic_panorama_black_48dp);
         }
     }
 
@@ -219,14 +249,56 @@ public class AddFragment extends Fragment {
                             Toast.LENGTH_LONG);
                     toast.show();
                 } else {
-                    Food food = mFoodManager.addFood(name, quantity,
-                            amountWithUnit, brand, category);
-                    mFoodManager.renamePhotoFile(food.getPhotoFilename(), mPhotoFile);//rename photo
-                    mPhotoFile = mFoodManager.getTempPhotoFile();//create new temp
-                    String message = name + " " + getText(R.string.added);
-                    Toast toast = Toast.makeText(getActivity().getBaseContext(), message ,Toast.LENGTH_LONG);
-                    toast.show();
-                    clearFields();
+                    addFood(name, quantity, amountWithUnit, brand, category);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stores the food item and moves the photo to it on the writer thread, and queues the
+     * thumbnail of the photo for the lists. The food item is only queued for the writer thread
+     * once the photo has been processed, so the writer thread never waits for the processing,
+     * and the photo is moved before the food item is announced. The add button is disabled
+     * until the food item is stored, and the fields are cleared when it is, so the temporary
+     * photo is not deleted before it has been moved. A food item that is being added is still
+     * stored if the fragment is destroyed meanwhile.
+     */
+    private void addFood(final String name, final int quantity, final String amountWithUnit,
+                         final String brand, final String category) {
+        final File photoFile = mPhotoFile;
+        final ThumbnailGenerator thumbnailGenerator = ThumbnailGenerator.get(getActivity());
+        final Callable<Food> store = new Callable<Food>() {
+            @Override
+            public Food call() {
+                Food food = mFoodManager.addFood(name, quantity, amountWithUnit, brand, category,
+                        photoFile);
+                thumbnailGenerator.generate(food.getId());
+                return food;
+            }
+        };
+        final AsyncFoodManager.Callback<Food> callback = new AsyncFoodManager.Callback<Food>() {
+            @Override
+            public void onResult(Food food) {
+                mIsAdding = false;
+                mPhotoFile = mFoodManager.getTempPhotoFile();//create new temp
+                String message = name + " " + getText(R.string.added);
+                Toast toast = Toast.makeText(getActivity().getBaseContext(), message ,Toast.LENGTH_LONG);
+                toast.show();
+                clearFields();
+                mAddButton.setEnabled(true);
+                mCategoryAdapter.loadCounts(AddFragment.this);
+            }
+        };
+        mIsAdding = true;
+        mAddButton.setEnabled(false);
+        PhotoProcessor.get().runAfterProcessing(new Runnable() {
+            @Override
+            public void run() {
+                if (isAdded()) {
+                    mAsyncFoodManager.write(AddFragment.this, store, callback);
+                } else {
+                    mAsyncFoodManager.write(null, store, null);
                 }
             }
         });
@@ -295,18 +367,13 @@ public class AddFragment extends Fragment {
     }
 
     /**
-     * Adapter for category spinner. The spinner items are dynamically set by the user.
+     * Adapter for category spinner. The spinner items are dynamically set by the user, and show
+     * how many food items every category has.
      */
     private void addCategoryAdapter() {
-        CategoryManager categoryManager = CategoryManager.get(getActivity());
-        List<String> spinnerItems = categoryManager.getCategories();
-        ArrayAdapter<String> categoryAdapter = new ArrayAdapter<String>(
-                getActivity(),
-                android.R.layout.simple_spinner_item,
-                spinnerItems
-        );
-        categoryAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        mCategorySpinner.setAdapter(categoryAdapter);
+        mCategoryAdapter = new CategoryAdapter(getActivity());
+        mCategorySpinner.setAdapter(mCategoryAdapter);
+        mCategoryAdapter.loadCategories(this);
     }
 
     /**
@@ -319,14 +386,28 @@ public class AddFragment extends Fragment {
         mQuantityNumberPicker.setEnabled(true);
     }
 
+    /**
+     * Stops delivering results to the fragment when it is destroyed. A food item that is being
+     * added is still stored.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mAsyncFoodManager.cancelAll(this);
+        ImageLoader.get(getActivity()).cancelAll(this);
+    }
+
     /**
      * Overrides the onStop() method so the temporary photo file is deleted when the user leaves
-     * the fragment.
+     * the fragment, unless a food item is being added with it.
      */
     @Override
     public void onStop() {
         super.onStop();
-        mFoodManager.deleteTempPhotoFile();
+        // A food item being added still needs the photo, and moves it away when it is stored
+        if (!mIsAdding) {
+            mFoodManager.deleteTempPhotoFile();
+        }
     }
 
     /**
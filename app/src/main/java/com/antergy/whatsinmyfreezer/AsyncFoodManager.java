@@ -0,0 +1,269 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs work on the food database off the main thread. All writes are run in order on one writer
+ * thread, and queries are run on a small pool of reader threads. A query waits until all writes
+ * that were requested before it are done, so a screen always reads what an earlier screen wrote.
+ * Results are delivered to a Callback on the main thread. Every request has a tag, usually the
+ * fragment that made it, and cancelAll() is called with the tag when the fragment is destroyed.
+ * A cancelled query is not run if it has not started, and a cancelled write is still run but its
+ * result is not delivered.
+ */
+public class AsyncFoodManager {
+    private static final int READER_THREADS = 2;
+    private static final ExecutorService sWriter =
+            Executors.newSingleThreadExecutor(new DatabaseThreadFactory("FoodWriter"));
+    private static final ExecutorService sReaders =
+            Executors.newFixedThreadPool(READER_THREADS, new DatabaseThreadFactory("FoodReader"));
+    private static AsyncFoodManager sAsyncFoodManager = null;
+    private final FoodManager mFoodManager;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Object, List<Request>> mRequests = new HashMap<>();
+    private final Object mWriteLock = new Object();
+    private long mRequestedWrites;
+    private long mFinishedWrites;
+
+    /**
+     * Receives the result of a request on the main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * A request that has been sent to the writer thread or the reader threads.
+     */
+    public static class Request {
+        private final Object mTag;
+        private volatile boolean mCancelled;
+
+        private Request(Object tag) {
+            mTag = tag;
+        }
+
+        /**
+         * Cancels the request. The callback of the request will not be called.
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    public static AsyncFoodManager get(Context context) {
+        if (sAsyncFoodManager == null) {
+            sAsyncFoodManager = new AsyncFoodManager(context);
+        }
+        return sAsyncFoodManager;
+    }
+
+    private AsyncFoodManager(Context context) {
+        mFoodManager = FoodManager.get(context);
+    }
+
+    /**
+     * Returns the executor of the writer thread. Work that writes to the database outside of
+     * this class, like migrations, is run on it so it never runs at the same time as a write.
+     */
+    static Executor getWriteExecutor() {
+        return sWriter;
+    }
+
+    /**
+     * Gets the food manager the requests are run against.
+     */
+    public FoodManager getFoodManager() {
+        return mFoodManager;
+    }
+
+    /**
+     * Runs a query on a reader thread, after all writes that have already been requested.
+     * @param tag      the tag to cancel the request with, null if it is never cancelled.
+     * @param query    the query to run.
+     * @param callback receives the result on the main thread, may be null.
+     * @return the request, which can be cancelled.
+     */
+    public <T> Request read(Object tag, final Callable<T> query, final Callback<T> callback) {
+        final Request request = addRequest(tag);
+        final long writesBefore;
+        synchronized (mWriteLock) {
+            writesBefore = mRequestedWrites;
+        }
+
+        sReaders.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    removeRequest(request);
+                    return;
+                }
+                awaitWrites(writesBefore);
+                deliver(request, call(query), callback);
+            }
+        });
+        return request;
+    }
+
+    /**
+     * Runs a write on the writer thread, after all writes that have already been requested.
+     * @param tag      the tag to cancel the callback with, null if it is never cancelled.
+     * @param write    the write to run.
+     * @param callback receives the result on the main thread, may be null.
+     * @return the request, whose callback can be cancelled.
+     */
+    public <T> Request write(Object tag, final Callable<T> write, final Callback<T> callback) {
+        final Request request = addRequest(tag);
+        synchronized (mWriteLock) {
+            mRequestedWrites++;
+        }
+
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result;
+                try {
+                    result = call(write);
+                } finally {
+                    synchronized (mWriteLock) {
+                        mFinishedWrites++;
+                        mWriteLock.notifyAll();
+                    }
+                }
+                deliver(request, result, callback);
+            }
+        });
+        return request;
+    }
+
+    /**
+     * Cancels all requests with a specific tag.
+     * @param tag the tag the requests were made with.
+     */
+    public void cancelAll(Object tag) {
+        synchronized (mRequests) {
+            List<Request> requests = mRequests.remove(tag);
+            if (requests == null) {
+                return;
+            }
+            for (Request request : requests) {
+                request.cancel();
+            }
+        }
+    }
+
+    /**
+     * Posts a result to the callback on the main thread, unless the request is cancelled.
+     */
+    private <T> void deliver(final Request request, final T result, final Callback<T> callback) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                removeRequest(request);
+                if (!request.isCancelled() && callback != null) {
+                    callback.onResult(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Blocks the calling reader thread until a number of writes have finished.
+     */
+    private void awaitWrites(long writes) {
+        synchronized (mWriteLock) {
+            while (mFinishedWrites < writes) {
+                try {
+                    mWriteLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private Request addRequest(Object tag) {
+        Request request = new Request(tag);
+        if (tag != null) {
+            synchronized (mRequests) {
+                List<Request> requests = mRequests.get(tag);
+                if (requests == null) {
+                    requests = new ArrayList<>();
+                    mRequests.put(tag, requests);
+                }
+                requests.add(request);
+            }
+        }
+        return request;
+    }
+
+    private void removeRequest(Request request) {
+        if (request.mTag == null) {
+            return;
+        }
+        synchronized (mRequests) {
+            List<Request> requests = mRequests.get(request.mTag);
+            if (requests != null) {
+                requests.remove(request);
+                if (requests.isEmpty()) {
+                    mRequests.remove(request.mTag);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls a callable. Exceptions are thrown on as unchecked exceptions, so a failing request
+     * crashes the application the same way as a failing call on the main thread would.
+     */
+    private static <T> T call(Callable<T> callable) {
+        try {
+            return callable.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates named background priority threads for the database executors.
+     */
+    private static class DatabaseThreadFactory implements ThreadFactory {
+        private final String mName;
+        private int mCount;
+
+        DatabaseThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public synchronized Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mName + "-" + ++mCount);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Keeps bitmaps that are no longer used, so the decoder can decode into them through inBitmap
+ * instead of allocating a new bitmap for every photo. The bitmaps are bucketed by the number of
+ * bytes they have allocated, and a request is served from the smallest bitmap that is large
+ * enough, as long as it is not much larger. The pool is bounded by a number of bytes, and the
+ * bitmaps that were put in first are dropped when it is full.
+ * Only bitmaps that nothing else refers to may be put in the pool, such as the sampled bitmap
+ * that a scaled copy was made of. Bitmaps shown in views or kept in the caches of ImageLoader are
+ * never put in it, since they could be drawn after the decoder has written another photo into
+ * them.
+ * Decoding into a bitmap of another size needs Android 4.4, so on older versions the pool is
+ * always empty. The pool counts the bytes it has served and the bytes that had to be allocated,
+ * and getReport() describes them, to compare the allocations with and without the pool.
+ */
+public class BitmapPool {
+    private static final int MAX_SIZE_MULTIPLE = 4;
+    private static BitmapPool sBitmapPool = null;
+    private final int mMaxBytes;
+    private final TreeMap<Integer, List<Bitmap>> mBuckets = new TreeMap<>();
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    private int mBytes;
+    private int mHits;
+    private int mMisses;
+    private long mReusedBytes;
+    private long mAllocatedBytes;
+
+    public static synchronized BitmapPool get() {
+        if (sBitmapPool == null) {
+            // A sixteenth of the heap the application may use
+            sBitmapPool = new BitmapPool(
+                    (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16));
+        }
+        return sBitmapPool;
+    }
+
+    private BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Takes a bitmap out of the pool that a bitmap of a specific size can be decoded into.
+     * @param width  the width of the bitmap to decode, in pixels.
+     * @param height the height of the bitmap to decode, in pixels.
+     * @param config the configuration the bitmap is decoded with.
+     * @return a bitmap to set as inBitmap, null if the pool has none that fits.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long bytes = (long) width * height * getBytesPerPixel(config);
+        Integer size = bytes <= Integer.MAX_VALUE ? mBuckets.ceilingKey((int) bytes) : null;
+        if (size == null || size > bytes * MAX_SIZE_MULTIPLE) {
+            mMisses++;
+            mAllocatedBytes += bytes;
+            return null;
+        }
+        List<Bitmap> bucket = mBuckets.get(size);
+        Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(size);
+        }
+        mBitmaps.remove(bitmap);
+        mBytes -= size;
+        mHits++;
+        mReusedBytes += bytes;
+        return bitmap;
+    }
+
+    /**
+     * Puts a bitmap that is no longer used in the pool. Bitmaps that can not be decoded into are
+     * ignored.
+     * @param bitmap the bitmap, which must not be used by the caller afterwards.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || bitmap == null ||
+                !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (size > mMaxBytes || mBitmaps.contains(bitmap)) {
+            return;
+        }
+        List<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.add(bitmap);
+        mBitmaps.add(bitmap);
+        mBytes += size;
+
+        while (mBytes > mMaxBytes) {
+            Bitmap oldest = mBitmaps.removeFirst();
+            int oldestSize = oldest.getAllocationByteCount();
+            List<Bitmap> oldestBucket = mBuckets.get(oldestSize);
+            oldestBucket.remove(oldest);
+            if (oldestBucket.isEmpty()) {
+                mBuckets.remove(oldestSize);
+            }
+            mBytes -= oldestSize;
+        }
+    }
+
+    /**
+     * Describes how many decodes the pool has served and how many bytes it has saved.
+     */
+    public synchronized String getReport() {
+        return "bitmap pool: " + mHits + " reused (" + mReusedBytes / 1024 + " kB), " +
+                mMisses + " allocated (" + mAllocatedBytes / 1024 + " kB), " +
+                mBitmaps.size() + " pooled (" + mBytes / 1024 + " of " + mMaxBytes / 1024 +
+                " kB)";
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,119 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Adapter for the category spinners, which shows the number of food items in every category next
+ * to its name. The items are the names themselves, so the selected item of a spinner is still the
+ * name of the category. The names are read with loadCategories(), and only the item for no
+ * category is shown until then. The counts are read from the category summaries with
+ * loadCounts(), and the names are shown without counts until they have been read.
+ */
+public class CategoryAdapter extends ArrayAdapter<String> {
+    private final String mNoCategory;
+    private Map<String, Integer> mCounts = Collections.emptyMap();
+
+    /**
+     * @param context the context of the spinner.
+     */
+    public CategoryAdapter(Context context) {
+        super(context, android.R.layout.simple_spinner_item, new ArrayList<String>());
+        setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mNoCategory = context.getString(R.string.no_category);
+        add(mNoCategory);
+    }
+
+    /**
+     * Gets the names of the categories from CategoryManager, which reads them on a reader thread
+     * if they are not in memory yet, and then reads their counts.
+     * @param tag the tag of the reads, used to cancel the callbacks.
+     */
+    public void loadCategories(final Object tag) {
+        CategoryManager.get(getContext()).loadCategories(tag,
+                new AsyncFoodManager.Callback<List<String>>() {
+                    @Override
+                    public void onResult(List<String> categories) {
+                        setNotifyOnChange(false);
+                        clear();
+                        addAll(categories);
+                        notifyDataSetChanged();
+                        loadCounts(tag);
+                    }
+                });
+    }
+
+    /**
+     * Reads the counts of the categories on a reader thread, and shows them when they are read.
+     * @param tag the tag of the read, used to cancel the callback.
+     */
+    public void loadCounts(Object tag) {
+        AsyncFoodManager asyncFoodManager = AsyncFoodManager.get(getContext());
+        final FoodManager foodManager = asyncFoodManager.getFoodManager();
+        asyncFoodManager.read(tag,
+                new Callable<List<CategorySummary>>() {
+                    @Override
+                    public List<CategorySummary> call() {
+                        return foodManager.getCategorySummaries();
+                    }
+                },
+                new AsyncFoodManager.Callback<List<CategorySummary>>() {
+                    @Override
+                    public void onResult(List<CategorySummary> summaries) {
+                        setCounts(summaries);
+                    }
+                });
+    }
+
+    /**
+     * Sets the counts that are shown next to the names.
+     * @param summaries the summaries of the categories, with their stored names.
+     */
+    public void setCounts(List<CategorySummary> summaries) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (CategorySummary summary : summaries) {
+            counts.put(summary.getName(), summary.getItemCount());
+        }
+        mCounts = counts;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) super.getView(position, convertView, parent);
+        view.setText(getLabel(position));
+        return view;
+    }
+
+    @Override
+    public View getDropDownView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) super.getDropDownView(position, convertView, parent);
+        view.setText(getLabel(position));
+        return view;
+    }
+
+    /**
+     * Returns the name of a category with its count. The food items without a category are
+     * stored under VALUE_NO_CATEGORY, but are listed with a localized name.
+     */
+    private String getLabel(int position) {
+        String name = getItem(position);
+        String storedName = name.equalsIgnoreCase(mNoCategory) ?
+                CategoryManager.VALUE_NO_CATEGORY : name;
+        Integer count = mCounts.get(storedName);
+        if (count == null) {
+            return name;
+        }
+        return getContext().getString(R.string.category_with_count, name, count);
+    }
+}
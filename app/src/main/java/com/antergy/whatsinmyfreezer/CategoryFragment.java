@@ -10,15 +10,11 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
-import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Fragment for handling categories. The user can add, rename and remove a category.
@@ -36,8 +32,9 @@ public class CategoryFragment extends Fragment {
     private Spinner mRemoveSpinner;
     private Button mRemoveButton;
     private CategoryManager mCategoryManager;
-    private ArrayAdapter<String> mRemoveAdapter;
-    private ArrayAdapter<String> mEditAdapter;
+    private AsyncFoodManager mAsyncFoodManager;
+    private CategoryAdapter mRemoveAdapter;
+    private CategoryAdapter mEditAdapter;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -59,6 +56,7 @@ public class CategoryFragment extends Fragment {
         mRemoveSpinner = (Spinner) view.findViewById(R.id.remove_category_spinner);
         mRemoveButton = (Button) view.findViewById(R.id.remove_category_button);
         mCategoryManager = CategoryManager.get(getActivity());
+        mAsyncFoodManager = AsyncFoodManager.get(getActivity());
         // Configure graphics
         setNewEditText();
         setEditEditText();
@@ -90,66 +88,69 @@ public class CategoryFragment extends Fragment {
             if (resultCode == Activity.RESULT_OK) {
                 String[] names = (String[]) data.getSerializableExtra(
                         DialogConfirmMergeFragment.EXTRA_CONFIRM_MESSAGE);
-                String oldName = names[0];
-                String newName = names[1];
-
-                mCategoryManager.removeCategory(oldName);
-
-                FoodManager foodManager = FoodManager.get(getActivity());
-                foodManager.updateCategory(oldName, newName);
-
+                final String oldName = names[0];
+                final String newName = names[1];
+
+                mCategoryManager.mergeCategory(this, oldName, newName,
+                        new AsyncFoodManager.Callback<Void>() {
+                            @Override
+                            public void onResult(Void result) {
+                                String message = "<" + oldName + "> " +
+                                        getString(R.string.merged) +
+                                        " <" + newName + ">";
+                                Toast toast = Toast.makeText(getActivity().getBaseContext(),
+                                        message,
+                                        Toast.LENGTH_LONG);
+                                toast.show();
+                            }
+                        });
                 updateSpinners();
-
-                String message = "<" + oldName + "> " +
-                        this.getString(R.string.merged) +
-                        " <" + newName + ">";
-                Toast toast = Toast.makeText(getActivity().getBaseContext(),
-                        message,
-                        Toast.LENGTH_LONG);
-                toast.show();
             }
         } else if (requestCode == REQUEST_ANSWER_REMOVE) {
-            String name = (String) data.getSerializableExtra(
+            final String name = (String) data.getSerializableExtra(
                     DialogRemoveCategoryFragment.EXTRA_REMOVE_CATEGORY);
             if (resultCode == Activity.RESULT_FIRST_USER) {
-                mCategoryManager.removeCategory(name);
-
-                FoodManager foodManager = FoodManager.get(getActivity());
-                ArrayList<Food> foodList = (ArrayList<Food>) foodManager.getCategoryList(name);
-                for (Food food : foodList) {
-                    File photoFile = foodManager.getPhotoFile(food.getPhotoFilename());
-                    foodManager.deletePhotoFile(photoFile);
-                }
-                foodManager.removeAllInCategory(name);
-
-                updateSpinners();
-
-                String message = "<"+name+"> "+
-                        this.getString(R.string.removed_category_all);
-                Toast toast = Toast.makeText(getActivity().getBaseContext(),
-                        message,
-                        Toast.LENGTH_LONG);
-                toast.show();
+                mCategoryManager.removeCategory(this, name, true,
+                        new AsyncFoodManager.Callback<Void>() {
+                            @Override
+                            public void onResult(Void result) {
+                                String message = "<"+name+"> "+
+                                        getString(R.string.removed_category_all);
+                                Toast toast = Toast.makeText(getActivity().getBaseContext(),
+                                        message,
+                                        Toast.LENGTH_LONG);
+                                toast.show();
+                            }
+                        });
                 updateSpinners();
             } else if (resultCode == Activity.RESULT_FIRST_USER+1) {
-                mCategoryManager.removeCategory(name);
-
-                FoodManager foodManager = FoodManager.get(getActivity());
-                foodManager.updateCategory(name, CategoryManager.VALUE_NO_CATEGORY);
-
-                updateSpinners();
-
-                String message = "<"+name+"> "+
-                        this.getString(R.string.removed_category);
-                Toast toast = Toast.makeText(getActivity().getBaseContext(),
-                        message,
-                        Toast.LENGTH_LONG);
-                toast.show();
+                mCategoryManager.removeCategory(this, name, false,
+                        new AsyncFoodManager.Callback<Void>() {
+                            @Override
+                            public void onResult(Void result) {
+                                String message = "<"+name+"> "+
+                                        getString(R.string.removed_category);
+                                Toast toast = Toast.makeText(getActivity().getBaseContext(),
+                                        message,
+                                        Toast.LENGTH_LONG);
+                                toast.show();
+                            }
+                        });
                 updateSpinners();
             }
         }
     }
 
+    /**
+     * Stops delivering results to the fragment when it is destroyed. Category changes that have
+     * been requested are still written.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mAsyncFoodManager.cancelAll(this);
+    }
+
     /**
      * Sets the new category name field.
      */
@@ -179,7 +180,7 @@ public class CategoryFragment extends Fragment {
     /**
      * Sets the add a new category button. A new category is only created if the user specifies a
      * name and the name has to start with a number or letter. This to make sure the
-     * key KEY_NO_CATEGORY in CategoryManager is not overwritten.
+     * category VALUE_NO_CATEGORY in CategoryManager is not overwritten.
      */
     private void setNewButton() {
         mAddButton.setOnClickListener(new View.OnClickListener() {
@@ -277,19 +278,27 @@ public class CategoryFragment extends Fragment {
      * Adds a new category if the chosen category name does not already exists.
      * @param name the name of the category.
      */
-    private void addCategory(String name) {
-        boolean added = mCategoryManager.addCategory(name);
-        String message;
-        if (added) {
-            message = "<"+name+"> "+
-                    this.getString(R.string.added);
-            updateSpinners();
-        } else {
-            message = "<"+name+"> "+
-                    this.getString(R.string.category_exists);
-        }
-        Toast toast = Toast.makeText(getActivity().getBaseContext(), message, Toast.LENGTH_LONG);
-        toast.show();
+    private void addCategory(final String name) {
+        mCategoryManager.addCategory(name, new AsyncFoodManager.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean added) {
+                if (!isAdded()) {
+                    return;
+                }
+                String message;
+                if (added) {
+                    message = "<"+name+"> "+
+                            getString(R.string.added);
+                    updateSpinners();
+                } else {
+                    message = "<"+name+"> "+
+                            getString(R.string.category_exists);
+                }
+                Toast toast = Toast.makeText(getActivity().getBaseContext(), message,
+                        Toast.LENGTH_LONG);
+                toast.show();
+            }
+        });
     }
 
     /**
@@ -298,30 +307,36 @@ public class CategoryFragment extends Fragment {
      * @param oldName the current name of the category.
      * @param newName the new name assigned to the category.
      */
-    private void editCategory(String oldName, String newName) {
-        String message;
+    private void editCategory(final String oldName, final String newName) {
         if (oldName.equalsIgnoreCase(newName)) {
-            message = this.getString(R.string.same_name);
+            String message = this.getString(R.string.same_name);
             Toast toast = Toast.makeText(getActivity().getBaseContext(), message, Toast.LENGTH_LONG);
             toast.show();
-        } else {
-            int edited = mCategoryManager.changeCategory(oldName, newName);
-            if (edited > 0) {// new name assigned to category
-                message = "<"+oldName+"> "+
-                        this.getString(R.string.edited)+
-                        " <"+newName+">";
-                Toast toast = Toast.makeText(getActivity().getBaseContext(),
-                        message, Toast.LENGTH_LONG);
-                toast.show();
-                updateSpinners();
-            } else {// categories merged
-                FragmentManager manager = getActivity().getSupportFragmentManager();
-                DialogConfirmMergeFragment dialog = DialogConfirmMergeFragment
-                        .newInstance(new String[]{oldName, newName});
-                dialog.setTargetFragment(CategoryFragment.this, REQUEST_ANSWER_MERGE);
-                dialog.show(manager, DIALOG_MERGE);
-            }
+            return;
         }
+        mCategoryManager.changeCategory(oldName, newName, new AsyncFoodManager.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean edited) {
+                if (!isAdded()) {
+                    return;
+                }
+                if (edited) {// new name assigned to category
+                    String message = "<"+oldName+"> "+
+                            getString(R.string.edited)+
+                            " <"+newName+">";
+                    Toast toast = Toast.makeText(getActivity().getBaseContext(),
+                            message, Toast.LENGTH_LONG);
+                    toast.show();
+                    updateSpinners();
+                } else {// categories merged
+                    FragmentManager manager = getActivity().getSupportFragmentManager();
+                    DialogConfirmMergeFragment dialog = DialogConfirmMergeFragment
+                            .newInstance(new String[]{oldName, newName});
+                    dialog.setTargetFragment(CategoryFragment.this, REQUEST_ANSWER_MERGE);
+                    dialog.show(manager, DIALOG_MERGE);
+                }
+            }
+        });
     }
 
     /**
@@ -361,38 +376,26 @@ public class CategoryFragment extends Fragment {
      * Add an adapter to the remove spinner.
      */
     private void addRemoveAdapter() {
-        List<String> spinnerItems = mCategoryManager.getCategories();
-        mRemoveAdapter = new ArrayAdapter<String>(
-                getActivity(),
-                android.R.layout.simple_spinner_item,
-                spinnerItems
-        );
-        mRemoveAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mRemoveAdapter = new CategoryAdapter(getActivity());
         mRemoveSpinner.setAdapter(mRemoveAdapter);
+        mRemoveAdapter.loadCategories(this);
     }
 
     /**
      * Adds an adapter to the edit spinner.
      */
     private void addEditAdapter() {
-        List<String> spinnerItems = mCategoryManager.getCategories();
-        mEditAdapter = new ArrayAdapter<String>(
-                getActivity(),
-                android.R.layout.simple_spinner_item,
-                spinnerItems
-        );
-        mEditAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mEditAdapter = new CategoryAdapter(getActivity());
         mEditSpinner.setAdapter(mEditAdapter);
+        mEditAdapter.loadCategories(this);
     }
 
     /**
-     * Updates the spinners when a category has been created, renamed or deleted.
+     * Updates the spinners when a category has been created, renamed or deleted. The counts are
+     * read again, since food items may have been moved or removed with the category.
      */
     private void updateSpinners() {
-        List<String> spinnerItems = mCategoryManager.getCategories();
-        mRemoveAdapter.clear();
-        mEditAdapter.clear();
-        mRemoveAdapter.addAll(spinnerItems);
-        mEditAdapter.addAll(spinnerItems);
+        mRemoveAdapter.loadCategories(this);
+        mEditAdapter.loadCategories(this);
     }
 }
@@ -1,24 +1,25 @@
 package com.antergy.whatsinmyfreezer;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
- * This class is used for managing the categories. A category is saved as a shared preference
- * key:value pair.
+ * This class is used for managing the categories. The categories are stored in the category table
+ * of the database. The names are also kept in memory, so the screens can list and check them
+ * without reading the database, and the changes are written to the database on the writer thread
+ * of AsyncFoodManager.
  */
 public class CategoryManager {
     private static CategoryManager sCategoryManager = null;
-    private SharedPreferences mSharedPreferences;
-    private static final String CATEGORY_PREFERENCES = "_CATEGORY_PREFERENCES";
-    private static final String NOT_FOUND = "_RETURN_NOT FOUND";
     public static final String KEY_NO_CATEGORY = "_KEY_NO_CATEGORY";
     public static final String VALUE_NO_CATEGORY = "_NO_CATEGORY";
     private Context mContext;
+    private AsyncFoodManager mAsyncFoodManager;
+    private List<String> mCategories;
 
     public static CategoryManager get(Context context) {
         if (sCategoryManager == null) {
@@ -29,91 +30,175 @@ public class CategoryManager {
 
     private CategoryManager(Context context) {
         mContext = context.getApplicationContext();
-        mSharedPreferences = mContext.getSharedPreferences(
-                CATEGORY_PREFERENCES,
-                mContext.MODE_PRIVATE);
+        mAsyncFoodManager = AsyncFoodManager.get(mContext);
     }
 
     /**
-     * Stores a new category to if it does not already exists.
-     * @param name the name of the category.
-     * @return true if the category was stored and did not already exist, false otherwise.
+     * Stores a new category if it does not already exist. The names are read on a reader thread
+     * first if they are not in memory yet, so the check never reads the database on the main
+     * thread.
+     * @param name     the name of the category.
+     * @param callback receives true on the main thread if the category was stored and did not
+     *                 already exist, false otherwise.
      */
-    public boolean addCategory(String name) {
-        String findName = mSharedPreferences.getString(name, NOT_FOUND);
-        if (findName.equalsIgnoreCase(NOT_FOUND)) {
-            SharedPreferences.Editor editor = mSharedPreferences.edit();
-            editor.putString(name, name);
-            editor.commit();
-            return true;
-        } else {
-            return false;
-        }
+    public void addCategory(final String name, final AsyncFoodManager.Callback<Boolean> callback) {
+        loadCategories(null, new AsyncFoodManager.Callback<List<String>>() {
+            @Override
+            public void onResult(List<String> categories) {
+                if (mCategories.contains(name)) {
+                    callback.onResult(false);
+                    return;
+                }
+                mCategories.add(name);
+                Collections.sort(mCategories);
+
+                final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+                mAsyncFoodManager.write(null, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return foodManager.addCategory(name);
+                    }
+                }, null);
+                callback.onResult(true);
+            }
+        });
     }
 
     /**
      * Changes the name of a category. If the new name already exists for another category,
-     * the name change is aborted.
-     * @param newName the new name to assign the category.
-     * @param oldName the current name of the category.
-     * @return 1 of the category name was changed, 0 otherwise.
+     * the name change is aborted. The food items refer to the category by id, so the food items
+     * in the category are not rewritten. Like addCategory(), the names are read on a reader
+     * thread first if they are not in memory yet.
+     * @param oldName  the current name of the category.
+     * @param newName  the new name to assign the category.
+     * @param callback receives true on the main thread if the category name was changed, false
+     *                 if the new name already exists.
      */
-    public int changeCategory(String oldName, String newName) {
-        String findName = mSharedPreferences.getString(newName, NOT_FOUND);
-        if (findName.equalsIgnoreCase(NOT_FOUND)) {
-            SharedPreferences.Editor editor = mSharedPreferences.edit();
-            editor.remove(oldName);
-            editor.putString(newName, newName);
-            editor.commit();
-            // update database with new category name
-            FoodManager foodManager = FoodManager.get(mContext);
-            foodManager.updateCategory(oldName, newName);
-            return 1;
-        } else {
-            return 0;
+    public void changeCategory(final String oldName, final String newName,
+                               final AsyncFoodManager.Callback<Boolean> callback) {
+        loadCategories(null, new AsyncFoodManager.Callback<List<String>>() {
+            @Override
+            public void onResult(List<String> categories) {
+                if (mCategories.contains(newName)) {
+                    callback.onResult(false);
+                    return;
+                }
+                mCategories.remove(oldName);
+                mCategories.add(newName);
+                Collections.sort(mCategories);
+
+                final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+                mAsyncFoodManager.write(null, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return foodManager.renameCategory(oldName, newName);
+                    }
+                }, null);
+                callback.onResult(true);
+            }
+        });
+    }
+
+    /**
+     * Merges a category into another one. The food items of the category are moved to the other
+     * category and the category is removed, in one transaction.
+     * @param tag      the tag of the write, used to cancel the callback.
+     * @param oldName  the category to remove.
+     * @param newName  the category to move the food items to.
+     * @param callback called on the main thread when the categories have been merged, may be null.
+     */
+    public void mergeCategory(Object tag, String oldName, String newName,
+                              AsyncFoodManager.Callback<Void> callback) {
+        // Names that are not in memory yet are read after the merge, so they are right already
+        if (mCategories != null) {
+            mCategories.remove(oldName);
         }
+
+        final String oldCategory = oldName;
+        final String newCategory = newName;
+        final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+        mAsyncFoodManager.write(tag, new Callable<Void>() {
+            @Override
+            public Void call() {
+                foodManager.mergeCategory(oldCategory, newCategory);
+                return null;
+            }
+        }, callback);
     }
 
     /**
-     * Removes a category if it exists.
-     * @param name the name of the category to remove.
-     * @return true if the category existed and was removed, false otherwise.
+     * Removes a category. Its food items are either removed with it, together with their photos,
+     * or moved to no category.
+     * @param tag           the tag of the write, used to cancel the callback.
+     * @param name          the name of the category to remove.
+     * @param removeContent true if the food items of the category should be removed as well.
+     * @param callback      called on the main thread when the category has been removed, may be
+     *                      null.
      */
-    public boolean removeCategory(String name) {
-        String findName = mSharedPreferences.getString(name, NOT_FOUND);
-        if (findName.equalsIgnoreCase(NOT_FOUND)) {
-            return false;
-        } else {
-            SharedPreferences.Editor editor = mSharedPreferences.edit();
-            editor.remove(name);
-            editor.commit();
-            return true;
+    public void removeCategory(Object tag, String name, boolean removeContent,
+                               AsyncFoodManager.Callback<Void> callback) {
+        if (!removeContent) {
+            mergeCategory(tag, name, VALUE_NO_CATEGORY, callback);
+            return;
         }
+        if (mCategories != null) {
+            mCategories.remove(name);
+        }
+
+        final String category = name;
+        final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+        mAsyncFoodManager.write(tag, new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int id : foodManager.getFoodIds(category)) {
+                    foodManager.deletePhotoFiles(id);
+                }
+                foodManager.removeCategory(category);
+                return null;
+            }
+        }, callback);
     }
 
     /**
      * Retieves all the categories. A non-category is added as the head of the list and is used
-     * to be the default shown item of a category spinner.
-     * @return a list containing all the categories that has been created by the user.
+     * to be the default shown item of a category spinner. The names are read on a reader thread
+     * if they are not in memory yet, so the database is not opened on the main thread.
+     * @param tag      the tag of the read, used to cancel the callback.
+     * @param callback receives the categories on the main thread. Called right away if the names
+     *                 are already in memory.
      */
-    public List<String> getCategories() {
-        List<String> list = new ArrayList<>();
-        list.add(mContext.getString(R.string.no_category));
-        Map<String, ?> map = mSharedPreferences.getAll();
-        for (Map.Entry<String, ?> entry : map.entrySet()) {
-            if (!defaultKey(entry.getKey())) {
-                list.add(entry.getValue().toString());
-            }
+    public void loadCategories(Object tag, final AsyncFoodManager.Callback<List<String>> callback) {
+        if (mCategories != null) {
+            callback.onResult(getCategories());
+            return;
         }
-        return list;
+        final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+        mAsyncFoodManager.read(tag,
+                new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        return foodManager.getCategoryNames();
+                    }
+                },
+                new AsyncFoodManager.Callback<List<String>>() {
+                    @Override
+                    public void onResult(List<String> names) {
+                        if (mCategories == null) {
+                            mCategories = new ArrayList<>(names);
+                        }
+                        callback.onResult(getCategories());
+                    }
+                });
     }
 
     /**
-     * A check to se if key is the KEY_NO_CATEGORY key.
-     * @param key the key to check.
-     * @return true if the key was the KEY_NO_CATEGORY key, false otherwise.
+     * Returns the categories kept in memory, with the non-category at the head. Only called once
+     * the names have been read.
      */
-    private boolean defaultKey(String key) {
-        return key.equalsIgnoreCase(KEY_NO_CATEGORY);
+    private List<String> getCategories() {
+        List<String> list = new ArrayList<>();
+        list.add(mContext.getString(R.string.no_category));
+        list.addAll(mCategories);
+        return list;
     }
 }
@@ -0,0 +1,39 @@
+package com.antergy.whatsinmyfreezer;
+
+/**
+ * A class representing the contents of a category: how many different food items it contains and
+ * their total quantity. The counts are kept up to date by the database, so a summary is read
+ * without reading the food items of the category.
+ */
+public class CategorySummary {
+    private String mName;
+    private int mItemCount;
+    private int mTotalQuantity;
+
+    public CategorySummary(String name, int itemCount, int totalQuantity) {
+        mName = name;
+        mItemCount = itemCount;
+        mTotalQuantity = totalQuantity;
+    }
+
+    /**
+     * Gets the name of the category.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Gets the number of different food items in the category.
+     */
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    /**
+     * Gets the sum of the quantities of the food items in the category.
+     */
+    public int getTotalQuantity() {
+        return mTotalQuantity;
+    }
+}
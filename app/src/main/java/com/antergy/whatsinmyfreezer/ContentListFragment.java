@@ -2,18 +2,32 @@ package com.antergy.whatsinmyfreezer;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
 import android.support.v4.app.Fragment;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * A fragment for displaying a list of food items. The list content is decided by which category
@@ -21,9 +35,29 @@ import java.util.List;
  */
 public class ContentListFragment extends Fragment {
     private final static String ARG_CATEGORY = "category";
+    private final static int PAGE_SIZE = 50;
+    private final static int PREFETCH_PAGES = 2;
+    private final static int WINDOW_PAGES = 3;
+    private final static int SEARCH_DELAY = 250; // ms
+    private final static int SEARCH_LIMIT = 200;
+    private final static int THUMBNAIL_PREFETCH_ROWS = 10;
     private RecyclerView mFoodRecyclerView;
     private FoodAdapter mAdapter;
     private String mCategory;
+    private AsyncFoodManager mAsyncFoodManager;
+    private FirstPageCache mFirstPageCache;
+    private ImageLoader mImageLoader;
+    private File mPhotoDirectory;
+    private final Handler mSearchHandler = new Handler();
+    private String mSearchQuery;
+    private AsyncFoodManager.Request mSearchRequest;
+    private CancellationSignal mSearchSignal;
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            search(mSearchQuery);
+        }
+    };
 
     public static ContentListFragment newInstance(String category) {
         Bundle args = new Bundle();
@@ -38,6 +72,34 @@ public class ContentListFragment extends Fragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setHasOptionsMenu(true);
+        mAsyncFoodManager = AsyncFoodManager.get(getActivity());
+        mFirstPageCache = new FirstPageCache(getActivity());
+        mImageLoader = ImageLoader.get(getActivity());
+        mPhotoDirectory = mAsyncFoodManager.getFoodManager().getPhotoDirectory();
+    }
+
+    /**
+     * Saves the first page of the list, so it can be shown at once the next time the application
+     * starts.
+     */
+    @Override
+    public void onStop() {
+        super.onStop();
+        if (mAdapter != null) {
+            mAdapter.saveFirstPage();
+        }
+    }
+
+    /**
+     * Cancels the requests for pages that have not been read yet, and the search.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        cancelSearch();
+        mAsyncFoodManager.cancelAll(this);
+        mImageLoader.cancelAll(this);
     }
 
     @Override
@@ -58,6 +120,101 @@ public class ContentListFragment extends Fragment {
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.content_toolbar_menu, menu);
+        setSearchView(menu.findItem(R.id.action_search));
+    }
+
+    /**
+     * Sets the search field in the toolbar. The list is searched when the user has stopped
+     * typing for SEARCH_DELAY ms, and the whole list is shown again when the field is closed.
+     * @param searchItem the menu item of the search field.
+     */
+    private void setSearchView(MenuItem searchItem) {
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mSearchQuery = query;
+                mSearchHandler.removeCallbacks(mSearchRunnable);
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String query) {
+                mSearchQuery = query;
+                mSearchHandler.removeCallbacks(mSearchRunnable);
+                mSearchHandler.postDelayed(mSearchRunnable, SEARCH_DELAY);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem,
+                new MenuItemCompat.OnActionExpandListener() {
+                    @Override
+                    public boolean onMenuItemActionExpand(MenuItem item) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onMenuItemActionCollapse(MenuItem item) {
+                        mSearchQuery = null;
+                        mSearchHandler.removeCallbacks(mSearchRunnable);
+                        cancelSearch();
+                        mAdapter.clearSearchResults();
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Searches the listed category in the background and shows the food items found. A search
+     * that is still running is cancelled, so only the latest query is run to the end. An empty
+     * query shows the whole list again.
+     * @param query the text in the search field.
+     */
+    private void search(final String query) {
+        cancelSearch();
+        if (query == null || FoodManager.getMatchExpression(query).isEmpty()) {
+            mAdapter.clearSearchResults();
+            return;
+        }
+        final CancellationSignal signal = new CancellationSignal();
+        final String listCategory = mAdapter.getListCategory();
+        final FoodSnapshot previous = mAdapter.getSearchResults();
+        final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+        mSearchSignal = signal;
+        mSearchRequest = mAsyncFoodManager.read(this,
+                new Callable<FoodListUpdate>() {
+                    @Override
+                    public FoodListUpdate call() {
+                        FoodSnapshot foods;
+                        try {
+                            foods = foodManager.search(listCategory, query, SEARCH_LIMIT, signal);
+                        } catch (OperationCanceledException e) {
+                            return null;
+                        }
+                        return FoodListUpdate.diff(previous, foods);
+                    }
+                },
+                new AsyncFoodManager.Callback<FoodListUpdate>() {
+                    @Override
+                    public void onResult(FoodListUpdate update) {
+                        if (update != null && query.equals(mSearchQuery)) {
+                            mAdapter.setSearchResults(update);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Cancels the search that is running, if any.
+     */
+    private void cancelSearch() {
+        if (mSearchRequest != null) {
+            mSearchRequest.cancel();
+            mSearchSignal.cancel();
+            mSearchRequest = null;
+            mSearchSignal = null;
+        }
     }
 
     /**
@@ -70,7 +227,6 @@ public class ContentListFragment extends Fragment {
             mFoodRecyclerView.setAdapter(mAdapter);
         } else {
             mAdapter.setFoodList(category);
-            mAdapter.notifyDataSetChanged();
         }
     }
 
@@ -94,17 +250,33 @@ public class ContentListFragment extends Fragment {
         startActivity(intent);
     }
 
+    /**
+     * Returns the thumbnail file of a food item. The name is built from the photo directory that
+     * was looked up when the fragment was created, so the storage is not touched while binding.
+     * @param foodId the id of the food item.
+     * @return the thumbnail file, null if the storage is not available.
+     */
+    private File getThumbnailFile(int foodId) {
+        if (mPhotoDirectory == null) {
+            return null;
+        }
+        return new File(mPhotoDirectory, Food.getThumbnailFilename(foodId));
+    }
+
     /**
      * A holder class for the RecyclerView that binds food items to the list and starts
-     * FoodItemActivity if the food item is pressed.
+     * FoodItemActivity if the food item is pressed. The row is read from the columns of a
+     * snapshot, so no Food object is created for it. Only the id is passed to the activity.
      */
     private class FoodHolder extends RecyclerView.ViewHolder  implements View.OnClickListener {
-        private Food mFood;
+        private FoodSnapshot mFoods;
+        private int mIndex;
         private TextView mNameTextView;         // Product name
         private TextView mQuantityTextView;     // Number of same product
         private TextView mAmountTextView;       // How uch of product
         private TextView mBrandTextView;        // Manufacturer
         private TextView mCategoryTextView;      // Category
+        private ImageView mThumbnailView;       // Thumbnail of the photo
 
         public FoodHolder(View itemView) {
             super(itemView);
@@ -120,45 +292,90 @@ public class ContentListFragment extends Fragment {
                     itemView.findViewById(R.id.brand_content_list);
             mCategoryTextView = (TextView)
                     itemView.findViewById(R.id.category_content_list);
+            mThumbnailView = (ImageView)
+                    itemView.findViewById(R.id.thumbnail_content_list);
         }
 
-        public void bindFood(Food food) {
-            mFood = food;
-            mNameTextView.setText(mFood.getName());
+        /**
+         * Binds a food item to the row. A null snapshot is used for a row whose page has not
+         * been read yet, and leaves the row empty. The thumbnail is shown at once if it is in
+         * memory, and is otherwise decoded in the background while the placeholder is shown.
+         * @param foods the snapshot containing the food item.
+         * @param index the row of the food item in the snapshot.
+         */
+        public void bindFood(FoodSnapshot foods, int index) {
+            mFoods = foods;
+            mIndex = index;
+            if (mFoods == null) {
+                mNameTextView.setText("");
+                mQuantityTextView.setText("");
+                mAmountTextView.setText("");
+                mBrandTextView.setText("");
+                mCategoryTextView.setText("");
+                mImageLoader.cancel(mThumbnailView);
+                mThumbnailView.setImageResource(R.drawable.ic_panorama_black_48dp);
+                return;
+            }
+            mNameTextView.setText(mFoods.getName(index));
 
-            String quantity = "("+mFood.getQuantity()+")";
+            String quantity = "("+mFoods.getQuantity(index)+")";
             mQuantityTextView.setText(quantity);
 
-            mAmountTextView.setText(mFood.getAmount());
+            mAmountTextView.setText(mFoods.getAmount(index));
 
-            mBrandTextView.setText(mFood.getBrand());
+            mBrandTextView.setText(mFoods.getBrand(index));
 
-            if (!mFood.getCategory().equalsIgnoreCase(CategoryManager.VALUE_NO_CATEGORY)) {
-                mCategoryTextView.setText(mFood.getCategory());
+            String category = mFoods.getCategory(index);
+            if (!category.equalsIgnoreCase(CategoryManager.VALUE_NO_CATEGORY)) {
+                mCategoryTextView.setText(category);
+            } else {
+                mCategoryTextView.setText("");
+            }
+
+            File thumbnailFile = getThumbnailFile(mFoods.getId(index));
+            if (thumbnailFile != null) {
+                mImageLoader.loadThumbnail(ContentListFragment.this, mThumbnailView,
+                        thumbnailFile, R.drawable.ic_panorama_black_48dp);
+            } else {
+                mImageLoader.cancel(mThumbnailView);
+                mThumbnailView.setImageResource(R.drawable.ic_panorama_black_48dp);
             }
         }
 
         @Override
         public void onClick(View view) {
-            String[] food = new String[]{
-                    mFood.getName(),
-                    mFood.getBrand(),
-                    mFood.getAmount(),
-                    mFood.getCategory(),
-                    Integer.toString(mFood.getQuantity()),
-                    Integer.toString(mFood.getId())
-            };
-
-            Intent intent = FoodItemActivity.newIntent(getActivity(), food);
+            if (mFoods == null) {
+                return;
+            }
+            Intent intent = FoodItemActivity.newIntent(getActivity(), mFoods.getId(mIndex));
             startActivity(intent);
         }
     }
 
     /**
-     * Adapter class for the RecyclerView.
+     * Adapter class for the RecyclerView. The food items are read one page at a time in the
+     * background, starting after the last food item of the page before. Pages are read ahead of
+     * the scroll direction, and only the pages close to the visible rows are kept in memory.
+     * Pages further away are dropped and read again if the user scrolls back to them.
+     * When the same list is shown again, the rows up to the end of the kept pages are read again
+     * and compared with the old ones in the background, and only the rows that have been added,
+     * removed, moved or changed are updated. The adapter has no stable ids, since the id of a
+     * row is not known until its page has been read, and the diff already tells which rows have
+     * moved.
      */
     private class FoodAdapter extends RecyclerView.Adapter<FoodHolder> {
-        private List<Food> mFood;
+        private final SparseArray<FoodSnapshot> mPages = new SparseArray<>();
+        private final SparseArray<Food> mLastOnPage = new SparseArray<>();
+        private final SparseBooleanArray mLoading = new SparseBooleanArray();
+        private String mListCategory;
+        private int mCount;
+        private int mGeneration;
+        private int mCurrentPage;
+        private FoodSnapshot mSearchResults;
+        private long mDataGeneration;
+        private int mLastBoundPosition;
+        // True once the list of a category has been requested, so it is not requested twice
+        private boolean mListRequested;
 
         public FoodAdapter(String category) {
             setFoodList(category);
@@ -173,26 +390,513 @@ public class ContentListFragment extends Fragment {
 
         @Override
         public void onBindViewHolder(FoodHolder holder, int position) {
-            Food food = mFood.get(position);
-            holder.bindFood(food);
+            boolean forward = position >= mLastBoundPosition;
+            mLastBoundPosition = position;
+            if (mSearchResults != null) {
+                holder.bindFood(mSearchResults, position);
+            } else {
+                holder.bindFood(getLoadedPage(position), position % PAGE_SIZE);
+                loadAround(position / PAGE_SIZE);
+            }
+            prefetchThumbnail(forward ? position + THUMBNAIL_PREFETCH_ROWS
+                    : position - THUMBNAIL_PREFETCH_ROWS);
+        }
+
+        /**
+         * Starts decoding the thumbnail of a row ahead of the scroll direction, so it is in
+         * memory when the row is bound. Each bound row prefetches the row a fixed distance ahead
+         * of it, which keeps the prefetched rows the same distance ahead of the visible ones
+         * however fast the list is scrolled. Rows whose page has not been read are skipped.
+         */
+        private void prefetchThumbnail(int position) {
+            if (position < 0 || position >= getItemCount()) {
+                return;
+            }
+            int id = getFoodId(position);
+            File thumbnailFile = id >= 0 ? getThumbnailFile(id) : null;
+            if (thumbnailFile != null) {
+                mImageLoader.prefetchThumbnail(ContentListFragment.this, thumbnailFile);
+            }
+        }
+
+        /**
+         * Returns the id of the food item of a row, -1 if its page has not been read.
+         */
+        private int getFoodId(int position) {
+            if (mSearchResults != null) {
+                return mSearchResults.getId(position);
+            }
+            FoodSnapshot foods = getLoadedPage(position);
+            return foods != null ? foods.getId(position % PAGE_SIZE) : -1;
+        }
+
+        /**
+         * Returns the page of a row, null if it is not in memory or does not reach the row.
+         */
+        private FoodSnapshot getLoadedPage(int position) {
+            FoodSnapshot foods = mPages.get(position / PAGE_SIZE);
+            if (foods != null && position % PAGE_SIZE < foods.size()) {
+                return foods;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the food item of a row, null if its page is not in memory.
+         */
+        private Food getLoadedFood(int position) {
+            FoodSnapshot foods = getLoadedPage(position);
+            return foods != null ? foods.get(position % PAGE_SIZE) : null;
         }
 
         @Override
         public int getItemCount() {
-            return mFood.size();
+            return mSearchResults != null ? mSearchResults.size() : mCount;
         }
 
+        /**
+         * Gets the category that is listed, null if all food items are listed.
+         */
+        public String getListCategory() {
+            return mListCategory;
+        }
+
+        /**
+         * Gets the food items found by the search that is shown, null if no search is shown.
+         */
+        public FoodSnapshot getSearchResults() {
+            return mSearchResults;
+        }
+
+        /**
+         * Shows the food items found by a search instead of the pages of the list. If the update
+         * was compared with the search results that are shown, only the changed rows are
+         * updated.
+         * @param update the food items found.
+         */
+        public void setSearchResults(FoodListUpdate update) {
+            FoodSnapshot previous = mSearchResults;
+            mSearchResults = update.getFoods();
+            if (previous != null && update.isDiffOf(previous)) {
+                update.dispatchUpdatesTo(this);
+            } else {
+                notifyDataSetChanged();
+            }
+        }
+
+        /**
+         * Shows the pages of the list again instead of the search results.
+         */
+        public void clearSearchResults() {
+            if (mSearchResults != null) {
+                mSearchResults = null;
+                notifyDataSetChanged();
+            }
+        }
+
+        /**
+         * Shows the food items of a category. If the category is already shown, the list is
+         * refreshed instead, and if it is still being read for the first time, nothing is done.
+         * The current list is shown until the food items have been read.
+         * @param category the category to list.
+         */
         public void setFoodList(String category) {
-            FoodManager foodManager = FoodManager.get(getActivity());
-            List<Food> foodList;
+            String listCategory = null;
+            if (!category.equalsIgnoreCase(getString(R.string.drawer_menu_all))) {
+                listCategory = category;
+            }
+            if (mListRequested && TextUtils.equals(listCategory, mListCategory)) {
+                if (mGeneration > 0) {
+                    checkChanges();
+                }
+                return;
+            }
+            mListCategory = listCategory;
+            loadList();
+        }
 
-            if (category.equalsIgnoreCase(getString(R.string.drawer_menu_all))) {
-                foodList = foodManager.getAll();
+        /**
+         * Reads the number of food items and the first page of the listed category in the
+         * background, and replaces the list with them. If nothing has been read yet, the saved
+         * first page of the category is shown until then.
+         */
+        private void loadList() {
+            mListRequested = true;
+            if (mGeneration == 0) {
+                showSavedFirstPage();
+            }
+            final String listCategory = mListCategory;
+            final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+            final int[] count = new int[1];
+            final long[] dataGeneration = new long[1];
+            mAsyncFoodManager.read(ContentListFragment.this,
+                    new Callable<FoodSnapshot>() {
+                        @Override
+                        public FoodSnapshot call() {
+                            dataGeneration[0] = foodManager.getGeneration();
+                            count[0] = foodManager.getCount(listCategory);
+                            return foodManager.getPage(listCategory, FoodSort.NAME, null, PAGE_SIZE);
+                        }
+                    },
+                    new AsyncFoodManager.Callback<FoodSnapshot>() {
+                        @Override
+                        public void onResult(FoodSnapshot firstPage) {
+                            onListLoaded(listCategory, dataGeneration[0], count[0], firstPage);
+                        }
+                    });
+        }
+
+        /**
+         * Reads the first page that was saved for the listed category on a reader thread, and
+         * shows it if the list has not been read from the database by then. Only the rows of
+         * the page are shown, and no other page is read, until the list has been read. The
+         * reader threads do not wait for the database to be opened, so the page is not held up
+         * by an upgrade.
+         */
+        private void showSavedFirstPage() {
+            final String listCategory = mListCategory;
+            final FirstPageCache firstPageCache = mFirstPageCache;
+            mAsyncFoodManager.read(ContentListFragment.this,
+                    new Callable<FoodSnapshot>() {
+                        @Override
+                        public FoodSnapshot call() {
+                            return firstPageCache.read(listCategory);
+                        }
+                    },
+                    new AsyncFoodManager.Callback<FoodSnapshot>() {
+                        @Override
+                        public void onResult(FoodSnapshot page) {
+                            onSavedFirstPage(listCategory, page);
+                        }
+                    });
+        }
+
+        /**
+         * Shows the saved first page, unless the list has been read or another category is
+         * listed by now.
+         */
+        private void onSavedFirstPage(String category, FoodSnapshot page) {
+            if (page == null || page.isEmpty() || mGeneration > 0 ||
+                    !TextUtils.equals(category, mListCategory)) {
+                return;
+            }
+            mPages.clear();
+            mLastOnPage.clear();
+            mPages.put(0, page);
+            mCount = page.size();
+            notifyDataSetChanged();
+            FreezerApplication.reportFirstContent("saved page");
+        }
+
+        /**
+         * Saves the first page of the list on the writer thread, if it has been read.
+         */
+        public void saveFirstPage() {
+            final FoodSnapshot page = mGeneration > 0 ? mPages.get(0) : null;
+            if (page == null) {
+                return;
+            }
+            final String listCategory = mListCategory;
+            final FirstPageCache firstPageCache = mFirstPageCache;
+            AsyncFoodManager.getWriteExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    firstPageCache.write(listCategory, page);
+                }
+            });
+        }
+
+        /**
+         * Gets the changes of the stored data since the list was read, after the writes that have
+         * been requested, and brings the list up to date with them. Nothing is read if there are
+         * no changes.
+         */
+        private void checkChanges() {
+            final int generation = mGeneration;
+            final long dataGeneration = mDataGeneration;
+            final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+            mAsyncFoodManager.read(ContentListFragment.this,
+                    new Callable<List<FoodChange>>() {
+                        @Override
+                        public List<FoodChange> call() {
+                            return foodManager.getChangesSince(dataGeneration);
+                        }
+                    },
+                    new AsyncFoodManager.Callback<List<FoodChange>>() {
+                        @Override
+                        public void onResult(List<FoodChange> changes) {
+                            onChanges(generation, changes);
+                        }
+                    });
+        }
+
+        /**
+         * Applies changes of the stored data to the list. A food item that has been updated
+         * without moving in the list is replaced in its row. Any other change that affects the
+         * list makes it refresh.
+         * @param changes the changes, null if they are not known.
+         */
+        private void onChanges(int generation, List<FoodChange> changes) {
+            if (generation != mGeneration) {
+                return;
+            }
+            if (changes == null) {
+                refresh();
+                return;
+            }
+            for (FoodChange change : changes) {
+                if (change.affects(mListCategory) &&
+                        (mSearchResults != null || !replaceFood(change))) {
+                    refresh();
+                    return;
+                }
+                mDataGeneration = change.getGeneration();
+            }
+        }
+
+        /**
+         * Replaces a food item in its row if it has been updated without changing its place in
+         * the list.
+         * @param change the change of the food item.
+         * @return true if the row was replaced, false if the list has to be refreshed.
+         */
+        private boolean replaceFood(FoodChange change) {
+            Food food = change.getFood();
+            if (change.getType() != FoodChange.Type.FOOD_UPDATED || food == null ||
+                    change.getNewCategory() != null) {
+                return false;
+            }
+            for (int i = 0; i < mPages.size(); ++i) {
+                FoodSnapshot foods = mPages.valueAt(i);
+                int j = foods.indexOfId(food.getId());
+                if (j == -1) {
+                    continue;
+                }
+                if (!TextUtils.equals(foods.getName(j), food.getName())) {
+                    return false;
+                }
+                mPages.setValueAt(i, foods.with(j, food));
+                notifyItemChanged(mPages.keyAt(i) * PAGE_SIZE + j);
+                return true;
+            }
+            // The old name is not known, so the food item may have moved to another page
+            return false;
+        }
+
+        /**
+         * Reads the pages in memory again with a keyset query from the last food item of the page
+         * before them, and compares the rows with the rows in memory by id on the reader thread,
+         * so a refresh reads the same number of rows however far the list has been scrolled.
+         * Only the pages that follow the first page in memory without a gap are read again. If
+         * food items have been added or removed before these pages, their rows no longer start
+         * at the same position, and the pages are read again from the start of the list instead.
+         */
+        private void refresh() {
+            if (mPages.size() == 0) {
+                loadList();
+                return;
+            }
+            final int firstPage = mPages.keyAt(0);
+            int lastPage = firstPage;
+            while (mPages.get(lastPage + 1) != null) {
+                lastPage++;
+            }
+            final int generation = mGeneration;
+            final int oldCount = mCount;
+            final int start = firstPage * PAGE_SIZE;
+            final int rowCount = (lastPage - firstPage + 1) * PAGE_SIZE;
+            final List<Food> oldRows = new ArrayList<>(rowCount);
+            for (int page = firstPage; page <= lastPage; ++page) {
+                oldRows.addAll(mPages.get(page));
+            }
+            final Food after = firstPage > 0 ? mLastOnPage.get(firstPage - 1) : null;
+            final String listCategory = mListCategory;
+            final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+            final int[] count = new int[1];
+            final long[] dataGeneration = new long[1];
+            mAsyncFoodManager.read(ContentListFragment.this,
+                    new Callable<FoodListUpdate>() {
+                        @Override
+                        public FoodListUpdate call() {
+                            dataGeneration[0] = foodManager.getGeneration();
+                            count[0] = foodManager.getCount(listCategory);
+                            if (firstPage > 0 && (after == null || foodManager.getPosition(
+                                    listCategory, FoodSort.NAME, after) != start)) {
+                                return null;
+                            }
+                            FoodSnapshot newRows = foodManager.getPage(listCategory,
+                                    FoodSort.NAME, after, rowCount);
+                            return FoodListUpdate.diff(oldRows, newRows).withCount(start,
+                                    oldCount, Math.max(count[0], start + newRows.size()));
+                        }
+                    },
+                    new AsyncFoodManager.Callback<FoodListUpdate>() {
+                        @Override
+                        public void onResult(FoodListUpdate update) {
+                            onListRefreshed(generation, dataGeneration[0], firstPage, count[0],
+                                    update);
+                        }
+                    });
+        }
+
+        /**
+         * Replaces the rows in memory with the rows that have been read again, and notifies the
+         * rows that differ. The page boundaries before the rows are still right and are kept.
+         * @param firstPage the page the rows start on.
+         * @param count     the number of food items in the list.
+         * @param update    the rows, null if the rows before them have changed.
+         */
+        private void onListRefreshed(int generation, long dataGeneration, int firstPage,
+                                     int count, FoodListUpdate update) {
+            if (generation != mGeneration) {
+                return;
+            }
+            mGeneration++;
+            mDataGeneration = dataGeneration;
+            mPages.clear();
+            mLoading.clear();
+            if (update == null) {
+                // None of the page boundaries are known to be right any more, so the pages are
+                // read again from the start of the list up to the visible page
+                mLastOnPage.clear();
+                mCount = count;
+                if (mSearchResults == null) {
+                    notifyDataSetChanged();
+                    loadAround(mCurrentPage);
+                } else {
+                    search(mSearchQuery);
+                }
+                return;
+            }
+            for (int i = mLastOnPage.size() - 1; i >= 0; --i) {
+                if (mLastOnPage.keyAt(i) >= firstPage) {
+                    mLastOnPage.removeAt(i);
+                }
+            }
+            FoodSnapshot rows = update.getFoods();
+            for (int i = 0; i * PAGE_SIZE < rows.size(); ++i) {
+                int page = firstPage + i;
+                FoodSnapshot foods = rows.subList(i * PAGE_SIZE,
+                        Math.min(rows.size(), (i + 1) * PAGE_SIZE));
+                mLastOnPage.put(page, foods.get(foods.size() - 1));
+                if (Math.abs(page - mCurrentPage) <= WINDOW_PAGES) {
+                    mPages.put(page, foods);
+                }
+            }
+            mCount = update.getNewCount();
+            if (mSearchResults == null) {
+                update.dispatchUpdatesTo(this);
             } else {
-                foodList = foodManager.getCategoryList(category);
+                search(mSearchQuery);
+            }
+        }
+
+        /**
+         * Makes sure the page containing the visible position and the pages ahead of it in the
+         * scroll direction are read, and drops the pages outside the window.
+         * @param page the page of a row that is being displayed.
+         */
+        private void loadAround(int page) {
+            boolean forward = page >= mCurrentPage;
+            mCurrentPage = page;
+
+            loadPage(page);
+            for (int i = 1; i <= PREFETCH_PAGES; ++i) {
+                loadPage(forward ? page + i : page - i);
             }
 
-            mFood = foodList;
+            for (int i = mPages.size() - 1; i >= 0; --i) {
+                if (Math.abs(mPages.keyAt(i) - page) > WINDOW_PAGES) {
+                    mPages.removeAt(i);
+                }
+            }
+        }
+
+        /**
+         * Starts reading a page in the background, unless it is already read or being read. A
+         * page can only be read when the last food item of the page before is known, so if the
+         * user has jumped past pages that were never read, the first of them is read instead.
+         * loadAround() is called again when it has been read, which continues towards the page.
+         * @param page the page to read.
+         */
+        private void loadPage(int page) {
+            if (page < 0 || page * PAGE_SIZE >= mCount) {
+                return;
+            }
+            int first = page;
+            while (first > 0 && mLastOnPage.get(first - 1) == null) {
+                first--;
+            }
+            if (mPages.get(first) != null || mLoading.get(first)) {
+                return;
+            }
+            mLoading.put(first, true);
+            final int generation = mGeneration;
+            final int loadPage = first;
+            final String listCategory = mListCategory;
+            final Food after = first > 0 ? mLastOnPage.get(first - 1) : null;
+            final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+            mAsyncFoodManager.read(ContentListFragment.this,
+                    new Callable<FoodSnapshot>() {
+                        @Override
+                        public FoodSnapshot call() {
+                            return foodManager.getPage(listCategory, FoodSort.NAME, after, PAGE_SIZE);
+                        }
+                    },
+                    new AsyncFoodManager.Callback<FoodSnapshot>() {
+                        @Override
+                        public void onResult(FoodSnapshot foods) {
+                            onPageLoaded(generation, loadPage, foods);
+                        }
+                    });
+        }
+
+        /**
+         * Stores a page that has been read, unless the list has been replaced since it was
+         * requested.
+         */
+        private void onPageLoaded(int generation, int page, FoodSnapshot foods) {
+            if (generation != mGeneration) {
+                return;
+            }
+            mLoading.delete(page);
+            mPages.put(page, foods);
+            if (!foods.isEmpty()) {
+                mLastOnPage.put(page, foods.get(foods.size() - 1));
+            }
+            int start = page * PAGE_SIZE;
+            notifyItemRangeChanged(start, Math.min(PAGE_SIZE, mCount - start));
+            loadAround(mCurrentPage);
+        }
+
+        /**
+         * Replaces the list with the number of food items and first page that have been read.
+         * A search that is shown is run again on the new list.
+         */
+        private void onListLoaded(String category, long dataGeneration, int count,
+                                  FoodSnapshot firstPage) {
+            if (!TextUtils.equals(category, mListCategory)) {
+                return;
+            }
+            mGeneration++;
+            mDataGeneration = dataGeneration;
+            mPages.clear();
+            mLastOnPage.clear();
+            mLoading.clear();
+            mCount = count;
+            mCurrentPage = 0;
+            mPages.put(0, firstPage);
+            if (!firstPage.isEmpty()) {
+                mLastOnPage.put(0, firstPage.get(firstPage.size() - 1));
+            }
+            notifyDataSetChanged();
+            if (!firstPage.isEmpty()) {
+                FreezerApplication.reportFirstContent("database");
+            }
+            if (mSearchResults != null) {
+                // The food items may have changed, so the search is run again
+                search(mSearchQuery);
+            }
         }
     }
 
@@ -213,4 +917,135 @@ public class ContentListFragment extends Fragment {
             updateUI(mCategory);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * New rows for the list, compared with the old rows on a background thread. The rows are
+     * the same food item if they have the same id, and are changed if anything shown in the row
+     * has changed. The compared rows may start further down the list, and the counts cover
+     * the rows before and after them, whose pages have not been read.
+     */
+    private static class FoodListUpdate {
+        private final List<Food> mOldFoods;
+        private final FoodSnapshot mFoods;
+        private final DiffUtil.DiffResult mDiff;
+        private int mStart;
+        private int mOldCount;
+        private int mNewCount;
+
+        private FoodListUpdate(List<Food> oldFoods, FoodSnapshot foods,
+                               DiffUtil.DiffResult diff) {
+            mOldFoods = oldFoods;
+            mFoods = foods;
+            mDiff = diff;
+            mOldCount = oldFoods == null ? 0 : oldFoods.size();
+            mNewCount = foods.size();
+        }
+
+        /**
+         * Compares new rows with old ones. Should be called on a background thread.
+         * @param oldFoods the old rows, null if there are none to compare with.
+         * @param foods    the new rows.
+         */
+        static FoodListUpdate diff(List<Food> oldFoods, final FoodSnapshot foods) {
+            if (oldFoods == null) {
+                return new FoodListUpdate(null, foods, null);
+            }
+            // The rows of a snapshot are created on every get(), so they are created once here
+            // instead of every time the diff compares them
+            final List<Food> oldRows = oldFoods instanceof FoodSnapshot ?
+                    new ArrayList<>(oldFoods) : oldFoods;
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return oldRows.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return foods.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                    return oldRows.get(oldPosition).getId() == foods.getId(newPosition);
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                    Food oldFood = oldRows.get(oldPosition);
+                    return TextUtils.equals(oldFood.getName(), foods.getName(newPosition)) &&
+                            oldFood.getQuantity() == foods.getQuantity(newPosition) &&
+                            TextUtils.equals(oldFood.getAmount(), foods.getAmount(newPosition)) &&
+                            TextUtils.equals(oldFood.getBrand(), foods.getBrand(newPosition)) &&
+                            TextUtils.equals(oldFood.getCategory(),
+                                    foods.getCategory(newPosition));
+                }
+            });
+            return new FoodListUpdate(oldFoods, foods, diff);
+        }
+
+        /**
+         * Sets where the compared rows start in the list and the number of rows of the whole list
+         * before and after the update, when only a part of the list has been compared. The rows
+         * before the compared ones must not have changed.
+         */
+        FoodListUpdate withCount(int start, int oldCount, int newCount) {
+            mStart = start;
+            mOldCount = oldCount;
+            mNewCount = newCount;
+            return this;
+        }
+
+        FoodSnapshot getFoods() {
+            return mFoods;
+        }
+
+        int getNewCount() {
+            return mNewCount;
+        }
+
+        /**
+         * Tells if the update was compared with specific rows.
+         */
+        boolean isDiffOf(List<Food> oldFoods) {
+            return mDiff != null && mOldFoods == oldFoods;
+        }
+
+        /**
+         * Notifies an adapter of the rows that differ, and of the rows added or removed after the
+         * compared ones.
+         */
+        void dispatchUpdatesTo(final RecyclerView.Adapter adapter) {
+            final int start = mStart;
+            mDiff.dispatchUpdatesTo(new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    adapter.notifyItemRangeInserted(start + position, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    adapter.notifyItemRangeRemoved(start + position, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    adapter.notifyItemMoved(start + fromPosition, start + toPosition);
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    adapter.notifyItemRangeChanged(start + position, count, payload);
+                }
+            });
+            int end = start + mFoods.size();
+            int oldTail = mOldCount - start - mOldFoods.size();
+            int newTail = mNewCount - end;
+            if (newTail > oldTail) {
+                adapter.notifyItemRangeInserted(end + oldTail, newTail - oldTail);
+            } else if (newTail < oldTail) {
+                adapter.notifyItemRangeRemoved(end + newTail, oldTail - newTail);
+            }
+        }
+    }
+}
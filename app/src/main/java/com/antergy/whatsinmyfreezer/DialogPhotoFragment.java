@@ -0,0 +1,68 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.app.Dialog;
+import android.graphics.Color;
+import android.graphics.Point;
+import android.os.Bundle;
+import android.support.v4.app.DialogFragment;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.File;
+
+/**
+ * Dialog fragment that shows the photo of a food item full screen, where it can be zoomed into.
+ * The photo is shown at the size of the screen, from the memory cache if it is there, and a tap
+ * closes the dialog.
+ */
+public class DialogPhotoFragment extends DialogFragment {
+    private final static String ARG_PHOTO_PATH = "photoPath";
+
+    public static DialogPhotoFragment newInstance(File photoFile) {
+        Bundle args = new Bundle();
+        args.putString(ARG_PHOTO_PATH, photoFile.getPath());
+
+        DialogPhotoFragment fragment = new DialogPhotoFragment();
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    /**
+     * Creates a full screen dialog with a zoomable photo view.
+     */
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        File photoFile = new File(getArguments().getString(ARG_PHOTO_PATH));
+        TiledPhotoView photoView = new TiledPhotoView(getActivity());
+        photoView.setLayoutParams(new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        photoView.setScaleType(ImageView.ScaleType.FIT_CENTER);
+        photoView.setBackgroundColor(Color.BLACK);
+        photoView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                dismiss();
+            }
+        });
+
+        Point size = PictureUtils.getDisplaySize(getActivity());
+        ImageLoader.get(getActivity()).load(this, photoView, photoFile,
+                Math.max(size.x, size.y), R.drawable.ic_panorama_black_48dp);
+        photoView.setPhotoFile(photoFile);
+
+        Dialog dialog = new Dialog(getActivity(),
+                android.R.style.Theme_Black_NoTitleBar_Fullscreen);
+        dialog.setContentView(photoView);
+        return dialog;
+    }
+
+    /**
+     * Cancels the loading of the photo, if it has not finished.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        ImageLoader.get(getActivity()).cancelAll(this);
+    }
+}
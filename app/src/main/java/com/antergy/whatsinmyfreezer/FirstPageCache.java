@@ -0,0 +1,93 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.content.Context;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the first page of the list that was shown last in a small binary file, so the list can
+ * be drawn as soon as the application starts, while the database is still being opened and
+ * queried. The page is replaced by the real list when it has been read.
+ * The file holds a version number, the listed category and a FoodSnapshot of the page. It is
+ * written through an AtomicFile, so a process that is killed while writing leaves the old page.
+ * A file that can not be read is ignored.
+ */
+class FirstPageCache {
+    private static final String TAG = "FirstPageCache";
+    private static final String FILE_NAME = "first_page.bin";
+    private static final int VERSION = 2;
+    private static final String ALL = "\u0000all";
+    private final AtomicFile mFile;
+
+    FirstPageCache(Context context) {
+        mFile = new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    /**
+     * Reads the first page of a list, if it is the list that was saved. Should be called on a
+     * background thread.
+     * @param category the listed category, null for all food items.
+     * @return the page, null if no page of the category is saved.
+     */
+    public FoodSnapshot read(String category) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION || !in.readUTF().equals(toKey(category))) {
+                return null;
+            }
+            return FoodSnapshot.readFrom(in);
+        } catch (IOException e) {
+            // No page has been saved, or it was written by another version
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Saves the first page of a list, replacing the page saved before. Should be called on a
+     * background thread.
+     * @param category the listed category, null for all food items.
+     * @param page     the first page.
+     */
+    public void write(String category, FoodSnapshot page) {
+        FileOutputStream file = null;
+        try {
+            file = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(VERSION);
+            out.writeUTF(toKey(category));
+            page.writeTo(out);
+            out.flush();
+            mFile.finishWrite(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save the first page", e);
+            if (file != null) {
+                mFile.failWrite(file);
+            }
+        }
+    }
+
+    private static String toKey(String category) {
+        return category == null ? ALL : category;
+    }
+
+    private static void close(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing was written, so nothing is lost
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.util.LruCache;
+
+import java.util.Map;
+
+/**
+ * The caches of FoodManager. Food items are cached by id in a bounded LRU cache, and the results
+ * of list queries are cached in another one, keyed by the category they read (or all food items)
+ * and the query. Every committed change invalidates the food items it changes and the cached
+ * queries of the categories it changes, plus the queries of all food items.
+ * Every invalidation increases a generation number. A query result is only cached if no write
+ * has invalidated anything since the query started, so a query that raced with a write can not
+ * put an old result in the cache.
+ */
+class FoodCache implements FoodManager.OnChangeListener {
+    private static final int MAX_FOODS = 500;
+    private static final int MAX_QUERIES = 64;
+    private static final String ALL = "\u0000all";
+    private static final char SEPARATOR = '\u0001';
+    private final LruCache<Integer, Food> mFoods = new LruCache<>(MAX_FOODS);
+    private final LruCache<String, Object> mQueries = new LruCache<>(MAX_QUERIES);
+    private long mGeneration;
+
+    /**
+     * Gets the current generation. Should be called before reading from the database, and passed
+     * to the put method when the result is cached.
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    public Food getFood(int id) {
+        return mFoods.get(id);
+    }
+
+    public synchronized void putFood(long generation, Food food) {
+        if (generation == mGeneration) {
+            mFoods.put(food.getId(), food);
+        }
+    }
+
+    /**
+     * Finds a food item in the cached query results, like the pages of a list, which are
+     * snapshots of up to date rows. The snapshots are searched by their id column, so no Food
+     * objects are created for the other rows.
+     * @param id the id of the food item.
+     * @return a new Food object of the row, null if no cached result has the food item.
+     */
+    public Food findFoodInQueries(int id) {
+        for (Object result : mQueries.snapshot().values()) {
+            if (result instanceof FoodSnapshot) {
+                FoodSnapshot foods = (FoodSnapshot) result;
+                int index = foods.indexOfId(id);
+                if (index != -1) {
+                    return foods.get(index);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets a cached query result.
+     * @param category the category the query reads, null if it reads all food items.
+     * @param query    a key that identifies the query within the category.
+     * @return the result, null if it is not cached.
+     */
+    public Object getQuery(String category, String query) {
+        return mQueries.get(getQueryKey(category, query));
+    }
+
+    public synchronized void putQuery(long generation, String category, String query,
+                                      Object result) {
+        if (generation == mGeneration) {
+            mQueries.put(getQueryKey(category, query), result);
+        }
+    }
+
+    /**
+     * Invalidates a food item that has been updated or deleted, and the queries of its category.
+     * @param id       the id of the food item.
+     * @param category the category of the food item.
+     */
+    public synchronized void invalidateFood(int id, String category) {
+        mGeneration++;
+        mFoods.remove(id);
+        removeQueries(category);
+    }
+
+    /**
+     * Invalidates the queries of a category where food items have been added, moved or removed,
+     * and all cached food items of the category.
+     * @param category the category that has changed.
+     */
+    public synchronized void invalidateCategory(String category) {
+        mGeneration++;
+        for (Map.Entry<Integer, Food> entry : mFoods.snapshot().entrySet()) {
+            if (category.equals(entry.getValue().getCategory())) {
+                mFoods.remove(entry.getKey());
+            }
+        }
+        removeQueries(category);
+    }
+
+    /**
+     * Invalidates what a committed change has made out of date.
+     */
+    @Override
+    public void onChange(FoodChange change) {
+        switch (change.getType()) {
+            case FOOD_INSERTED:
+            case FOOD_UPDATED:
+            case FOOD_DELETED:
+                invalidateFood(change.getFoodId(), change.getCategory());
+                if (change.getNewCategory() != null) {
+                    invalidateFood(change.getFoodId(), change.getNewCategory());
+                }
+                break;
+            default:
+                invalidateCategory(change.getCategory());
+                if (change.getNewCategory() != null) {
+                    invalidateCategory(change.getNewCategory());
+                }
+                break;
+        }
+    }
+
+    /**
+     * Returns the hit and miss counters of the two caches.
+     */
+    public String getStats() {
+        return "foods " + mFoods.hitCount() + " hits/" + mFoods.missCount() + " misses, " +
+                "queries " + mQueries.hitCount() + " hits/" + mQueries.missCount() + " misses";
+    }
+
+    /**
+     * Removes the cached queries of a category and of all food items.
+     */
+    private void removeQueries(String category) {
+        String categoryPrefix = getQueryKey(category, "");
+        String allPrefix = getQueryKey(null, "");
+        for (String key : mQueries.snapshot().keySet()) {
+            if (key.startsWith(categoryPrefix) || key.startsWith(allPrefix)) {
+                mQueries.remove(key);
+            }
+        }
+    }
+
+    private static String getQueryKey(String category, String query) {
+        return (category == null ? ALL : category) + SEPARATOR + query;
+    }
+}
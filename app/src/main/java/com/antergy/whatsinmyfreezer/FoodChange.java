@@ -0,0 +1,127 @@
+package com.antergy.whatsinmyfreezer;
+
+/**
+ * A change of the stored food items or categories, published by FoodManager after the change has
+ * been committed. Every change has a generation number, one higher than the change before.
+ * A change of a food item has its id and category, and a copy of the food item as it was stored
+ * when it is known. A change of a category has its name, and the category it was renamed or
+ * merged to.
+ */
+public class FoodChange {
+    public enum Type {
+        FOOD_INSERTED,
+        FOOD_UPDATED,
+        FOOD_DELETED,
+        CATEGORY_ADDED,
+        CATEGORY_RENAMED,
+        CATEGORY_MERGED,
+        CATEGORY_CLEARED,
+        CATEGORY_REMOVED
+    }
+
+    private final Type mType;
+    private final int mFoodId;
+    private final Food mFood;
+    private final String mCategory;
+    private final String mNewCategory;
+    private long mGeneration;
+
+    private FoodChange(Type type, int foodId, Food food, String category, String newCategory) {
+        mType = type;
+        mFoodId = foodId;
+        mFood = food;
+        mCategory = category;
+        mNewCategory = newCategory;
+    }
+
+    /**
+     * Creates a change of a food item.
+     * @param type        FOOD_INSERTED, FOOD_UPDATED or FOOD_DELETED.
+     * @param foodId      the id of the food item.
+     * @param food        the food item as it was stored, null if it is deleted or not known.
+     * @param category    the category of the food item before the change.
+     * @param newCategory the category of the food item after the change, if it was moved.
+     */
+    static FoodChange food(Type type, int foodId, Food food, String category,
+                           String newCategory) {
+        return new FoodChange(type, foodId, food, category, newCategory);
+    }
+
+    /**
+     * Creates a change of a category.
+     * @param type        one of the CATEGORY types.
+     * @param category    the name of the category.
+     * @param newCategory the name the category was renamed or merged to, null for other types.
+     */
+    static FoodChange category(Type type, String category, String newCategory) {
+        return new FoodChange(type, 0, null, category, newCategory);
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * Gets the generation of the stored data after the change.
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    void setGeneration(long generation) {
+        mGeneration = generation;
+    }
+
+    /**
+     * Gets the id of the changed food item, 0 for a change of a category.
+     */
+    public int getFoodId() {
+        return mFoodId;
+    }
+
+    /**
+     * Gets the changed food item as it was stored, null if it was deleted or is not known.
+     * The food item is shared with other receivers of the change and must not be changed.
+     */
+    public Food getFood() {
+        return mFood;
+    }
+
+    /**
+     * Gets the category of the changed food item before the change, or the changed category.
+     */
+    public String getCategory() {
+        return mCategory;
+    }
+
+    /**
+     * Gets the category the food item was moved to, or the category was renamed or merged to.
+     * Null if it did not change.
+     */
+    public String getNewCategory() {
+        return mNewCategory;
+    }
+
+    /**
+     * Tells if a category was added, renamed, merged, cleared or removed.
+     */
+    public boolean isCategoryChange() {
+        return mType.compareTo(Type.CATEGORY_ADDED) >= 0;
+    }
+
+    /**
+     * Tells if the change can affect the food items of a category.
+     * @param category the category, null for all food items.
+     * @return true if food items of the category may have been changed.
+     */
+    public boolean affects(String category) {
+        if (mType == Type.CATEGORY_ADDED) {
+            return false;
+        }
+        // The category name is shown with every food item, so a rename affects the whole list
+        if (category == null) {
+            return true;
+        }
+        return category.equals(mCategory) || category.equals(mNewCategory);
+    }
+}
@@ -0,0 +1,66 @@
+package com.antergy.whatsinmyfreezer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the generation number of the stored data and the most recent changes, and passes every
+ * change to the listeners. A screen remembers the generation it has shown. When it is shown
+ * again it can skip reading the data if the generation is the same, or apply the few changes it
+ * has missed.
+ */
+class FoodChangeLog {
+    private static final int MAX_CHANGES = 64;
+    private final FoodChange[] mChanges = new FoodChange[MAX_CHANGES];
+    private final List<FoodManager.OnChangeListener> mListeners = new ArrayList<>();
+    private long mGeneration;
+
+    /**
+     * Gets the generation of the data, the generation of the latest change.
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Gets the changes after a generation.
+     * @param generation the generation the caller has seen.
+     * @return the changes in order, empty if there are none, or null if some of them are no
+     * longer kept.
+     */
+    public synchronized List<FoodChange> getChangesSince(long generation) {
+        if (mGeneration - generation > MAX_CHANGES || generation > mGeneration) {
+            return null;
+        }
+        List<FoodChange> changes = new ArrayList<>((int) (mGeneration - generation));
+        for (long g = generation + 1; g <= mGeneration; ++g) {
+            changes.add(mChanges[(int) (g % MAX_CHANGES)]);
+        }
+        return changes;
+    }
+
+    /**
+     * Gives a change the next generation, stores it and passes it to the listeners on the
+     * calling thread.
+     */
+    public void publish(FoodChange change) {
+        List<FoodManager.OnChangeListener> listeners;
+        synchronized (this) {
+            mGeneration++;
+            change.setGeneration(mGeneration);
+            mChanges[(int) (mGeneration % MAX_CHANGES)] = change;
+            listeners = new ArrayList<>(mListeners);
+        }
+        for (FoodManager.OnChangeListener listener : listeners) {
+            listener.onChange(change);
+        }
+    }
+
+    public synchronized void addListener(FoodManager.OnChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    public synchronized void removeListener(FoodManager.OnChangeListener listener) {
+        mListeners.remove(listener);
+    }
+}
@@ -9,16 +9,16 @@ import android.support.v7.app.AppCompatActivity;
 import android.view.Menu;
 
 /**
- * An Activity class for displaying a food item.
+ * An Activity class for displaying a food item. It is started with the id of the food item only,
+ * and the fragment looks the food item up.
  */
 public class FoodItemActivity extends AppCompatActivity {
     private final static String EXTRA_FOOD_ITEM_ID =
             "com.antergy.android.whatsinmyfreezer.foodItemActivity";
-    private Food mFood;
 
-    public static Intent newIntent(Context packageContext, String[] food) {
+    public static Intent newIntent(Context packageContext, int foodId) {
         Intent intent = new Intent(packageContext, FoodItemActivity.class);
-        intent.putExtra(EXTRA_FOOD_ITEM_ID, food);
+        intent.putExtra(EXTRA_FOOD_ITEM_ID, foodId);
         return intent;
     }
 
@@ -30,10 +30,9 @@ public class FoodItemActivity extends AppCompatActivity {
         FragmentManager fm = getSupportFragmentManager();
         Fragment fragment = fm.findFragmentById(R.id.fragment_container);
 
-        String[] food = (String[]) getIntent().getSerializableExtra(EXTRA_FOOD_ITEM_ID);
-
         if (fragment == null) {
-            fragment = FoodItemFragment.newInstance(food);
+            int foodId = getIntent().getIntExtra(EXTRA_FOOD_ITEM_ID, 0);
+            fragment = FoodItemFragment.newInstance(foodId);
             fm.beginTransaction().add(R.id.fragment_container, fragment).commit();
         }
     }
@@ -2,7 +2,7 @@ package com.antergy.whatsinmyfreezer;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.graphics.Bitmap;
+import android.graphics.Point;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
@@ -11,23 +11,24 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
-import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import java.io.File;
+import java.util.concurrent.Callable;
 
 /**
  * A fragment class for displaying a food item. The user is given the ability to change
  * the quantity of the food item in the fragment.
  */
 public class FoodItemFragment extends Fragment {
-    private final static String ARG_FOOD = "food";
+    private final static String ARG_FOOD_ID = "foodId";
+    private final static String STATE_FOOD = "food";
     private final static String DIALOG_REMOVE = "dialogRemove";
     private final static String DIALOG_ADD = "dialogAdd";
+    private final static String DIALOG_PHOTO = "dialogPhoto";
     private final static int REQUEST_ANSWER_REMOVE = 0;
     private final static int REQUEST_ANSWER_ADD = 1;
-    private String[] mFoodInfo;
     private TextView mNameTextView;
     private TextView mBrandTextView;
     private TextView mAmountTextView;
@@ -35,34 +36,24 @@ public class FoodItemFragment extends Fragment {
     private TextView mQuantityTextView;
     private Button mRemoveButton;
     private Button mAddButton;
-    private String mName;
-    private String mBrand;
-    private String mAmount;
-    private String mCategory;
-    private int mQuantity;
     private int mFoodId;
-    private ImageView mPhotoView;
+    private TiledPhotoView mPhotoView;
     private File mPhotoFile;
     private FoodManager mFoodManager;
+    private AsyncFoodManager mAsyncFoodManager;
+    private QuantityWriteQueue mWriteQueue;
     private int mNewQuantity;
     private Food mFood;
 
     /**
-     * Creates a new FoodItemFragment that will have a String array passed along with it.
-     * The array is representing a Food object with the following structure:
-     * food[0] => name
-     * food[1] => brand
-     * food[2] => amount
-     * food[3] => category
-     * food[4] => quantity
-     * food[5] => id
-     * If changes are made to the String array, setFoodVariables needs to be refactored.
-     * @param food string array that contains the information of a Food object.
-     * @return a new FoodItemFragment with Food data.
+     * Creates a new FoodItemFragment for a food item. Only the id is passed, and the food item
+     * is looked up when the fragment is created.
+     * @param foodId the id of the food item.
+     * @return a new FoodItemFragment for the food item.
      */
-    public static FoodItemFragment newInstance(String[] food) {
+    public static FoodItemFragment newInstance(int foodId) {
         Bundle args = new Bundle();
-        args.putSerializable(ARG_FOOD, food);
+        args.putInt(ARG_FOOD_ID, foodId);
 
         FoodItemFragment fragment = new FoodItemFragment();
         fragment.setArguments(args);
@@ -70,25 +61,20 @@ public class FoodItemFragment extends Fragment {
     }
 
     /**
-     * Method that sets the food variables. If any change to the String array passed along in
-     * newInstance is made, only this method has to be refactored. It also retrieves the
-     * represented food object.
+     * Gets the id of the food item from the arguments. A fragment that is created again keeps
+     * the food item it showed, with the quantity the user had changed it to.
      */
-    private void setFoodVariables() {
-        mName = mFoodInfo[0];
-        mBrand = mFoodInfo[1];
-        mAmount = mFoodInfo[2];
-        mCategory = mFoodInfo[3];
-        mQuantity = Integer.parseInt(mFoodInfo[4]);
-        mNewQuantity = mQuantity;
-        mFoodId = Integer.parseInt(mFoodInfo[5]);
-        mFood = getFood();
-    }
-
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setHasOptionsMenu(true);
+        mFoodId = getArguments().getInt(ARG_FOOD_ID);
+        if (savedInstanceState != null) {
+            FoodParcel parcel = savedInstanceState.getParcelable(STATE_FOOD);
+            if (parcel != null) {
+                mFood = parcel.getFood();
+            }
+        }
     }
 
     @Override
@@ -104,20 +90,23 @@ public class FoodItemFragment extends Fragment {
         mQuantityTextView = (TextView) view.findViewById(R.id.food_quantity_textview);
         mRemoveButton = (Button) view.findViewById(R.id.food_remove_button);
         mAddButton = (Button) view.findViewById(R.id.food_add_button);
-        mPhotoView = (ImageView) view.findViewById(R.id.food_fragment_picture);
+        mPhotoView = (TiledPhotoView) view.findViewById(R.id.food_fragment_picture);
 
         mFoodManager = FoodManager.get(getActivity());
+        mAsyncFoodManager = AsyncFoodManager.get(getActivity());
+        mWriteQueue = QuantityWriteQueue.get(getActivity());
 
-        // Configure graphics
-        if (mFoodInfo == null) {
-            mFoodInfo = (String[]) getArguments().getSerializable(ARG_FOOD);
-        }
-
-        setFoodVariables();
-        setTextViews();
-        setPhotoView();
         setRemoveButton();
         setAddButton();
+        setPhotoButton();
+        if (mFood == null) {
+            mFood = findFood();
+        }
+        if (mFood != null) {
+            showFood();
+        } else {
+            readFood();
+        }
 
         Toolbar toolbar = (Toolbar) view.findViewById(R.id.toolbar);
         FoodItemActivity activity = (FoodItemActivity) getActivity();
@@ -130,10 +119,32 @@ public class FoodItemFragment extends Fragment {
         return view;
     }
 
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (mFood != null) {
+            mFood.setQuantity(mNewQuantity);
+            outState.putParcelable(STATE_FOOD, new FoodParcel(mFood));
+        }
+    }
+
+    /**
+     * Cancels the lookup of the food item and the loading of its photo, if they have not
+     * finished.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mAsyncFoodManager != null) {
+            mAsyncFoodManager.cancelAll(this);
+        }
+        ImageLoader.get(getActivity()).cancelAll(this);
+    }
+
     /**
      * If requests have been made to the add or remove dialogs, the results are handled here.
      * The quantity of the food item is increased or reduced accordingly by calling
-     * updateQuantity();
+     * changeQuantity();
      */
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
@@ -141,42 +152,38 @@ public class FoodItemFragment extends Fragment {
             int quantity = (int) data.getSerializableExtra(
                     DialogAddQuantityFragment.EXTRA_ADD_QUANTITY_MESSAGE);
             if (resultCode == Activity.RESULT_OK) {
-                updateQuantity(mNewQuantity + quantity);
+                changeQuantity(quantity);
             }
         } else if (requestCode == REQUEST_ANSWER_REMOVE) {
             int quantity = (int) data.getSerializableExtra(
                     DialogRemoveQuantityFragment.EXTRA_REMOVE_QUANTITY_MESSAGE);
             if (resultCode == Activity.RESULT_OK) {
-                updateQuantity(mNewQuantity - quantity);
+                changeQuantity(-quantity);
             }
         }
     }
 
     /**
-     * Overrides onPause and checks new quantity. If quantity is zero, the food item is deleted
-     * from the database and the photo is deleted from the internal storage. If not, the
-     * food item is updated in the database with its new quantity.
+     * Writes the quantity changes made in the fragment, so the list reads them when it is
+     * resumed. A food item whose quantity has become zero is deleted together with its photo.
      */
     @Override
     public void onPause() {
         super.onPause();
-        if (mNewQuantity == 0) {
-            mFoodManager.deleteFood(mFoodId);
-            mFoodManager.deletePhotoFile(mPhotoFile);
-        } else {
-            mFood.setQuantity(mNewQuantity);
-            mFoodManager.updateFood(mFoodId, mFood);
-        }
+        mWriteQueue.flush();
     }
 
     /**
      * Sets the photo view to display the photo that belongs to the food item, if it
-     * owns one.
+     * owns one. The photo is loaded in the background, or shown at once if it is in memory.
+     * Tapping or zooming the photo shows it full screen, where it can be zoomed into.
      */
     private void setPhotoView() {
         mPhotoFile = mFoodManager.getPhotoFile(mFood.getPhotoFilename());
 
         if (!mPhotoFile.exists()) {
+            mPhotoView.setPhotoFile(null);
+            mPhotoView.setClickable(false);
             mPhotoView.setImageResource(R.drawable.ic_panorama_black_48dp);
             LinearLayout.LayoutParams params = (LinearLayout.LayoutParams) mPhotoView.getLayoutParams();
             params.width = 300;
@@ -186,35 +193,85 @@ public class FoodItemFragment extends Fragment {
             mPhotoView.getLayoutParams().width = 300;
             mPhotoView.getLayoutParams().height = 300;
         } else {
-            Bitmap bitmap = PictureUtils.getScaledBitmap(
-                    mPhotoFile.getPath(), getActivity());
-            mPhotoView.setImageBitmap(bitmap);
+            Point size = PictureUtils.getDisplaySize(getActivity());
+            ImageLoader.get(getActivity()).load(this, mPhotoView, mPhotoFile,
+                    Math.max(size.x, size.y), R.drawable.ic_panorama_black_48dp);
+            mPhotoView.setPhotoFile(mPhotoFile);
+            mPhotoView.setClickable(true);
+        }
+    }
+
+    /**
+     * Looks the food item up in memory, where the list has usually left it, without reading the
+     * database. Changes that are still in the write queue are added to the quantity.
+     * @return the food item, null if it is not in memory.
+     */
+    private Food findFood() {
+        Food food = mFoodManager.peekFood(mFoodId);
+        if (food != null) {
+            food.setQuantity(food.getQuantity() + mWriteQueue.getPendingDelta(mFoodId));
         }
+        return food;
     }
 
     /**
-     * Returns the food item the fragment is displaying.
-     * @return a Food object representing the food item of the fragment.
+     * Reads the food item from the database in the background, by its id, and shows it. The
+     * activity is closed if the food item has been deleted.
      */
-    private Food getFood() {
-        return new Food(mName, mQuantity, mAmount, mBrand, mFoodId, mCategory);
+    private void readFood() {
+        mAsyncFoodManager.read(this, new Callable<Food>() {
+            @Override
+            public Food call() {
+                return mFoodManager.getFood(mFoodId);
+            }
+        }, new AsyncFoodManager.Callback<Food>() {
+            @Override
+            public void onResult(Food food) {
+                if (food == null) {
+                    getActivity().finish();
+                    return;
+                }
+                food.setQuantity(food.getQuantity() + mWriteQueue.getPendingDelta(mFoodId));
+                mFood = food;
+                showFood();
+            }
+        });
+    }
+
+    /**
+     * Shows the food item in the views.
+     */
+    private void showFood() {
+        mNewQuantity = mFood.getQuantity();
+        setTextViews();
+        setPhotoView();
     }
 
     /**
      * Sets all the text views to display the food item information.
      */
     private void setTextViews() {
-        mNameTextView.setText(mName);
-        mBrandTextView.setText(mBrand);
-        mAmountTextView.setText(mAmount);
-        if (mCategory.equalsIgnoreCase(CategoryManager.VALUE_NO_CATEGORY)) {
+        mNameTextView.setText(mFood.getName());
+        mBrandTextView.setText(mFood.getBrand());
+        mAmountTextView.setText(mFood.getAmount());
+        if (mFood.getCategory().equalsIgnoreCase(CategoryManager.VALUE_NO_CATEGORY)) {
             mCategoryTextView.setText("");
         } else {
-            mCategoryTextView.setText(mCategory);
+            mCategoryTextView.setText(mFood.getCategory());
         }
         updateQuantity(mNewQuantity);
     }
 
+    /**
+     * Changes the quantity of the food item by a number, and sends the change to the write queue.
+     * The change is journaled at once and written to the database in the background.
+     * @param delta the number to add to the quantity. Negative numbers reduce the quantity.
+     */
+    private void changeQuantity(int delta) {
+        mWriteQueue.adjust(mFoodId, delta);
+        updateQuantity(mNewQuantity + delta);
+    }
+
     /**
      * Updates the quantity in the quantity text field and saves the new quantity.
      * @param quantity
@@ -234,7 +291,7 @@ public class FoodItemFragment extends Fragment {
         mRemoveButton.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
                 if (mNewQuantity ==  1) {
-                    updateQuantity(mNewQuantity - 1);
+                    changeQuantity(-1);
                 } else if (mNewQuantity > 1) {
                     FragmentManager manager = getActivity().getSupportFragmentManager();
                     DialogRemoveQuantityFragment dialog = DialogRemoveQuantityFragment
@@ -246,6 +303,39 @@ public class FoodItemFragment extends Fragment {
         });
     }
 
+    /**
+     * Sets the photo view to show the photo full screen when it is tapped or the user starts to
+     * zoom into it, since the view in the fragment is too small to zoom in.
+     */
+    private void setPhotoButton() {
+        mPhotoView.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                showFullScreenPhoto();
+            }
+        });
+        mPhotoView.setOnZoomListener(new TiledPhotoView.OnZoomListener() {
+            @Override
+            public void onZoom(TiledPhotoView view) {
+                showFullScreenPhoto();
+            }
+        });
+    }
+
+    /**
+     * Shows the photo of the food item in a full screen dialog. The photo view is only clickable
+     * when the food item has a photo.
+     */
+    private void showFullScreenPhoto() {
+        if (mPhotoFile == null) {
+            return;
+        }
+        FragmentManager manager = getActivity().getSupportFragmentManager();
+        if (manager.findFragmentByTag(DIALOG_PHOTO) != null) {
+            return;
+        }
+        DialogPhotoFragment.newInstance(mPhotoFile).show(manager, DIALOG_PHOTO);
+    }
+
     /**
      * Sets the add button. A dialog window is displayed, where the user is asked to set how many
      * to add.
@@ -253,6 +343,9 @@ public class FoodItemFragment extends Fragment {
     private void setAddButton() {
         mAddButton.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                if (mFood == null) {
+                    return;
+                }
                 FragmentManager manager = getActivity().getSupportFragmentManager();
                 DialogAddQuantityFragment dialog = DialogAddQuantityFragment
                         .newInstance(mNewQuantity);
@@ -3,29 +3,89 @@ package com.antergy.whatsinmyfreezer;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
 import android.os.Environment;
+import android.util.Log;
 
+import com.antergy.whatsinmyfreezer.database.CheckpointPolicy;
 import com.antergy.whatsinmyfreezer.database.FoodBaseHelper;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import com.antergy.whatsinmyfreezer.database.FoodCursorWrapper;
+import com.antergy.whatsinmyfreezer.database.MigrationRunner;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.CategoryTable;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodSearchTable;
 import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodTable;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.WriteJournalTable;
 
 /**
  * A class that manages all food items stored in the freezer. It connects to the SQLite database
  * where all created food items will be stored. The food managed also manages the photos that
  * belongs to the food items.
+ * The methods read and write the database on the calling thread. Screens should call them
+ * through AsyncFoodManager, which runs them off the main thread.
+ * Unless the app is built without it, all food items are also kept in an InventoryMirror, which
+ * is loaded on the writer thread when the food manager is created. Once it is loaded, lists,
+ * counts and lookups by id or key are read from memory. Writes go to the database first and are
+ * applied to the mirror after they are committed.
+ * The food manager is the FoodRepository of the application. InMemoryFoodRepository implements
+ * the same interface without Android, for tests and benchmarks on a plain JVM.
  */
-public class FoodManager {
+public class FoodManager implements FoodRepository {
+    private final static String TAG = "FoodManager";
     private static FoodManager sFoodManager = null;
     private final static String TEMP_PHOTO_FILE = "IMG_TEMP.jpg";
     private final static String TEMP_SAVED_PHOTO_FILE = "IMG_SAVED_TEMP.jpg";
+    private final static String QUERY_LIST = "list";
+    private final static String QUERY_COUNT = "count";
+    private final static String QUERY_PAGE = "page/";
+    private final static String QUERY_POSITION = "position/";
+    private final static String QUERY_SUMMARIES = "summaries";
+    private final static String QUERY_SEARCH = "search/";
+    // Passed to adjustQuantities() for changes that are not from the write journal
+    final static long NO_SEQUENCE = -1;
+    // Matches the category id of the category with the name bound to the argument
+    private final static String CATEGORY_ID_SELECTION =
+            FoodTable.Cols.CATEGORY_ID + " = (select " + CategoryTable.Cols.CATEGORY_ID +
+            " from " + CategoryTable.CATEGORY + " where " + CategoryTable.Cols.NAME + " = ?)";
+    // Added to the set clause of every update of food items
+    private final static String INCREASE_VERSION =
+            ", " + FoodTable.Cols.VERSION + " = " + FoodTable.Cols.VERSION + " + 1";
+    private final static String KEY_WHERE_CLAUSE =
+            FoodTable.Cols.NAME + " = ?" + " and " +
+            FoodTable.Cols.AMOUNT + " = ? " + " and " +
+            FoodTable.Cols.BRAND + " = ? " + " and " +
+            CATEGORY_ID_SELECTION;
     private Context mContext;
-    private SQLiteDatabase mDatabase;
+    private volatile File mPhotoDirectory;
+    private FoodBaseHelper mHelper;
+    private final Object mOpenLock = new Object();
+    private volatile SQLiteDatabase mDatabase;
+    private SQLiteStatement mInsertFoodStatement;
+    private SQLiteStatement mIncrementFoodStatement;
+    private SQLiteStatement mFoodIdStatement;
+    private SQLiteStatement mAdjustQuantityStatement;
+    private SQLiteStatement mDeleteEmptyStatement;
+    private SQLiteStatement mCategoryOfStatement;
+    private SQLiteStatement mInsertCategoryStatement;
+    private SQLiteStatement mCategoryIdStatement;
+    private final FoodCache mCache = new FoodCache();
+    private final FoodChangeLog mChanges = new FoodChangeLog();
+    private final InventoryMirror mMirror;
 
     public static FoodManager get(Context context) {
         if (sFoodManager == null) {
@@ -35,145 +95,1004 @@ public class FoodManager {
     }
 
     private FoodManager(Context context) {
+        this(context, FoodBaseHelper.DATABASE_NAME);
+    }
+
+    /**
+     * Creates a food manager that stores its food items in a specific database. Used by tests and
+     * benchmarks that must not touch the database of the application.
+     */
+    FoodManager(Context context, String databaseName) {
+        this(context, databaseName, CheckpointPolicy.DEFAULT);
+    }
+
+    /**
+     * Creates a food manager that stores its food items in a specific database.
+     * @param checkpointPolicy the checkpoint policy of the write-ahead log, null to use a
+     *                         rollback journal instead.
+     */
+    FoodManager(Context context, String databaseName, CheckpointPolicy checkpointPolicy) {
+        this(context, databaseName, checkpointPolicy, BuildConfig.USE_INVENTORY_MIRROR);
+    }
+
+    /**
+     * Creates a food manager that stores its food items in a specific database.
+     * @param checkpointPolicy the checkpoint policy of the write-ahead log, null to use a
+     *                         rollback journal instead.
+     * @param useMirror        true to serve reads from an inventory mirror once it is loaded,
+     *                         false to read everything from the database.
+     */
+    FoodManager(Context context, String databaseName, CheckpointPolicy checkpointPolicy,
+                boolean useMirror) {
         mContext = context.getApplicationContext();
-        mDatabase = new FoodBaseHelper(mContext).getWritableDatabase();
+        mHelper = new FoodBaseHelper(mContext, databaseName, checkpointPolicy);
+        mMirror = useMirror ? new InventoryMirror(new InventoryMirror.Source() {
+            @Override
+            public FoodSnapshot readAll() {
+                return readSnapshot(queryFood(FoodCursorWrapper.FOOD_PROJECTION, null, null));
+            }
+
+            @Override
+            public Food readFood(int id) {
+                return readFoodById(id);
+            }
+
+            @Override
+            public FoodSnapshot readCategory(String category) {
+                return readCategoryList(category);
+            }
+        }) : null;
+        // The mirror has to be updated before the cache is invalidated, so a read that starts
+        // after the invalidation can not cache what the mirror had before the change
+        if (mMirror != null) {
+            mChanges.addListener(mMirror);
+        }
+        mChanges.addListener(mCache);
+        // Opening may create or upgrade the database, so it is done on the writer thread
+        AsyncFoodManager.getWriteExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                getDatabase();
+            }
+        });
+    }
+
+    /**
+     * Returns the database, and opens it if it is not open yet. The database is opened on the
+     * writer thread when the food manager is created, so this only blocks if it is called before
+     * that has finished. Opening starts the background migrations and loads the inventory
+     * mirror after them on the writer thread. If a migration fails, the mirror is not loaded,
+     * since the rows may not all be migrated, and everything is read from the database until
+     * the migration has been run again the next time the database is opened.
+     */
+    private SQLiteDatabase getDatabase() {
+        SQLiteDatabase database = mDatabase;
+        if (database != null) {
+            return database;
+        }
+        synchronized (mOpenLock) {
+            if (mDatabase == null) {
+                database = mHelper.getWritableDatabase();
+                mDatabase = database;
+                boolean migrating = MigrationRunner.start(database,
+                        AsyncFoodManager.getWriteExecutor(), new MigrationRunner.Listener() {
+                            @Override
+                            public void onFoodMerged(int mergedId, int keptId) {
+                                mergeFood(mergedId, keptId);
+                            }
+
+                            @Override
+                            public void onFinished(boolean completed) {
+                                if (completed) {
+                                    loadMirror();
+                                } else {
+                                    Log.w(TAG, "Not loading the inventory mirror, since a " +
+                                            "migration is still pending");
+                                }
+                            }
+                        });
+                if (!migrating) {
+                    AsyncFoodManager.getWriteExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            loadMirror();
+                        }
+                    });
+                }
+            }
+            return mDatabase;
+        }
+    }
+
+    /**
+     * Moves the photo of a food item that a migration has merged into another food item, and
+     * publishes the change. The photo is kept if the other food item has none, and deleted
+     * otherwise. Runs on the writer thread.
+     * @param mergedId the id of the merged food item, which no longer exists.
+     * @param keptId   the id of the food item it was merged into.
+     */
+    private void mergeFood(int mergedId, int keptId) {
+        File mergedPhoto = getPhotoFile(Food.getPhotoFilename(mergedId));
+        File keptPhoto = getPhotoFile(Food.getPhotoFilename(keptId));
+        if (mergedPhoto != null && mergedPhoto.exists() && !keptPhoto.exists() &&
+                mergedPhoto.renameTo(keptPhoto)) {
+            ImageLoader.get(mContext).evictPhoto(keptPhoto);
+            ThumbnailGenerator.get(mContext).generate(keptId);
+        }
+        deletePhotoFiles(mergedId);
+
+        Food kept = readFoodById(keptId);
+        String category = kept != null ? kept.getCategory() : null;
+        mChanges.publish(FoodChange.food(FoodChange.Type.FOOD_DELETED, mergedId, null,
+                category, null));
+        mChanges.publish(FoodChange.food(FoodChange.Type.FOOD_UPDATED, keptId, kept,
+                category, null));
+    }
+
+    /**
+     * Loads the inventory mirror from the database. Writes wait until it has been loaded, so no
+     * change is lost. Called when the chunked migrations have finished, since they change rows
+     * without telling the mirror.
+     */
+    synchronized void loadMirror() {
+        if (mMirror != null) {
+            mMirror.load();
+        }
+    }
+
+    /**
+     * Tells if reads are served from the inventory mirror.
+     */
+    private boolean isMirrorLoaded() {
+        return mMirror != null && mMirror.isLoaded();
+    }
+
+    /**
+     * Closes the database once the work already queued on the writer thread, like opening the
+     * database and loading the mirror, has been done. Used by tests and benchmarks before they
+     * delete their database. The food manager must not be used afterwards.
+     */
+    void close() {
+        FutureTask<Void> close = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mOpenLock) {
+                    mHelper.close();
+                    mDatabase = null;
+                }
+            }
+        }, null);
+        AsyncFoodManager.getWriteExecutor().execute(close);
+        try {
+            close.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Compares the inventory mirror with the database. Writes wait until the comparison is done.
+     * @return a description of every difference found, up to a limit. Empty if the mirror is
+     * consistent with the database, or if there is no mirror loaded.
+     */
+    public synchronized List<String> checkMirror() {
+        if (!isMirrorLoaded()) {
+            return Collections.emptyList();
+        }
+        return mMirror.check(readSnapshot(
+                queryFood(FoodCursorWrapper.FOOD_PROJECTION, null, null)));
+    }
+
+    /**
+     * Checkpoints the write-ahead log if the checkpoint policy says it should be done when the
+     * application goes to the background. Should be run on the writer thread.
+     */
+    public void checkpointInBackground() {
+        CheckpointPolicy policy = mHelper.getCheckpointPolicy();
+        if (policy != null && policy.isCheckpointInBackground()) {
+            FoodBaseHelper.checkpoint(getDatabase());
+        }
     }
 
     /**
      * Adds a new food item to the database. If a same food item already exists in
      * the database, its quantity will be updated by adding the quantity of the added food item.
+     * The unique key index on the food table decides if the food item already exists, so a new
+     * food item is stored with a single insert and an existing one with an indexed update.
      * @param name      name of the food item.
      * @param quantity  number of food items to store.
      * @param amount    how much one food item contains (different units).
      * @param brand     producer of the food item, if any.
      * @param category  the category of the food, if any.
      */
+    @Override
     public Food addFood(String name, int quantity, String amount, String brand, String category) {
-        Food food = getFood(name, amount, brand, category);
-        if (food == null) {
-            food = new Food(name, quantity, amount, brand, category);
-            ContentValues values = getContentValues(food);
-            mDatabase.insert(FoodTable.FOOD, null, values);
-            int id = getFoodId(food);
-            food = getFood(id);
-            return food;
-        } else {
-            int newQuantity = food.getQuantity()+quantity;
-            food.setQuantity(newQuantity);
-            updateFood(food.getId(), food);
-            return food;
+        return addFood(name, quantity, amount, brand, category, null);
+    }
+
+    /**
+     * Adds a new food item to the database like addFood(), and moves its photo into place before
+     * the change is published, so no one is told about the food item before its photo exists.
+     * @param name      name of the food item.
+     * @param quantity  number of food items to store.
+     * @param amount    how much one food item contains (different units).
+     * @param brand     producer of the food item, if any.
+     * @param category  the category of the food, if any.
+     * @param photoFile the photo to move to the food item, or null.
+     */
+    public synchronized Food addFood(String name, int quantity, String amount, String brand,
+                                     String category, File photoFile) {
+        SQLiteStatement insert = getInsertFoodStatement();
+        bindKey(insert, 1, name, amount, brand, category);
+        insert.bindLong(5, quantity);
+
+        Food food;
+        FoodChange.Type type = FoodChange.Type.FOOD_INSERTED;
+        // The mirror knows if the food item exists, so the insert is not tried in vain
+        Food existing = isMirrorLoaded() ? mMirror.getFood(name, amount, brand, category) : null;
+        getDatabase().beginTransactionNonExclusive();
+        try {
+            getCategoryId(category);
+            long id = existing == null ? insert.executeInsert() : -1;
+            if (id != -1) {
+                food = new Food(name, quantity, amount, brand, (int) id, category);
+            } else {
+                type = FoodChange.Type.FOOD_UPDATED;
+                SQLiteStatement increment = getIncrementFoodStatement();
+                increment.bindLong(1, quantity);
+                bindKey(increment, 2, name, amount, brand, category);
+                increment.executeUpdateDelete();
+                if (existing != null) {
+                    existing.setQuantity(existing.getQuantity() + quantity);
+                    existing.setVersion(existing.getVersion() + 1);
+                    food = existing;
+                } else {
+                    food = readFoodByKey(name, amount, brand, category);
+                }
+            }
+            getDatabase().setTransactionSuccessful();
+        } finally {
+            getDatabase().endTransaction();
         }
+        renamePhotoFile(food.getPhotoFilename(), photoFile);
+        mChanges.publish(FoodChange.food(type, food.getId(), copyOf(food), category, null));
+        return food;
     }
 
     /**
-     * Gets the id of a specific food item. If a food item is created that has not yet been added
-     * to the database, it does not yet have a unique id. When added to the database, it is
-     * assigned id and it can then be retrieved.
-     * @param food the food item to retrieve an id for.
-     * @return the id of the food item if it exists in the database, -1 otherwise.
+     * Adds several food items to the database in one transaction. Food items with the same name,
+     * amount, brand and category are merged before they are written, and food items that already
+     * exist in the database have their quantity increased, just like addFood().
+     * @param foods the food items to add. Their ids are ignored.
+     * @return the ids of the stored food items, in the same order as foods.
      */
-    private int getFoodId(Food food) {
-        FoodCursorWrapper cursor = queryFood(
-                FoodTable.Cols.NAME + " = ?" + " and " +
-                        FoodTable.Cols.AMOUNT + " = ? " + " and " +
-                        FoodTable.Cols.BRAND + " = ? " + " and " +
-                        FoodTable.Cols.CATEGORY + " = ? ",
-                new String[] {
-                        food.getName(),
-                        food.getAmount(),
-                        food.getBrand(),
-                        food.getCategory()}
-        );
+    public synchronized int[] addFoods(Collection<Food> foods) {
+        // Merge duplicates so every key is written once
+        Map<String, Food> merged = new LinkedHashMap<>();
+        String[] keys = new String[foods.size()];
+        int i = 0;
+        for (Food food : foods) {
+            String key = getKey(food);
+            Food mergedFood = merged.get(key);
+            if (mergedFood == null) {
+                merged.put(key, new Food(food.getName(), food.getQuantity(), food.getAmount(),
+                        food.getBrand(), food.getCategory()));
+            } else {
+                mergedFood.setQuantity(mergedFood.getQuantity() + food.getQuantity());
+            }
+            keys[i++] = key;
+        }
+
+        SQLiteStatement insert = getInsertFoodStatement();
+        SQLiteStatement increment = getIncrementFoodStatement();
+        SQLiteStatement foodId = getFoodIdStatement();
+        List<FoodChange> changes = new ArrayList<>(merged.size());
 
+        getDatabase().beginTransactionNonExclusive();
         try {
-            if (cursor.getCount() == 0) {
-                return -1;
+            for (Food food : merged.values()) {
+                getCategoryId(food.getCategory());
+                bindKey(insert, 1, food.getName(), food.getAmount(), food.getBrand(),
+                        food.getCategory());
+                insert.bindLong(5, food.getQuantity());
+                long id = insert.executeInsert();
+                FoodChange.Type type = FoodChange.Type.FOOD_INSERTED;
+                if (id == -1) {
+                    type = FoodChange.Type.FOOD_UPDATED;
+                    increment.bindLong(1, food.getQuantity());
+                    bindKey(increment, 2, food.getName(), food.getAmount(), food.getBrand(),
+                            food.getCategory());
+                    increment.executeUpdateDelete();
+                    bindKey(foodId, 1, food.getName(), food.getAmount(), food.getBrand(),
+                            food.getCategory());
+                    id = foodId.simpleQueryForLong();
+                }
+                food.setId((int) id);
+                // The stored quantity of an updated food item is not known here
+                changes.add(FoodChange.food(type, (int) id,
+                        type == FoodChange.Type.FOOD_INSERTED ? copyOf(food) : null,
+                        food.getCategory(), null));
             }
-            cursor.moveToFirst();
-            return cursor.getFood().getId();
+            getDatabase().setTransactionSuccessful();
         } finally {
-            cursor.close();;
+            getDatabase().endTransaction();
+        }
+        for (FoodChange change : changes) {
+            mChanges.publish(change);
         }
+
+        int[] ids = new int[keys.length];
+        for (i = 0; i < keys.length; ++i) {
+            ids[i] = merged.get(keys[i]).getId();
+        }
+        return ids;
     }
 
     /**
-     * Returns a list of food items based on which category it belongs to.
-     * @param category the category of food items to return.
-     * @return a list containing food items.
+     * Changes the quantity of several food items in one transaction. Food items whose quantity
+     * becomes zero or less are deleted from the database. The photos of deleted food items are
+     * not deleted.
+     * @param deltas the number to add to the quantity of each food item, keyed by food item id.
+     *               Negative numbers reduce the quantity.
+     * @return the ids of the food items that were deleted.
      */
-    public List<Food> getCategoryList(String category) {
-        List<Food> foodList = new ArrayList<>();
+    public synchronized List<Integer> adjustQuantities(Map<Integer, Integer> deltas) {
+        return adjustQuantities(deltas, NO_SEQUENCE);
+    }
 
-        FoodCursorWrapper cursor = queryFood(
-                FoodTable.Cols.CATEGORY + " = ? ",
-                new String[] {category}
-        );
+    /**
+     * Changes the quantity of several food items in one transaction, and records the sequence
+     * number of the last write journal entry the changes contain in the same transaction. Used by
+     * QuantityWriteQueue, which skips entries that are already applied when it replays its
+     * journal.
+     * @param deltas   the number to add to the quantity of each food item, keyed by food item
+     *                 id. Negative numbers reduce the quantity.
+     * @param sequence the sequence number of the last journal entry included in the deltas, or
+     *                 NO_SEQUENCE if the changes are not from the journal.
+     * @return the ids of the food items that were deleted.
+     */
+    synchronized List<Integer> adjustQuantities(Map<Integer, Integer> deltas, long sequence) {
+        List<Integer> deleted = new ArrayList<>();
+        Map<Integer, String> categories = new HashMap<>();
+        SQLiteStatement adjust = getAdjustQuantityStatement();
+        SQLiteStatement deleteEmpty = getDeleteEmptyStatement();
 
+        getDatabase().beginTransactionNonExclusive();
         try {
-            while (cursor.moveToNext()) {
-                foodList.add(cursor.getFood());
+            for (Map.Entry<Integer, Integer> delta : deltas.entrySet()) {
+                if (delta.getValue() == 0) {
+                    continue;
+                }
+                categories.put(delta.getKey(), getCategoryOf(delta.getKey()));
+                adjust.bindLong(1, delta.getValue());
+                adjust.bindLong(2, delta.getKey());
+                adjust.executeUpdateDelete();
+                if (delta.getValue() < 0) {
+                    deleteEmpty.bindLong(1, delta.getKey());
+                    if (deleteEmpty.executeUpdateDelete() > 0) {
+                        deleted.add(delta.getKey());
+                    }
+                }
+            }
+            if (sequence != NO_SEQUENCE) {
+                ContentValues values = new ContentValues();
+                values.put(WriteJournalTable.Cols.ROW_ID, WriteJournalTable.ROW_ID);
+                values.put(WriteJournalTable.Cols.APPLIED_SEQUENCE, sequence);
+                getDatabase().insertWithOnConflict(WriteJournalTable.WRITE_JOURNAL, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
             }
+            getDatabase().setTransactionSuccessful();
         } finally {
-            cursor.close();;
+            getDatabase().endTransaction();
         }
+        for (Map.Entry<Integer, String> category : categories.entrySet()) {
+            FoodChange.Type type = deleted.contains(category.getKey()) ?
+                    FoodChange.Type.FOOD_DELETED : FoodChange.Type.FOOD_UPDATED;
+            mChanges.publish(FoodChange.food(type, category.getKey(), null,
+                    category.getValue(), null));
+        }
+        return deleted;
+    }
+
+    /**
+     * Returns the sequence number of the last write journal entry that has been applied to the
+     * database, 0 if none has.
+     */
+    synchronized long getAppliedWriteSequence() {
+        return DatabaseUtils.longForQuery(getDatabase(),
+                "select ifnull(max(" + WriteJournalTable.Cols.APPLIED_SEQUENCE + "), 0) from " +
+                        WriteJournalTable.WRITE_JOURNAL, null);
+    }
+
+    /**
+     * Returns a string that identifies food items with the same name, amount, brand and category.
+     */
+    private static String getKey(Food food) {
+        return Food.getKey(food.getName(), food.getAmount(), food.getBrand(), food.getCategory());
+    }
+
+    /**
+     * Returns the compiled statement that inserts a food item, unless a food item with the same
+     * key already exists. The statement is compiled the first time it is needed and then reused.
+     * Key columns are bound at index 1-4 and the quantity at index 5. The category is bound by
+     * name and must already exist.
+     */
+    private SQLiteStatement getInsertFoodStatement() {
+        if (mInsertFoodStatement == null) {
+            mInsertFoodStatement = getDatabase().compileStatement(
+                    "insert or ignore into " + FoodTable.FOOD + " (" +
+                            FoodTable.Cols.NAME + ", " +
+                            FoodTable.Cols.AMOUNT + ", " +
+                            FoodTable.Cols.BRAND + ", " +
+                            FoodTable.Cols.CATEGORY_ID + ", " +
+                            FoodTable.Cols.QUANTITY +
+                            ") values (?, ?, ?, (select " + CategoryTable.Cols.CATEGORY_ID +
+                            " from " + CategoryTable.CATEGORY +
+                            " where " + CategoryTable.Cols.NAME + " = ?), ?)"
+            );
+        }
+        return mInsertFoodStatement;
+    }
+
+    /**
+     * Returns the compiled statement that adds to the quantity of the food item with a specific
+     * key. The quantity is bound at index 1 and the key columns at index 2-5.
+     */
+    private SQLiteStatement getIncrementFoodStatement() {
+        if (mIncrementFoodStatement == null) {
+            mIncrementFoodStatement = getDatabase().compileStatement(
+                    "update " + FoodTable.FOOD +
+                            " set " + FoodTable.Cols.QUANTITY + " = " +
+                            FoodTable.Cols.QUANTITY + " + ?" + INCREASE_VERSION +
+                            " where " + KEY_WHERE_CLAUSE
+            );
+        }
+        return mIncrementFoodStatement;
+    }
+
+    /**
+     * Returns the compiled statement that looks up the id of the food item with a specific key.
+     * The key columns are bound at index 1-4.
+     */
+    private SQLiteStatement getFoodIdStatement() {
+        if (mFoodIdStatement == null) {
+            mFoodIdStatement = getDatabase().compileStatement(
+                    "select " + FoodTable.Cols.FOOD_ID + " from " + FoodTable.FOOD +
+                            " where " + KEY_WHERE_CLAUSE
+            );
+        }
+        return mFoodIdStatement;
+    }
+
+    /**
+     * Returns the compiled statement that adds to the quantity of a food item. The number to add
+     * is bound at index 1 and the id at index 2.
+     */
+    private SQLiteStatement getAdjustQuantityStatement() {
+        if (mAdjustQuantityStatement == null) {
+            mAdjustQuantityStatement = getDatabase().compileStatement(
+                    "update " + FoodTable.FOOD +
+                            " set " + FoodTable.Cols.QUANTITY + " = " +
+                            FoodTable.Cols.QUANTITY + " + ?" + INCREASE_VERSION +
+                            " where " + FoodTable.Cols.FOOD_ID + " = ?"
+            );
+        }
+        return mAdjustQuantityStatement;
+    }
+
+    /**
+     * Returns the compiled statement that deletes a food item if its quantity is zero or less.
+     * The id is bound at index 1.
+     */
+    private SQLiteStatement getDeleteEmptyStatement() {
+        if (mDeleteEmptyStatement == null) {
+            mDeleteEmptyStatement = getDatabase().compileStatement(
+                    "delete from " + FoodTable.FOOD +
+                            " where " + FoodTable.Cols.FOOD_ID + " = ?" +
+                            " and " + FoodTable.Cols.QUANTITY + " <= 0"
+            );
+        }
+        return mDeleteEmptyStatement;
+    }
+
+    /**
+     * Returns the category of a food item.
+     * @param id the id of the food item.
+     * @return the category, null if there is no food item with the id.
+     */
+    private String getCategoryOf(int id) {
+        if (isMirrorLoaded()) {
+            return mMirror.getCategoryOf(id);
+        }
+        if (mCategoryOfStatement == null) {
+            mCategoryOfStatement = getDatabase().compileStatement(
+                    "select " + FoodTable.Cols.CATEGORY + " from " + FoodTable.FOOD_VIEW +
+                            " where " + FoodTable.Cols.FOOD_ID + " = ?"
+            );
+        }
+        mCategoryOfStatement.bindLong(1, id);
+        try {
+            return mCategoryOfStatement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the id of a category, and adds the category if it does not exist. Should be called
+     * inside the transaction that writes food items to the category.
+     * @param category the name of the category.
+     * @return the id of the category.
+     */
+    private long getCategoryId(String category) {
+        if (mInsertCategoryStatement == null) {
+            mInsertCategoryStatement = getDatabase().compileStatement(
+                    "insert or ignore into " + CategoryTable.CATEGORY +
+                            " (" + CategoryTable.Cols.NAME + ") values (?)"
+            );
+            mCategoryIdStatement = getDatabase().compileStatement(
+                    "select " + CategoryTable.Cols.CATEGORY_ID + " from " + CategoryTable.CATEGORY +
+                            " where " + CategoryTable.Cols.NAME + " = ?"
+            );
+        }
+        bindString(mInsertCategoryStatement, 1, category);
+        mInsertCategoryStatement.executeInsert();
+        bindString(mCategoryIdStatement, 1, category);
+        return mCategoryIdStatement.simpleQueryForLong();
+    }
+
+    /**
+     * Returns the arguments of KEY_WHERE_CLAUSE for the key of a food item.
+     */
+    private static String[] getKeyArgs(String name, String amount, String brand,
+                                       String category) {
+        return new String[] {name, Food.emptyIfNull(amount), Food.emptyIfNull(brand), category};
+    }
+
+    /**
+     * Binds the key of a food item to four consecutive arguments of a statement. An amount or
+     * brand of null is bound as an empty string, since the unique key index would not match null.
+     * @param statement the statement to bind the key to.
+     * @param index     the index of the first argument, the name.
+     */
+    private static void bindKey(SQLiteStatement statement, int index, String name,
+                                String amount, String brand, String category) {
+        bindString(statement, index, name);
+        bindString(statement, index + 1, Food.emptyIfNull(amount));
+        bindString(statement, index + 2, Food.emptyIfNull(brand));
+        bindString(statement, index + 3, category);
+    }
+
+    /**
+     * Binds a string to a statement argument. SQLiteStatement does not accept null strings, so
+     * null values are bound as SQL null.
+     */
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Returns a list of food items based on which category it belongs to.
+     * @param category the category of food items to return.
+     * @return a snapshot of the food items, which may be shared with other callers.
+     */
+    @Override
+    public FoodSnapshot getCategoryList(String category) {
+        FoodSnapshot cached = (FoodSnapshot) mCache.getQuery(category, QUERY_LIST);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mCache.getGeneration();
+
+        FoodSnapshot foodList = isMirrorLoaded() ? mMirror.getFoods(category) :
+                readCategoryList(category);
+        mCache.putQuery(generation, category, QUERY_LIST, foodList);
         return foodList;
     }
 
+    /**
+     * Reads the food items of a category from the database.
+     */
+    private FoodSnapshot readCategoryList(String category) {
+        return readSnapshot(queryFood(
+                FoodCursorWrapper.FOOD_PROJECTION,
+                CATEGORY_ID_SELECTION,
+                new String[] {category}
+        ));
+    }
+
     /**
      * Returns a list of all food items in the database.
-     * @return a list containing all food items.
+     * @return a snapshot of all food items, which may be shared with other callers.
      */
-    public List<Food> getAll() {
-        List<Food> foodList = new ArrayList<>();
+    @Override
+    public FoodSnapshot getAll() {
+        FoodSnapshot cached = (FoodSnapshot) mCache.getQuery(null, QUERY_LIST);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mCache.getGeneration();
 
-        FoodCursorWrapper cursor = queryFood(null, null);
+        FoodSnapshot foodList = isMirrorLoaded() ? mMirror.getFoods(null) :
+                readSnapshot(queryFood(FoodCursorWrapper.FOOD_PROJECTION, null, null));
+        mCache.putQuery(generation, null, QUERY_LIST, foodList);
+        return foodList;
+    }
 
-        try {
-            while (cursor.moveToNext()) {
-                foodList.add(cursor.getFood());
+    /**
+     * Returns a page of food items, sorted by a column and then by id. The page starts after a
+     * given food item, so reading the next page is an index lookup no matter how far into the
+     * list it is.
+     * @param category the category of the food items to return, null for all food items.
+     * @param sort     the order of the food items.
+     * @param after    the last food item of the previous page, null for the first page.
+     * @param pageSize the maximum number of food items to return.
+     * @return a snapshot of at most pageSize food items. If it contains less, there are no more
+     * pages.
+     */
+    public FoodSnapshot getPage(String category, FoodSort sort, Food after, int pageSize) {
+        String query = QUERY_PAGE + sort + "/" + pageSize +
+                (after == null ? "" : "/" + after.getId() + "/" + sort.getValue(after));
+        FoodSnapshot cached = (FoodSnapshot) mCache.getQuery(category, query);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mCache.getGeneration();
+        FoodSnapshot foodList = readPage(category, sort, after, pageSize);
+        mCache.putQuery(generation, category, query, foodList);
+        return foodList;
+    }
+
+    /**
+     * Reads a page of food items from the database like getPage(), without the query cache.
+     * Used by getPage() on a cache miss, and by tests that time the database itself.
+     */
+    FoodSnapshot readPage(String category, FoodSort sort, Food after, int pageSize) {
+        String column = sort.getColumn();
+        StringBuilder whereClause = new StringBuilder();
+        List<String> whereArgs = new ArrayList<>();
+
+        if (category != null) {
+            whereClause.append(CATEGORY_ID_SELECTION);
+            whereArgs.add(category);
+        }
+        if (after != null) {
+            if (whereClause.length() > 0) {
+                whereClause.append(" and ");
             }
-        } finally {
-            cursor.close();
+            // The first condition limits the index range, the second skips the food items
+            // with the same value that were on the previous page
+            whereClause.append(column).append(" >= ? and (")
+                    .append(column).append(" > ? or ")
+                    .append(FoodTable.Cols.FOOD_ID).append(" > ?)");
+            String value = sort.getValue(after);
+            whereArgs.add(value);
+            whereArgs.add(value);
+            whereArgs.add(Integer.toString(after.getId()));
+        }
+
+        Cursor cursor = getDatabase().query(
+                FoodTable.FOOD_VIEW,
+                FoodCursorWrapper.LIST_PROJECTION,
+                whereClause.length() > 0 ? whereClause.toString() : null,
+                whereArgs.toArray(new String[whereArgs.size()]),
+                null,
+                null,
+                column + ", " + FoodTable.Cols.FOOD_ID,
+                Integer.toString(pageSize)
+        );
+        return readSnapshot(new FoodCursorWrapper(cursor));
+    }
+
+    /**
+     * Returns the position in a list read with getPage() of the page that starts after a food
+     * item, that is the number of food items up to and including it. The food item does not
+     * have to exist any more, since only its sort value and id are compared. Only the list index
+     * is counted, no rows are read.
+     * @param category the category of the list, null for all food items.
+     * @param sort     the order of the list.
+     * @param after    the food item.
+     * @return the number of food items up to and including the food item.
+     */
+    public int getPosition(String category, FoodSort sort, Food after) {
+        String query = QUERY_POSITION + sort + "/" + after.getId() + "/" + sort.getValue(after);
+        Integer cached = (Integer) mCache.getQuery(category, query);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mCache.getGeneration();
+        String column = sort.getColumn();
+        StringBuilder whereClause = new StringBuilder();
+        List<String> whereArgs = new ArrayList<>();
+
+        if (category != null) {
+            whereClause.append(CATEGORY_ID_SELECTION).append(" and ");
+            whereArgs.add(category);
+        }
+        whereClause.append(column).append(" <= ? and (")
+                .append(column).append(" < ? or ")
+                .append(FoodTable.Cols.FOOD_ID).append(" <= ?)");
+        String value = sort.getValue(after);
+        whereArgs.add(value);
+        whereArgs.add(value);
+        whereArgs.add(Integer.toString(after.getId()));
+
+        int position = (int) DatabaseUtils.queryNumEntries(getDatabase(), FoodTable.FOOD_VIEW,
+                whereClause.toString(), whereArgs.toArray(new String[whereArgs.size()]));
+        mCache.putQuery(generation, category, query, position);
+        return position;
+    }
+
+    /**
+     * Searches for food items whose name or brand contain words starting with the words of a
+     * query. All words of the query have to match. The search uses the full-text index, so it
+     * does not read the food items that do not match. The index only folds the case of ASCII
+     * letters, since the tokenizer that folds all letters needs a newer SQLite than API 16 has.
+     * @param category the category to search in, null to search all food items.
+     * @param query    the text the user has typed.
+     * @param limit    the maximum number of food items to return.
+     * @param signal   cancels the query while it runs, may be null.
+     * @return a snapshot of the matching food items, sorted by name.
+     * @throws android.os.OperationCanceledException if the query was cancelled.
+     */
+    public FoodSnapshot search(String category, String query, int limit,
+                             CancellationSignal signal) {
+        String match = getMatchExpression(query);
+        if (match.isEmpty()) {
+            return FoodSnapshot.empty();
         }
+        String key = QUERY_SEARCH + limit + "/" + match;
+        FoodSnapshot cached = (FoodSnapshot) mCache.getQuery(category, key);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mCache.getGeneration();
+
+        List<String> args = new ArrayList<>();
+        args.add(match);
+        StringBuilder columns = new StringBuilder();
+        for (String column : FoodCursorWrapper.LIST_PROJECTION) {
+            columns.append(columns.length() == 0 ? "v." : ", v.").append(column);
+        }
+        String sql = "select " + columns + " from " + FoodSearchTable.FOOD_SEARCH + " s" +
+                " join " + FoodTable.FOOD_VIEW + " v on v." + FoodTable.Cols.FOOD_ID +
+                " = s.docid where " + FoodSearchTable.FOOD_SEARCH + " match ?";
+        if (category != null) {
+            sql += " and v." + CATEGORY_ID_SELECTION;
+            args.add(category);
+        }
+        sql += " order by v." + FoodTable.Cols.NAME + ", v." + FoodTable.Cols.FOOD_ID +
+                " limit " + limit;
+
+        FoodSnapshot foodList = readSnapshot(new FoodCursorWrapper(getDatabase().rawQuery(sql,
+                args.toArray(new String[args.size()]), signal)));
+        mCache.putQuery(generation, category, key, foodList);
         return foodList;
     }
 
     /**
-     * Returns a Food object based on its unique id.
+     * Turns the text typed by the user into a full-text match expression, where every word is a
+     * prefix that has to match. Characters that are not letters or digits separate words, so the
+     * user can not type the operators of the match syntax.
+     * @param query the text the user has typed.
+     * @return the match expression, empty if the query has no words.
+     */
+    static String getMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); ++i) {
+            if (i < query.length() && Character.isLetterOrDigit(query.charAt(i))) {
+                word.append(query.charAt(i));
+            } else if (word.length() > 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                // Quoted, so words like OR and NOT are not read as operators
+                match.append('"').append(word).append("*\"");
+                word.setLength(0);
+            }
+        }
+        return match.toString();
+    }
+
+    /**
+     * Returns the number of food items in a category.
+     * @param category the category to count, null to count all food items.
+     * @return the number of food items.
+     */
+    public int getCount(String category) {
+        Integer cached = (Integer) mCache.getQuery(category, QUERY_COUNT);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mCache.getGeneration();
+        int count;
+        if (isMirrorLoaded()) {
+            count = mMirror.getCount(category);
+        } else if (category == null) {
+            count = (int) DatabaseUtils.queryNumEntries(getDatabase(), FoodTable.FOOD);
+        } else {
+            count = (int) DatabaseUtils.queryNumEntries(getDatabase(), FoodTable.FOOD,
+                    CATEGORY_ID_SELECTION, new String[] {category});
+        }
+        mCache.putQuery(generation, category, QUERY_COUNT, count);
+        return count;
+    }
+
+    /**
+     * Returns a Food object based on its unique id. Food items are cached by id, and a copy of
+     * the cached food item is returned so the caller can change it.
      * @param id the id of the food item.
      * @return a food item if the id is valid, null otherwise.
      */
+    @Override
     public Food getFood(int id) {
+        if (isMirrorLoaded()) {
+            return mMirror.getFood(id);
+        }
+        Food cached = mCache.getFood(id);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+        long generation = mCache.getGeneration();
+        Food food = readFoodById(id);
+        if (food == null) {
+            return null;
+        }
+        mCache.putFood(generation, food);
+        return copyOf(food);
+    }
+
+    /**
+     * Returns a food item if it is in memory, in the inventory mirror, the food item cache or
+     * the cached pages of a list, without reading the database. The list has usually read the
+     * page of a food item that is opened from it. Cheap enough to call on the main thread.
+     * Pages are read without the version, so a food item found in them has version 0 and must
+     * be read again with getFood() before it is used for updateFood().
+     * @param id the id of the food item.
+     * @return a copy of the food item, null if it is not in memory.
+     */
+    public Food peekFood(int id) {
+        if (isMirrorLoaded()) {
+            return mMirror.getFood(id);
+        }
+        Food cached = mCache.getFood(id);
+        return cached == null ? mCache.findFoodInQueries(id) : copyOf(cached);
+    }
+
+    /**
+     * Reads a food item from the database.
+     * @param id the id of the food item.
+     * @return the food item, null if there is no food item with the id.
+     */
+    private Food readFoodById(int id) {
         FoodCursorWrapper cursor = queryFood(
+                FoodCursorWrapper.FOOD_PROJECTION,
                 FoodTable.Cols.FOOD_ID + " = ?",
                 new String[] {Integer.toString(id)}
         );
 
         try {
-            if (cursor.getCount() == 0) {
-                return null;
-            }
-            cursor.moveToFirst();
-            return cursor.getFood();
+            return cursor.moveToFirst() ? cursor.getFood() : null;
         } finally {
-            cursor.close();;
+            cursor.close();
         }
     }
 
     /**
-     * Updates a food item in the database.
+     * Listens to the changes of the stored food items and categories.
+     */
+    public interface OnChangeListener {
+        /**
+         * Called after a change has been committed, on the thread that made it.
+         * @param change the change.
+         */
+        void onChange(FoodChange change);
+    }
+
+    /**
+     * Gets the generation of the stored data. It increases with every committed change, so a
+     * screen that has shown the data at the same generation does not have to read it again.
+     */
+    public long getGeneration() {
+        return mChanges.getGeneration();
+    }
+
+    /**
+     * Gets the changes that have been committed after a generation.
+     * @param generation the generation the caller has seen.
+     * @return the changes in order, empty if there are none, or null if there have been too many
+     * changes to keep, in which case the caller has to read the data again.
+     */
+    public List<FoodChange> getChangesSince(long generation) {
+        return mChanges.getChangesSince(generation);
+    }
+
+    /**
+     * Adds a listener that is called after every committed change.
+     */
+    public void addOnChangeListener(OnChangeListener listener) {
+        mChanges.addListener(listener);
+    }
+
+    public void removeOnChangeListener(OnChangeListener listener) {
+        mChanges.removeListener(listener);
+    }
+
+    /**
+     * Returns the hit and miss counters of the food item cache and the query cache.
+     */
+    public String getCacheStats() {
+        return mCache.getStats();
+    }
+
+    private static Food copyOf(Food food) {
+        Food copy = new Food(food.getName(), food.getQuantity(), food.getAmount(),
+                food.getBrand(), food.getId(), food.getCategory());
+        copy.setVersion(food.getVersion());
+        return copy;
+    }
+
+    /**
+     * Changes the quantity of a food item in one statement, so the quantity is never read and
+     * written back. A food item whose quantity becomes zero or less is deleted. Its photo is not
+     * deleted.
+     * @param id    the id of the food item.
+     * @param delta the number to add to the quantity. Negative numbers reduce the quantity.
+     * @return the stored food item, null if it was deleted or the id is not valid.
+     */
+    @Override
+    public synchronized Food adjustQuantity(int id, int delta) {
+        adjustQuantities(Collections.singletonMap(id, delta));
+        return readFoodById(id);
+    }
+
+    /**
+     * Updates a food item in the database, if its stored version is the version of the updated
+     * food item. The check and the update are one statement, so no other write can come between.
      * @param id the id of the food item to update.
-     * @param updatedFood the new food item to replace the old one with.
+     * @param updatedFood the new food item to replace the old one with, with the version it was
+     *                    read with.
+     * @return true if the food item was updated, false if it has been changed or deleted since
+     * it was read.
      */
-    public void updateFood(int id, Food updatedFood) {
-        String foodId = Integer.toString(id);
-        ContentValues values = getContentValues(updatedFood);
+    @Override
+    public synchronized boolean updateFood(int id, Food updatedFood) {
+        String oldCategory = getCategoryOf(id);
+        int updated;
 
-        mDatabase.update(FoodTable.FOOD,
-                values,
-                FoodTable.Cols.FOOD_ID + " = ?",
-                new String[] {foodId}
-        );
+        getDatabase().beginTransactionNonExclusive();
+        try {
+            ContentValues values = getContentValues(updatedFood);
+            values.put(FoodTable.Cols.CATEGORY_ID, getCategoryId(updatedFood.getCategory()));
+            values.put(FoodTable.Cols.VERSION, updatedFood.getVersion() + 1);
+            updated = getDatabase().update(FoodTable.FOOD,
+                    values,
+                    FoodTable.Cols.FOOD_ID + " = ? and " + FoodTable.Cols.VERSION + " = ?",
+                    new String[] {Integer.toString(id), Integer.toString(updatedFood.getVersion())}
+            );
+            // A conflict rolls back the category the update may have added
+            if (updated > 0) {
+                getDatabase().setTransactionSuccessful();
+            }
+        } finally {
+            getDatabase().endTransaction();
+        }
+        if (updated == 0) {
+            return false;
+        }
+        Food food = new Food(updatedFood.getName(), updatedFood.getQuantity(),
+                updatedFood.getAmount(), updatedFood.getBrand(), id, updatedFood.getCategory());
+        food.setVersion(updatedFood.getVersion() + 1);
+        mChanges.publish(FoodChange.food(FoodChange.Type.FOOD_UPDATED, id, food, oldCategory,
+                updatedFood.getCategory().equals(oldCategory) ? null : updatedFood.getCategory()));
+        return true;
     }
 
     /**
@@ -186,12 +1105,21 @@ public class FoodManager {
      * @return the corresponding Food object if it exists, null otherwise.
      */
     public Food getFood(String name, String amount, String brand, String category) {
+        if (isMirrorLoaded()) {
+            return mMirror.getFood(name, amount, brand, category);
+        }
+        return readFoodByKey(name, amount, brand, category);
+    }
+
+    /**
+     * Reads a food item with a specific name, amount, brand and category from the database.
+     * @return the food item, null if it does not exist.
+     */
+    private Food readFoodByKey(String name, String amount, String brand, String category) {
         FoodCursorWrapper cursor = queryFood(
-                FoodTable.Cols.NAME + " = ?" + " and " +
-                FoodTable.Cols.AMOUNT + " = ? " + " and " +
-                FoodTable.Cols.BRAND + " = ? " + " and " +
-                FoodTable.Cols.CATEGORY + " = ? ",
-                new String[] {name, amount, brand, category}
+                FoodCursorWrapper.FOOD_PROJECTION,
+                KEY_WHERE_CLAUSE,
+                getKeyArgs(name, amount, brand, category)
         );
 
         try {
@@ -205,56 +1133,321 @@ public class FoodManager {
         }
     }
 
+    /**
+     * Returns the id of a food item with a specific name, amount, brand and category. Only the id
+     * column is read.
+     * @param name      the name of the food item.
+     * @param amount    the amount of the food item.
+     * @param brand     the brand of the food item.
+     * @param category  the category of the food item.
+     * @return the id of the food item if it exists, -1 otherwise.
+     */
+    public int getFoodId(String name, String amount, String brand, String category) {
+        if (isMirrorLoaded()) {
+            Food food = mMirror.getFood(name, amount, brand, category);
+            return food != null ? food.getId() : -1;
+        }
+        FoodCursorWrapper cursor = queryFood(
+                FoodCursorWrapper.ID_PROJECTION,
+                KEY_WHERE_CLAUSE,
+                getKeyArgs(name, amount, brand, category)
+        );
+
+        try {
+            return cursor.moveToFirst() ? cursor.getFoodId() : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Checks if a food item with a specific name, amount, brand and category exists.
+     * @param name      the name of the food item.
+     * @param amount    the amount of the food item.
+     * @param brand     the brand of the food item.
+     * @param category  the category of the food item.
+     * @return true if the food item exists.
+     */
+    public boolean hasFood(String name, String amount, String brand, String category) {
+        return getFoodId(name, amount, brand, category) != -1;
+    }
+
+    /**
+     * Returns the ids of the food items in a category. Only the id column is read, which is
+     * enough for finding the photos of the food items.
+     * @param category the category of the food items.
+     * @return the ids of the food items.
+     */
+    public int[] getFoodIds(String category) {
+        if (isMirrorLoaded()) {
+            return mMirror.getIds(category);
+        }
+        FoodCursorWrapper cursor = queryFood(
+                FoodCursorWrapper.ID_PROJECTION,
+                CATEGORY_ID_SELECTION,
+                new String[] {category}
+        );
+
+        try {
+            int[] ids = new int[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); ++i) {
+                ids[i] = cursor.getFoodId();
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Removes all food items in the database that belongs to a specific category.
      * @param category the category of the food items to delete.
      */
-    public void removeAllInCategory(String category) {
-        mDatabase.delete(
+    @Override
+    public synchronized void removeAllInCategory(String category) {
+        getDatabase().delete(
                 FoodTable.FOOD,
-                FoodTable.Cols.CATEGORY + " = ?",
+                CATEGORY_ID_SELECTION,
                 new String[] {category}
         );
+        mChanges.publish(FoodChange.category(FoodChange.Type.CATEGORY_CLEARED, category, null));
     }
 
     /**
      * Deletes a food item from the database.
      * @param id the id of the food item to delete.
      */
-    public void deleteFood(int id) {
-        mDatabase.delete(
+    @Override
+    public synchronized void deleteFood(int id) {
+        String category = getCategoryOf(id);
+        getDatabase().delete(
                 FoodTable.FOOD,
                 FoodTable.Cols.FOOD_ID + " = ?",
                 new String[] {Integer.toString(id)}
         );
+        mChanges.publish(FoodChange.food(FoodChange.Type.FOOD_DELETED, id, null, category, null));
     }
 
     /**
-     * Updates the category column of the food items that had it set to its previous name and sets
-     * it to its new name.
-     * @param oldCategory the old category name.
-     * @param newCategory the new category name.
+     * Returns the names of all categories, sorted by name. The category of food items without a
+     * category is not included.
+     * @return a list containing the category names.
      */
-    public void updateCategory(String oldCategory, String newCategory) {
+    public List<String> getCategoryNames() {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = getDatabase().query(
+                CategoryTable.CATEGORY,
+                new String[] {CategoryTable.Cols.NAME},
+                CategoryTable.Cols.NAME + " != ?",
+                new String[] {CategoryManager.VALUE_NO_CATEGORY},
+                null,
+                null,
+                CategoryTable.Cols.NAME
+        );
+
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * Returns the number of food items and their total quantity for every category, including
+     * the category of food items without a category. The counts are stored in the category
+     * table, so only one row per category is read.
+     * @return a read-only list of category summaries, sorted by category name.
+     */
+    @SuppressWarnings("unchecked")
+    public List<CategorySummary> getCategorySummaries() {
+        List<CategorySummary> cached =
+                (List<CategorySummary>) mCache.getQuery(null, QUERY_SUMMARIES);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mCache.getGeneration();
+        List<CategorySummary> summaries = new ArrayList<>();
+        Cursor cursor = getDatabase().query(
+                CategoryTable.CATEGORY,
+                new String[] {
+                        CategoryTable.Cols.NAME,
+                        CategoryTable.Cols.ITEM_COUNT,
+                        CategoryTable.Cols.TOTAL_QUANTITY
+                },
+                null,
+                null,
+                null,
+                null,
+                CategoryTable.Cols.NAME
+        );
+
+        try {
+            while (cursor.moveToNext()) {
+                summaries.add(new CategorySummary(cursor.getString(0), cursor.getInt(1),
+                        cursor.getInt(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+        summaries = Collections.unmodifiableList(summaries);
+        mCache.putQuery(generation, null, QUERY_SUMMARIES, summaries);
+        return summaries;
+    }
+
+    /**
+     * Adds a new category if it does not already exist.
+     * @param name the name of the category.
+     * @return true if the category was added, false if it already existed.
+     */
+    public synchronized boolean addCategory(String name) {
         ContentValues values = new ContentValues();
-        values.put(FoodTable.Cols.CATEGORY, newCategory);
+        values.put(CategoryTable.Cols.NAME, name);
+        boolean added = getDatabase().insertWithOnConflict(CategoryTable.CATEGORY, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE) != -1;
+        if (added) {
+            mChanges.publish(FoodChange.category(FoodChange.Type.CATEGORY_ADDED, name, null));
+        }
+        return added;
+    }
 
-        mDatabase.update(FoodTable.FOOD,
+    /**
+     * Renames a category. The food items refer to the category by id, so only the category row
+     * is changed, however many food items the category contains.
+     * @param oldName the current name of the category.
+     * @param newName the new name of the category.
+     * @return true if the category was renamed, false if the new name is taken by another
+     * category or the category does not exist.
+     */
+    @Override
+    public synchronized boolean renameCategory(String oldName, String newName) {
+        ContentValues values = new ContentValues();
+        values.put(CategoryTable.Cols.NAME, newName);
+        int renamed = getDatabase().updateWithOnConflict(CategoryTable.CATEGORY,
                 values,
-                FoodTable.Cols.CATEGORY+ " = ?",
-                new String[] {oldCategory}
+                CategoryTable.Cols.NAME + " = ?",
+                new String[] {oldName},
+                SQLiteDatabase.CONFLICT_IGNORE
+        );
+        if (renamed > 0) {
+            mChanges.publish(FoodChange.category(FoodChange.Type.CATEGORY_RENAMED, oldName,
+                    newName));
+        }
+        return renamed > 0;
+    }
+
+    /**
+     * Moves the food items of a category to another category and removes the first category,
+     * in one transaction. If the new category already contains a food item with the same name,
+     * amount and brand as a moved food item, the two are merged by adding their quantities.
+     * @param oldCategory the category to remove.
+     * @param newCategory the category to move the food items to.
+     */
+    public synchronized void mergeCategory(String oldCategory, String newCategory) {
+        if (oldCategory.equals(newCategory)) {
+            return;
+        }
+        String sameItem = "o." + FoodTable.Cols.NAME + " = " + FoodTable.FOOD + "." + FoodTable.Cols.NAME +
+                " and o." + FoodTable.Cols.AMOUNT + " = " + FoodTable.FOOD + "." + FoodTable.Cols.AMOUNT +
+                " and o." + FoodTable.Cols.BRAND + " = " + FoodTable.FOOD + "." + FoodTable.Cols.BRAND +
+                " and o." + FoodTable.Cols.CATEGORY_ID + " = ?";
+
+        getDatabase().beginTransactionNonExclusive();
+        try {
+            long oldId = getCategoryId(oldCategory);
+            long newId = getCategoryId(newCategory);
+            // Add the quantities of the moved food items to the ones they are merged with
+            getDatabase().execSQL("update " + FoodTable.FOOD +
+                            " set " + FoodTable.Cols.QUANTITY + " = " + FoodTable.Cols.QUANTITY +
+                            " + (select o." + FoodTable.Cols.QUANTITY +
+                            " from " + FoodTable.FOOD + " o where " + sameItem + ")" +
+                            INCREASE_VERSION +
+                            " where " + FoodTable.Cols.CATEGORY_ID + " = ?" +
+                            " and exists (select 1 from " + FoodTable.FOOD + " o where " + sameItem + ")",
+                    new Object[] {oldId, newId, oldId}
+            );
+            getDatabase().execSQL("delete from " + FoodTable.FOOD +
+                            " where " + FoodTable.Cols.CATEGORY_ID + " = ?" +
+                            " and exists (select 1 from " + FoodTable.FOOD + " o where " + sameItem + ")",
+                    new Object[] {oldId, newId}
+            );
+
+            getDatabase().execSQL("update " + FoodTable.FOOD +
+                            " set " + FoodTable.Cols.CATEGORY_ID + " = ?" + INCREASE_VERSION +
+                            " where " + FoodTable.Cols.CATEGORY_ID + " = ?",
+                    new Object[] {newId, oldId}
+            );
+            deleteCategory(oldId);
+            getDatabase().setTransactionSuccessful();
+        } finally {
+            getDatabase().endTransaction();
+        }
+        mChanges.publish(FoodChange.category(FoodChange.Type.CATEGORY_MERGED, oldCategory,
+                newCategory));
+    }
+
+    /**
+     * Removes a category and all food items in it, in one transaction.
+     * @param category the category to remove.
+     */
+    public synchronized void removeCategory(String category) {
+        getDatabase().beginTransactionNonExclusive();
+        try {
+            long id = getCategoryId(category);
+            getDatabase().delete(
+                    FoodTable.FOOD,
+                    FoodTable.Cols.CATEGORY_ID + " = ?",
+                    new String[] {Long.toString(id)}
+            );
+            deleteCategory(id);
+            getDatabase().setTransactionSuccessful();
+        } finally {
+            getDatabase().endTransaction();
+        }
+        mChanges.publish(FoodChange.category(FoodChange.Type.CATEGORY_REMOVED, category, null));
+    }
+
+    /**
+     * Deletes a category row. The category of food items without a category is never deleted.
+     * @param id the id of the category.
+     */
+    private void deleteCategory(long id) {
+        getDatabase().delete(
+                CategoryTable.CATEGORY,
+                CategoryTable.Cols.CATEGORY_ID + " = ? and " + CategoryTable.Cols.NAME + " != ?",
+                new String[] {Long.toString(id), CategoryManager.VALUE_NO_CATEGORY}
         );
     }
 
+    /**
+     * Reads all rows of a cursor into a snapshot, and closes the cursor.
+     * @param cursor the cursor to read.
+     */
+    private static FoodSnapshot readSnapshot(FoodCursorWrapper cursor) {
+        try {
+            FoodSnapshot.Builder builder = new FoodSnapshot.Builder(cursor.getCount());
+            while (cursor.moveToNext()) {
+                cursor.addTo(builder);
+            }
+            return builder.build();
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * A cursor wrapper for making queries to the database.
+     * @param projection  which columns to read, one of the projections of FoodCursorWrapper.
      * @param whereClause which columns that are of concern.
      * @param whereArgs which data in each column to match.
      */
-    private FoodCursorWrapper queryFood(String whereClause, String[] whereArgs) {
-        Cursor cursor = mDatabase.query(
-                FoodTable.FOOD,
-                null, // Null selects all columns
+    private FoodCursorWrapper queryFood(String[] projection, String whereClause,
+                                        String[] whereArgs) {
+        Cursor cursor = getDatabase().query(
+                FoodTable.FOOD_VIEW,
+                projection,
                 whereClause,
                 whereArgs,
                 null, // group by
@@ -266,7 +1459,8 @@ public class FoodManager {
     }
 
     /**
-     * Content values for inserting food items into the database.
+     * Content values for updating food items in the database. The category id is not included,
+     * since it has to be looked up.
      */
     private static ContentValues getContentValues(Food food) {
         ContentValues values = new ContentValues();
@@ -274,7 +1468,6 @@ public class FoodManager {
         values.put(FoodTable.Cols.QUANTITY, food.getQuantity());
         values.put(FoodTable.Cols.AMOUNT, food.getAmount());
         values.put(FoodTable.Cols.BRAND, food.getBrand());
-        values.put(FoodTable.Cols.CATEGORY, food.getCategory());
 
         return values;
     }
@@ -299,6 +1492,9 @@ public class FoodManager {
         if (photoFile.exists()) {
             photoFile.renameTo(newPhotoFile);
         }
+        ImageLoader imageLoader = ImageLoader.get(mContext);
+        imageLoader.evictPhoto(photoFile);
+        imageLoader.evictPhoto(newPhotoFile);
     }
 
     /**
@@ -310,11 +1506,48 @@ public class FoodManager {
     }
 
     /**
-     * Deletes a specific photo file.
+     * Deletes a specific photo file, and drops it from memory.
      * @param file the photo to delete.
      */
     public void deletePhotoFile(File file) {
         file.delete();
+        ImageLoader.get(mContext).evictPhoto(file);
+    }
+
+    /**
+     * Deletes the photo and the thumbnail of a food item, and drops the thumbnail from memory.
+     * @param id the id of the food item.
+     */
+    public void deletePhotoFiles(int id) {
+        File photoFile = getPhotoFile(Food.getPhotoFilename(id));
+        if (photoFile == null) {
+            return;
+        }
+        File thumbnailFile = getThumbnailFile(id);
+        deletePhotoFile(photoFile);
+        deletePhotoFile(thumbnailFile);
+        ImageLoader.get(mContext).evictThumbnail(thumbnailFile);
+    }
+
+    /**
+     * Retrieves the thumbnail file of a food item.
+     * @param id the id of the food item.
+     * @return the thumbnail file, null if the storage is not available.
+     */
+    public File getThumbnailFile(int id) {
+        return getPhotoFile(Food.getThumbnailFilename(id));
+    }
+
+    /**
+     * Retrieves the directory photos and thumbnails are stored in. The directory is looked up
+     * once, so the lists can build the names of thumbnail files without touching the storage.
+     * @return the directory, null if the storage is not available.
+     */
+    public File getPhotoDirectory() {
+        if (mPhotoDirectory == null) {
+            mPhotoDirectory = mContext.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        }
+        return mPhotoDirectory;
     }
 
     /**
@@ -376,6 +1609,7 @@ public class FoodManager {
 
         if (savedTempPhotoFile.exists()) {
             savedTempPhotoFile.renameTo(tempPhotoFile);
+            ImageLoader.get(mContext).evictPhoto(tempPhotoFile);
         } else {
             return null;
         }
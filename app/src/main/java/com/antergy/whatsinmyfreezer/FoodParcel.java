@@ -0,0 +1,56 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Carries a food item in a Parcel, for the few places that need to hand a whole food item to a
+ * Bundle. Food itself lives in the data module, which does not depend on Android, so it can not
+ * implement Parcelable. Screens are started with the id of a food item, not with a parcel.
+ */
+public class FoodParcel implements Parcelable {
+    private final Food mFood;
+
+    public FoodParcel(Food food) {
+        mFood = food;
+    }
+
+    private FoodParcel(Parcel in) {
+        mFood = new Food(in.readString(), in.readInt(), in.readString(), in.readString(),
+                in.readInt(), in.readString());
+        mFood.setVersion(in.readInt());
+    }
+
+    public Food getFood() {
+        return mFood;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeString(mFood.getName());
+        out.writeInt(mFood.getQuantity());
+        out.writeString(mFood.getAmount());
+        out.writeString(mFood.getBrand());
+        out.writeInt(mFood.getId());
+        out.writeString(mFood.getCategory());
+        out.writeInt(mFood.getVersion());
+    }
+
+    public static final Parcelable.Creator<FoodParcel> CREATOR =
+            new Parcelable.Creator<FoodParcel>() {
+                @Override
+                public FoodParcel createFromParcel(Parcel in) {
+                    return new FoodParcel(in);
+                }
+
+                @Override
+                public FoodParcel[] newArray(int size) {
+                    return new FoodParcel[size];
+                }
+            };
+}
@@ -0,0 +1,35 @@
+package com.antergy.whatsinmyfreezer;
+
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodTable;
+
+/**
+ * The orders a list of food items can be read in. Food items with the same value are ordered by
+ * their id, so every food item has a unique position in the list.
+ */
+public enum FoodSort {
+    NAME(FoodTable.Cols.NAME),
+    BRAND(FoodTable.Cols.BRAND);
+
+    private final String mColumn;
+
+    FoodSort(String column) {
+        mColumn = column;
+    }
+
+    /**
+     * Gets the database column that is sorted on.
+     */
+    public String getColumn() {
+        return mColumn;
+    }
+
+    /**
+     * Gets the value a food item is sorted on.
+     */
+    public String getValue(Food food) {
+        if (this == BRAND) {
+            return food.getBrand();
+        }
+        return food.getName();
+    }
+}
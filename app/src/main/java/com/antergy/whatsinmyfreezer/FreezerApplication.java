@@ -0,0 +1,46 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.app.Application;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The application. Creates the food manager when the process starts, which starts opening the
+ * database on the writer thread, so it is usually open before the first screen queries it. The
+ * quantity write queue is created right after, so quantity changes that were journaled but not
+ * written before the process was stopped are written before the first screen reads them.
+ * Thumbnails of photos saved before thumbnails were generated are backfilled in the background.
+ * Also measures the time from the start of the process to the first food items on screen. The
+ * time is logged under the tag FreezerApplication, once for the saved first page and once for
+ * the page read from the database, so cold starts can be compared with and without the saved
+ * page.
+ */
+public class FreezerApplication extends Application {
+    private static final String TAG = "FreezerApplication";
+    private static final Set<String> sReported = new HashSet<>();
+    private static long sStartTime;
+
+    @Override
+    public void onCreate() {
+        sStartTime = SystemClock.uptimeMillis();
+        super.onCreate();
+        FoodManager.get(this);
+        QuantityWriteQueue.get(this);
+        ThumbnailGenerator.get(this).backfill();
+    }
+
+    /**
+     * Logs the time from the start of the process to the first food items shown from a source,
+     * the first time they are shown.
+     * @param source where the food items were read from.
+     */
+    static void reportFirstContent(String source) {
+        if (sStartTime != 0 && sReported.add(source)) {
+            Log.i(TAG, "First content from " + source + " after " +
+                    (SystemClock.uptimeMillis() - sStartTime) + " ms");
+        }
+    }
+}
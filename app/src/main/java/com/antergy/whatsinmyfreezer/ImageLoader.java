@@ -0,0 +1,509 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads photos into image views off the main thread. A photo is decoded at the size it is shown
+ * at, and the bitmap is kept in a memory cache bounded by the number of bytes of the bitmaps. The
+ * decoded bitmap is also written to a disk cache, so a photo that has left the memory cache is
+ * read back at its scaled size instead of being decoded from the full size file again.
+ * A photo is scaled to fit in a square of the longest edge it is shown at, so the same bitmap
+ * serves both orientations of the screen. In memory, photos are keyed by the file name and that
+ * edge only, so loading a photo does not touch the storage on the main thread; evictPhoto() is
+ * called when a photo file is written, moved or deleted. On disk, they are also keyed by the
+ * length and modification time of the file, which are read on a decoder thread, so a photo that
+ * is taken again under the same file name is never read from the disk cache.
+ * An image view shows the result of the last request made for it; an earlier request for the
+ * same view is cancelled. Every request has a tag, usually the fragment that made it, and
+ * cancelAll() is called with the tag when the fragment is destroyed.
+ * Thumbnails are loaded the same way, but are kept in a memory cache of their own so the photos
+ * do not push them out while a list is scrolled, and are not written to the disk cache since they
+ * are already small files. They are keyed by the file name only, so binding a row does not touch
+ * the storage; evictThumbnail() is called when a thumbnail is written or deleted. A list can
+ * prefetch the thumbnails of the rows ahead of the scroll direction, and a row that is bound
+ * while its prefetch is running is given the result of the prefetch.
+ * The tiles that TiledPhotoView decodes of a zoomed photo are kept in the memory cache of the
+ * photos, under the file name of the photo, so zooming shares the budget of the photos and the
+ * tiles are evicted together with them.
+ * All methods must be called on the main thread, except evictPhoto() and evictThumbnail().
+ */
+public class ImageLoader {
+    private static final String TAG = "ImageLoader";
+    private static final int DECODER_THREADS = 2;
+    private static final String DISK_CACHE_DIR = "images";
+    private static final long MAX_DISK_CACHE_BYTES = 20 * 1024 * 1024;
+    private static final int DISK_CACHE_QUALITY = 90;
+    private static ImageLoader sImageLoader = null;
+    private final ExecutorService mDecoders =
+            Executors.newFixedThreadPool(DECODER_THREADS, new DecoderThreadFactory());
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final LruCache<String, Bitmap> mThumbnailCache;
+    private final File mDiskCacheDir;
+    // The bytes in the disk cache as counted by the writes, -1 until it has been measured
+    private long mDiskCacheBytes = -1;
+    private final Map<ImageView, Request> mViewRequests = new WeakHashMap<>();
+    private final Map<Object, List<Request>> mTagRequests = new HashMap<>();
+    private final Map<String, Request> mPrefetchRequests = new HashMap<>();
+
+    /**
+     * A request to show a photo or a thumbnail in an image view. A prefetch has no view until a
+     * view is given the thumbnail while it is decoded.
+     */
+    private class Request implements Runnable {
+        private final Object mTag;
+        private ImageView mView;
+        private final File mFile;
+        private final String mKey;
+        private final int mMaxEdge;
+        private final boolean mThumbnail;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+
+        private Request(Object tag, ImageView view, File file, String key, int maxEdge,
+                        boolean thumbnail) {
+            mTag = tag;
+            mView = view;
+            mFile = file;
+            mKey = key;
+            mMaxEdge = maxEdge;
+            mThumbnail = thumbnail;
+        }
+
+        /**
+         * Decodes a thumbnail, or reads a photo from the disk cache, or decodes the photo and
+         * writes it to the disk cache. Runs on a decoder thread.
+         */
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            if (mThumbnail) {
+                post(decodeThumbnail(mFile));
+                return;
+            }
+            File cached = getDiskCacheFile(getDiskKey(mFile, mMaxEdge));
+            Bitmap bitmap = cached.exists() ? BitmapFactory.decodeFile(cached.getPath()) : null;
+            if (bitmap != null) {
+                cached.setLastModified(System.currentTimeMillis());
+            } else if (!mCancelled) {
+                bitmap = PictureUtils.getScaledBitmap(mFile.getPath(), mMaxEdge, mMaxEdge);
+                if (bitmap != null) {
+                    writeToDiskCache(cached, bitmap);
+                }
+            }
+            post(bitmap);
+        }
+
+        private void post(final Bitmap bitmap) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finish(Request.this, bitmap);
+                }
+            });
+        }
+
+        private void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(false);
+            }
+        }
+    }
+
+    public static synchronized ImageLoader get(Context context) {
+        if (sImageLoader == null) {
+            sImageLoader = new ImageLoader(context);
+        }
+        return sImageLoader;
+    }
+
+    private ImageLoader(Context context) {
+        // An eighth of the heap the application may use
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        // Thumbnails get a sixteenth, which holds a few screens of rows
+        mThumbnailCache = new LruCache<String, Bitmap>(maxBytes / 2) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        mDiskCacheDir = new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIR);
+    }
+
+    /**
+     * Shows a photo in an image view, scaled to fit in a square of a specific edge. A photo in
+     * the memory cache is shown at once. Otherwise the placeholder is shown until the photo has
+     * been read, and stays if the photo can not be read.
+     * @param tag         identifies the requester, for cancelAll().
+     * @param view        the image view to show the photo in.
+     * @param file        the photo file.
+     * @param maxEdge     the longest edge the photo is shown at in any orientation, in pixels.
+     * @param placeholder the drawable resource to show while the photo is read.
+     */
+    public void load(Object tag, ImageView view, File file, int maxEdge, int placeholder) {
+        cancel(view);
+        String key = getKey(file, maxEdge);
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+        view.setImageResource(placeholder);
+        Request request = new Request(tag, view, file, key, maxEdge, false);
+        mViewRequests.put(view, request);
+        submit(request);
+    }
+
+    /**
+     * Shows a thumbnail in an image view. A thumbnail in memory is shown at once. Otherwise the
+     * placeholder is shown until the thumbnail has been decoded, and stays if there is no
+     * thumbnail.
+     * @param tag         identifies the requester, for cancelAll().
+     * @param view        the image view to show the thumbnail in.
+     * @param file        the thumbnail file.
+     * @param placeholder the drawable resource to show while the thumbnail is decoded.
+     */
+    public void loadThumbnail(Object tag, ImageView view, File file, int placeholder) {
+        cancel(view);
+        String key = file.getPath();
+        Bitmap bitmap = mThumbnailCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+        view.setImageResource(placeholder);
+        Request request = mPrefetchRequests.get(key);
+        if (request != null && request.mView == null) {
+            request.mView = view;
+        } else {
+            request = new Request(tag, view, file, key, 0, true);
+            submit(request);
+        }
+        mViewRequests.put(view, request);
+    }
+
+    /**
+     * Decodes a thumbnail into memory before it is shown, unless it is already in memory or
+     * being decoded.
+     * @param tag  identifies the requester, for cancelAll().
+     * @param file the thumbnail file.
+     */
+    public void prefetchThumbnail(Object tag, File file) {
+        String key = file.getPath();
+        if (mThumbnailCache.get(key) != null || mPrefetchRequests.containsKey(key)) {
+            return;
+        }
+        Request request = new Request(tag, null, file, key, 0, true);
+        mPrefetchRequests.put(key, request);
+        submit(request);
+    }
+
+    private void submit(Request request) {
+        List<Request> requests = mTagRequests.get(request.mTag);
+        if (requests == null) {
+            requests = new ArrayList<>();
+            mTagRequests.put(request.mTag, requests);
+        }
+        requests.add(request);
+        request.mFuture = mDecoders.submit(request);
+    }
+
+    /**
+     * Cancels the request for an image view, if it has not finished. The view keeps what it
+     * shows.
+     * @param view the image view.
+     */
+    public void cancel(ImageView view) {
+        Request request = mViewRequests.remove(view);
+        if (request != null) {
+            request.cancel();
+            remove(request);
+        }
+    }
+
+    /**
+     * Cancels all requests made with a tag. Their image views are not changed.
+     * @param tag the tag of the requests.
+     */
+    public void cancelAll(Object tag) {
+        List<Request> requests = mTagRequests.remove(tag);
+        if (requests == null) {
+            return;
+        }
+        for (Request request : requests) {
+            request.cancel();
+            if (request.mView != null && mViewRequests.get(request.mView) == request) {
+                mViewRequests.remove(request.mView);
+            }
+            if (mPrefetchRequests.get(request.mKey) == request) {
+                mPrefetchRequests.remove(request.mKey);
+            }
+        }
+    }
+
+    /**
+     * Removes the bitmaps of a photo from the memory cache, so it is read again the next time it
+     * is shown. Scaled copies in the disk cache are keyed by the modification time of the file,
+     * so they are never read for a new photo, and are removed when the disk cache is trimmed.
+     * Can be called on any thread.
+     * @param file the photo file.
+     */
+    public void evictPhoto(File file) {
+        String prefix = file.getPath() + '\u0000';
+        for (String key : mMemoryCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mMemoryCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns a decoded tile of a photo from the memory cache.
+     * @param file the photo file.
+     * @param tile identifies the tile and the sample size it was decoded at.
+     * @return the tile, or null if it is not in memory.
+     */
+    public Bitmap getTile(File file, long tile) {
+        return mMemoryCache.get(getTileKey(file, tile));
+    }
+
+    /**
+     * Keeps a decoded tile of a photo in the memory cache, until it needs the room or
+     * evictPhoto() is called for the photo.
+     * @param file   the photo file.
+     * @param tile   identifies the tile and the sample size it was decoded at.
+     * @param bitmap the decoded tile.
+     */
+    public void putTile(File file, long tile, Bitmap bitmap) {
+        mMemoryCache.put(getTileKey(file, tile), bitmap);
+    }
+
+    /**
+     * Removes a thumbnail from memory, so it is decoded again the next time it is shown. Can be
+     * called on any thread.
+     * @param file the thumbnail file.
+     */
+    public void evictThumbnail(File file) {
+        mThumbnailCache.remove(file.getPath());
+    }
+
+    /**
+     * Caches the bitmap of a finished request and shows it, unless the request was cancelled or
+     * the view has been given another request since. Runs on the main thread.
+     */
+    private void finish(Request request, Bitmap bitmap) {
+        if (bitmap != null) {
+            (request.mThumbnail ? mThumbnailCache : mMemoryCache).put(request.mKey, bitmap);
+        }
+        if (request.mCancelled) {
+            return;
+        }
+        remove(request);
+        if (request.mView != null) {
+            mViewRequests.remove(request.mView);
+            if (bitmap != null) {
+                request.mView.setImageBitmap(bitmap);
+            }
+        }
+    }
+
+    private void remove(Request request) {
+        if (mPrefetchRequests.get(request.mKey) == request) {
+            mPrefetchRequests.remove(request.mKey);
+        }
+        List<Request> requests = mTagRequests.get(request.mTag);
+        if (requests != null) {
+            requests.remove(request);
+            if (requests.isEmpty()) {
+                mTagRequests.remove(request.mTag);
+            }
+        }
+    }
+
+    /**
+     * Writes a scaled bitmap to the disk cache. It is written to a temporary file that is renamed
+     * when it is complete, so a reader never sees half a file. Runs on a decoder thread.
+     */
+    private void writeToDiskCache(File file, Bitmap bitmap) {
+        if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            long length = temp.length();
+            if (temp.renameTo(file)) {
+                addToDiskCache(length);
+            } else {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Counts a file written to the disk cache, and trims the cache when the count goes over its
+     * size. The directory is only listed to measure the cache the first time, and when it is
+     * trimmed, not after every write.
+     * @param length the length of the file.
+     */
+    private synchronized void addToDiskCache(long length) {
+        if (mDiskCacheBytes < 0) {
+            mDiskCacheBytes = trimDiskCache();
+        } else {
+            mDiskCacheBytes += length;
+            if (mDiskCacheBytes > MAX_DISK_CACHE_BYTES) {
+                mDiskCacheBytes = trimDiskCache();
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used files of the disk cache until it is within its size.
+     * @return the number of bytes left in the cache.
+     */
+    private long trimDiskCache() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_CACHE_BYTES) {
+            return total;
+        }
+        // The times are read once, since they could change while the files are sorted
+        final Map<File, Long> times = new HashMap<>();
+        for (File file : files) {
+            times.put(file, file.lastModified());
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long timeA = times.get(a);
+                long timeB = times.get(b);
+                return timeA < timeB ? -1 : (timeA == timeB ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && total > MAX_DISK_CACHE_BYTES; ++i) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Decodes a thumbnail at its own size. Thumbnails have no transparency, so they are decoded
+     * with two bytes per pixel. Runs on a decoder thread.
+     */
+    private static Bitmap decodeThumbnail(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    private File getDiskCacheFile(String key) {
+        return new File(mDiskCacheDir, hash(key) + ".jpg");
+    }
+
+    private static String getKey(File file, int maxEdge) {
+        return file.getPath() + '\u0000' + maxEdge;
+    }
+
+    private static String getTileKey(File file, long tile) {
+        return file.getPath() + '\u0000' + "tile" + tile;
+    }
+
+    /**
+     * Returns the key of a photo in the disk cache. Reads the file, so it runs on a decoder
+     * thread.
+     */
+    private static String getDiskKey(File file, int maxEdge) {
+        return getKey(file, maxEdge) + '\u0000' + file.length() + '\u0000' + file.lastModified();
+    }
+
+    /**
+     * Returns a hex digest of a key, to use as a file name.
+     */
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Android device has MD5 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates named background priority threads for decoding.
+     */
+    private static class DecoderThreadFactory implements ThreadFactory {
+        private int mCount;
+
+        @Override
+        public synchronized Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ImageDecoder-" + ++mCount);
+        }
+    }
+}
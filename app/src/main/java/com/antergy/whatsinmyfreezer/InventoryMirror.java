@@ -0,0 +1,216 @@
+package com.antergy.whatsinmyfreezer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A copy of all stored food items in memory, which FoodManager serves reads from once it has been
+ * loaded. The food items are kept in an InMemoryFoodRepository, which indexes them by id, by key
+ * (name, amount, brand and category) and by category, so the mirror uses the same index code that
+ * the repository benchmarks measure.
+ * The mirror is loaded once from the database, and is then kept up to date by the changes that
+ * FoodManager publishes after every commit. A change that does not carry the stored food item is
+ * applied by reading the food item or the category from the database again. Until the mirror is
+ * loaded it ignores the changes, and FoodManager reads from the database.
+ * Strings that repeat, like brands, amounts and categories, are shared between the food items.
+ * The mirror is locked while a change is applied, so a read never sees half of a change.
+ */
+class InventoryMirror implements FoodManager.OnChangeListener {
+    private static final int MAX_PROBLEMS = 20;
+    private final Source mSource;
+    private final InMemoryFoodRepository mFoods = new InMemoryFoodRepository();
+    private final Map<String, String> mStrings = new HashMap<>();
+    private boolean mLoaded;
+
+    /**
+     * Reads the stored food items for the mirror, bypassing the mirror.
+     */
+    interface Source {
+        FoodSnapshot readAll();
+
+        /**
+         * @return the food item, null if it does not exist.
+         */
+        Food readFood(int id);
+
+        FoodSnapshot readCategory(String category);
+    }
+
+    InventoryMirror(Source source) {
+        mSource = source;
+    }
+
+    /**
+     * Reads all food items from the source. Should be called when no writes can be committed,
+     * since changes committed while the food items are read would be lost.
+     */
+    public synchronized void load() {
+        mFoods.clear();
+        mStrings.clear();
+        FoodSnapshot foods = mSource.readAll();
+        for (int i = 0; i < foods.size(); ++i) {
+            put(foods.get(i));
+        }
+        mLoaded = true;
+    }
+
+    public synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Returns a copy of the food item with a specific id, null if there is none.
+     */
+    public synchronized Food getFood(int id) {
+        return mFoods.getFood(id);
+    }
+
+    /**
+     * Returns a copy of the food item with a specific key, null if there is none.
+     */
+    public synchronized Food getFood(String name, String amount, String brand, String category) {
+        return mFoods.getFood(name, amount, brand, category);
+    }
+
+    /**
+     * Returns the category of a food item, null if there is no food item with the id.
+     */
+    public synchronized String getCategoryOf(int id) {
+        Food food = mFoods.getFood(id);
+        return food == null ? null : food.getCategory();
+    }
+
+    /**
+     * Returns the food items of a category, sorted by id.
+     * @param category the category, null for all food items.
+     */
+    public synchronized FoodSnapshot getFoods(String category) {
+        return category == null ? mFoods.getAll() : mFoods.getCategoryList(category);
+    }
+
+    /**
+     * Returns the ids of the food items in a category, sorted.
+     * @param category the category, null for all food items.
+     */
+    public synchronized int[] getIds(String category) {
+        return mFoods.getIds(category);
+    }
+
+    /**
+     * Returns the number of food items in a category.
+     * @param category the category, null for all food items.
+     */
+    public synchronized int getCount(String category) {
+        return mFoods.getCount(category);
+    }
+
+    @Override
+    public synchronized void onChange(FoodChange change) {
+        if (!mLoaded) {
+            return;
+        }
+        switch (change.getType()) {
+            case FOOD_INSERTED:
+            case FOOD_UPDATED:
+                Food food = change.getFood();
+                if (food == null) {
+                    food = mSource.readFood(change.getFoodId());
+                }
+                if (food != null) {
+                    put(food);
+                } else {
+                    mFoods.deleteFood(change.getFoodId());
+                }
+                break;
+            case FOOD_DELETED:
+                mFoods.deleteFood(change.getFoodId());
+                break;
+            case CATEGORY_RENAMED:
+                // The food items refer to the category by id in the database, so renaming can
+                // not make two of them have the same key
+                mFoods.renameCategory(change.getCategory(), share(change.getNewCategory()));
+                break;
+            case CATEGORY_MERGED:
+                // Merged food items have their quantities added, so the new category is read
+                mFoods.removeCategory(change.getCategory());
+                mFoods.removeAllInCategory(change.getNewCategory());
+                FoodSnapshot merged = mSource.readCategory(change.getNewCategory());
+                for (int i = 0; i < merged.size(); ++i) {
+                    put(merged.get(i));
+                }
+                break;
+            case CATEGORY_CLEARED:
+                mFoods.removeAllInCategory(change.getCategory());
+                break;
+            case CATEGORY_REMOVED:
+                mFoods.removeCategory(change.getCategory());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Compares the mirror with the food items stored in the database. Should be called when no
+     * writes can be committed.
+     * @param stored all food items in the database.
+     * @return a description of every difference found, up to a limit. Empty if the mirror is
+     * consistent with the database.
+     */
+    public synchronized List<String> check(FoodSnapshot stored) {
+        List<String> problems = new ArrayList<>();
+        for (int i = 0; i < stored.size() && problems.size() < MAX_PROBLEMS; ++i) {
+            Food expected = stored.get(i);
+            Food food = mFoods.getFood(expected.getId());
+            if (food == null) {
+                problems.add("Missing food item " + expected.getId());
+            } else if (!isSame(expected, food)) {
+                problems.add("Food item " + expected.getId() + " differs");
+            }
+        }
+        if (mFoods.getCount(null) != stored.size()) {
+            problems.add(mFoods.getCount(null) + " food items in memory, " + stored.size() +
+                    " stored");
+        }
+        problems.addAll(mFoods.checkIndexes(MAX_PROBLEMS));
+        return problems;
+    }
+
+    /**
+     * Stores a food item with shared strings, replacing the food item with the same id.
+     */
+    private void put(Food food) {
+        Food stored = new Food(share(food.getName()), food.getQuantity(), share(food.getAmount()),
+                share(food.getBrand()), food.getId(), share(food.getCategory()));
+        stored.setVersion(food.getVersion());
+        mFoods.putFood(stored);
+    }
+
+    /**
+     * Returns the shared copy of a string, so every distinct string is kept once.
+     */
+    private String share(String value) {
+        if (value == null) {
+            return null;
+        }
+        String shared = mStrings.get(value);
+        if (shared == null) {
+            mStrings.put(value, value);
+            shared = value;
+        }
+        return shared;
+    }
+
+    private static boolean isSame(Food a, Food b) {
+        return a.getQuantity() == b.getQuantity() && a.getVersion() == b.getVersion() &&
+                equals(a.getName(), b.getName()) &&
+                equals(a.getAmount(), b.getAmount()) && equals(a.getBrand(), b.getBrand()) &&
+                equals(a.getCategory(), b.getCategory());
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
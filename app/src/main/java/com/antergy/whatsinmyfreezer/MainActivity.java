@@ -5,17 +5,23 @@ import android.content.res.Configuration;
 import android.support.design.widget.NavigationView;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.ActionBarDrawerToggle;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.SubMenu;
+import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * Main activity, where the application starts. This activity handles the drawer menu that slides
@@ -23,6 +29,7 @@ import java.util.List;
  * categories, access the activity that handles the categories and return back to the "home" screen.
  */
 public class MainActivity extends AppCompatActivity {
+    private final static String TAG = "MainActivity";
     private final static String KEY_FRAGMENT_NAME = "fragmentName";
     private DrawerLayout mDrawerLayout;
     private NavigationView mNavigationView;
@@ -30,11 +37,17 @@ public class MainActivity extends AppCompatActivity {
     private MenuItem mPreviousMenuItem;
     private CharSequence mCurrentFragmentTitle;
     private boolean mClickedHandleCategory;
+    private AsyncFoodManager mAsyncFoodManager;
+    // The data generation the menu counts were read at, -1 until they have been read
+    private long mMenuGeneration = -1;
+    // The drawer menu items of the categories, by the stored name of the category
+    private final Map<String, MenuItem> mCategoryItems = new HashMap<>();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        mAsyncFoodManager = AsyncFoodManager.get(this);
 
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         mDrawerLayout = (DrawerLayout) findViewById(R.id.main_drawer_layout);
@@ -117,9 +130,25 @@ public class MainActivity extends AppCompatActivity {
 
     /**
      * Handles the sub menu categories dynamically. This because categories can be created,
-     * renamed and removed.
+     * renamed and removed. The names are read on a reader thread if they are not in memory yet,
+     * and the menu is filled when they have been read.
      */
     private void setMenuCategories() {
+        CategoryManager.get(this).loadCategories(this,
+                new AsyncFoodManager.Callback<List<String>>() {
+                    @Override
+                    public void onResult(List<String> categories) {
+                        fillMenuCategories(categories);
+                        setMenuCounts();
+                    }
+                });
+    }
+
+    /**
+     * Replaces the categories in the sub menu.
+     * @param categories the categories, as returned by CategoryManager.loadCategories().
+     */
+    private void fillMenuCategories(List<String> categories) {
         Menu menu = mNavigationView.getMenu();
         MenuItem categoryGroupItem = menu.findItem(R.id.group_categories);
         SubMenu subMenu = categoryGroupItem.getSubMenu();
@@ -132,17 +161,65 @@ public class MainActivity extends AppCompatActivity {
             subMenu.removeItem(item.getItemId());
         }
 
-        CategoryManager categoryManager = CategoryManager.get(MainActivity.this);
-        List<String> categories = categoryManager.getCategories();
+        mCategoryItems.clear();
+        String categoryName = getString(R.string.no_category);
         for (String category : categories) {
-            String categoryName = getString(R.string.no_category);
             if (!category.equalsIgnoreCase(categoryName)) {
                 MenuItem item = subMenu.add(category);
                 item.setIcon(R.drawable.ic_chevron_right_black_36dp);
+                mCategoryItems.put(category, item);
             }
         }
     }
 
+    /**
+     * Shows the number of food items of every category in the drawer menu. The counts are read
+     * from the category summaries, which only reads one row per category, and are matched to the
+     * menu items by the stored category names. The food items without a category have no menu
+     * item of their own, but are counted in the total of all categories.
+     */
+    private void setMenuCounts() {
+        final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+        final long[] generation = new long[1];
+        mAsyncFoodManager.read(this,
+                new Callable<List<CategorySummary>>() {
+                    @Override
+                    public List<CategorySummary> call() {
+                        generation[0] = foodManager.getGeneration();
+                        return foodManager.getCategorySummaries();
+                    }
+                },
+                new AsyncFoodManager.Callback<List<CategorySummary>>() {
+                    @Override
+                    public void onResult(List<CategorySummary> summaries) {
+                        mMenuGeneration = generation[0];
+                        int total = 0;
+                        for (CategorySummary summary : summaries) {
+                            total += summary.getItemCount();
+                            MenuItem item = mCategoryItems.get(summary.getName());
+                            if (item != null) {
+                                setMenuCount(item, summary.getItemCount());
+                            }
+                        }
+                        setMenuCount(mNavigationView.getMenu()
+                                .findItem(R.id.show_all_category), total);
+                    }
+                });
+    }
+
+    /**
+     * Shows a count next to a drawer menu item.
+     * @param item  the menu item.
+     * @param count the count to show.
+     */
+    private void setMenuCount(MenuItem item, int count) {
+        if (MenuItemCompat.getActionView(item) == null) {
+            MenuItemCompat.setActionView(item, R.layout.drawer_count);
+        }
+        TextView countTextView = (TextView) MenuItemCompat.getActionView(item);
+        countTextView.setText(Integer.toString(count));
+    }
+
     /**
      * Handles the items in the menu and what should happen when they are clicked.
      * @param menuItem the menu item that was clicked.
@@ -208,11 +285,74 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Overrides onResume to make sure the category list in the menu is always up to date.
+     * Overrides onResume to make sure the category list in the menu is always up to date. The
+     * menu is only rebuilt if a category has changed since it was built, and the counts are only
+     * read again if anything has changed. Nothing is checked while the counts of a menu that was
+     * just built, for example after the activity was recreated, are still being read, since they
+     * are read after any change that has been requested.
      */
     @Override
     protected void onResume() {
         super.onResume();
-        setMenuCategories();
+        final long generation = mMenuGeneration;
+        if (generation == -1) {
+            return;
+        }
+        final FoodManager foodManager = mAsyncFoodManager.getFoodManager();
+        mAsyncFoodManager.read(this,
+                new Callable<List<FoodChange>>() {
+                    @Override
+                    public List<FoodChange> call() {
+                        return foodManager.getChangesSince(generation);
+                    }
+                },
+                new AsyncFoodManager.Callback<List<FoodChange>>() {
+                    @Override
+                    public void onResult(List<FoodChange> changes) {
+                        if (changes == null) {
+                            setMenuCategories();
+                            return;
+                        }
+                        for (FoodChange change : changes) {
+                            if (change.isCategoryChange()) {
+                                setMenuCategories();
+                                return;
+                            }
+                        }
+                        if (!changes.isEmpty()) {
+                            setMenuCounts();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Stops delivering the category counts to the activity when it is destroyed.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAsyncFoodManager.cancelAll(this);
+    }
+
+    /**
+     * Overrides onStop to checkpoint the write-ahead log of the database on the writer thread
+     * when the application leaves the screen, and to log how well the caches of FoodManager
+     * have worked.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        final FoodManager foodManager = FoodManager.get(this);
+        AsyncFoodManager.get(this).write(null, new Callable<Void>() {
+            @Override
+            public Void call() {
+                foodManager.checkpointInBackground();
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "Cache stats: " + foodManager.getCacheStats());
+                }
+                return null;
+            }
+        }, null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Turns a photo from the camera upright and scales it down in the background, right after it
+ * has been taken, so the full size file is never stored with a food item. The processed photo
+ * replaces the photo only if the photo has not been changed, moved or deleted while it was
+ * processed, for example by the user clearing the fields or rotating the screen. A photo that is
+ * already upright and small enough is left as it is, so a photo is not encoded twice.
+ * Code that moves the photo should wait for the processing with runAfterProcessing() first.
+ */
+public class PhotoProcessor {
+    private static final String TAG = "PhotoProcessor";
+    public static final int MAX_EDGE = 1600; // px
+    public static final int QUALITY = 85;
+    private static PhotoProcessor sPhotoProcessor = null;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, TAG);
+                }
+            });
+    private final int mMaxEdge;
+    private final int mQuality;
+
+    public static synchronized PhotoProcessor get() {
+        if (sPhotoProcessor == null) {
+            sPhotoProcessor = new PhotoProcessor(MAX_EDGE, QUALITY);
+        }
+        return sPhotoProcessor;
+    }
+
+    /**
+     * @param maxEdge the longest edge a processed photo may have, in pixels.
+     * @param quality the JPEG quality of processed photos, from 0 to 100.
+     */
+    public PhotoProcessor(int maxEdge, int quality) {
+        mMaxEdge = maxEdge;
+        mQuality = quality;
+    }
+
+    /**
+     * Processes a photo in the background.
+     * @param photoFile the photo file.
+     * @param callback  called on the main thread when the photo has been processed, with false
+     *                  if the photo could not be processed or was changed meanwhile. May be null.
+     */
+    public void process(final File photoFile,
+                             final AsyncFoodManager.Callback<Boolean> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean processed = processPhoto(photoFile);
+                if (callback != null) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onResult(processed);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs code on the main thread once the photos that are being processed are done, without
+     * blocking a thread meanwhile. If no photo is being processed, the code is only posted.
+     * @param runnable the code to run.
+     */
+    public void runAfterProcessing(final Runnable runnable) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMainHandler.post(runnable);
+            }
+        });
+    }
+
+    /**
+     * Writes the processed photo next to the photo, and renames it over the photo if the photo
+     * has the same length and modification time as before. Runs on the processor thread.
+     */
+    private boolean processPhoto(File photoFile) {
+        long length = photoFile.length();
+        long lastModified = photoFile.lastModified();
+        if (length == 0) {
+            return false;
+        }
+        if (PictureUtils.isScaled(photoFile.getPath(), mMaxEdge)) {
+            return true;
+        }
+        long start = SystemClock.uptimeMillis();
+        File processed = new File(photoFile.getPath() + ".processed");
+        if (!PictureUtils.saveScaledBitmap(photoFile, processed, mMaxEdge, mQuality)) {
+            return false;
+        }
+        if (photoFile.length() != length || photoFile.lastModified() != lastModified ||
+                !processed.renameTo(photoFile)) {
+            processed.delete();
+            return false;
+        }
+        Log.i(TAG, "Processed a photo of " + length / 1024 + " kB to " +
+                photoFile.length() / 1024 + " kB in " + (SystemClock.uptimeMillis() - start) +
+                " ms");
+        return true;
+    }
+}
@@ -3,7 +3,16 @@ package com.antergy.whatsinmyfreezer;
 import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
 import android.graphics.Point;
+import android.media.ExifInterface;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * Code borrowed from the book Android Programming, 2nd edition, page 302.
@@ -12,38 +21,270 @@ import android.graphics.Point;
  * what the application needs and is resized to save memory space. This class rescales the image to
  * be as large as the screen size of the phone. As different phones has different screen sizes, this
  * is a simple way of making the picture "large" enough for the application.
+ * Photos from the camera are also stored upright and scaled down with saveScaledBitmap(), so they
+ * are not decoded from the full size file every time they are shown.
  */
 public class PictureUtils {
+    private static final String TAG = "PictureUtils";
+
+    /**
+     * Decodes a photo scaled to fit inside a size, keeping its aspect ratio. The photo is
+     * subsampled by the decoder with the largest power of two that keeps it at least as large as
+     * the fitted size, and the sampled bitmap is then scaled to the fitted size. The sampled
+     * bitmap is decoded into a bitmap from the BitmapPool, and is given back to the pool after
+     * the scaled copy has been made. Photos smaller than the size are not scaled up.
+     * @param path       the path of the photo file.
+     * @param destWidth  the width to fit the photo in, in pixels.
+     * @param destHeight the height to fit the photo in, in pixels.
+     * @return the scaled bitmap, null if the photo can not be decoded.
+     */
     public static Bitmap getScaledBitmap(String path, int destWidth, int destHeight) {
+        BitmapFactory.Options bounds = decodeBounds(path);
+        if (bounds == null) {
+            return null;
+        }
+        float scale = calculateFitScale(bounds.outWidth, bounds.outHeight, destWidth, destHeight);
+        int width = Math.max(1, Math.round(bounds.outWidth * scale));
+        int height = Math.max(1, Math.round(bounds.outHeight * scale));
+
+        Bitmap sampled = decodeSampled(path, bounds, width, height);
+        if (sampled == null || (sampled.getWidth() == width && sampled.getHeight() == height)) {
+            return sampled;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled, width, height, true);
+        if (scaled != sampled) {
+            BitmapPool.get().put(sampled);
+        }
+        return scaled;
+    }
+
+    /**
+     * Decodes a photo subsampled with the largest power of two that keeps it at least as large as
+     * a size in both dimensions, without scaling it further. It is used where the caller crops
+     * or scales the bitmap itself. The bitmap is decoded into a bitmap from the BitmapPool, and
+     * the caller should put it back in the pool when it is done with it.
+     * @param path      the path of the photo file.
+     * @param minWidth  the smallest width the bitmap may have, in pixels.
+     * @param minHeight the smallest height the bitmap may have, in pixels.
+     * @return the sampled bitmap, null if the photo can not be decoded.
+     */
+    public static Bitmap getSampledBitmap(String path, int minWidth, int minHeight) {
+        BitmapFactory.Options bounds = decodeBounds(path);
+        if (bounds == null) {
+            return null;
+        }
+        return decodeSampled(path, bounds, minWidth, minHeight);
+    }
+
+    /**
+     * Calculates the largest power of two a photo can be subsampled with and still be at least
+     * a size in both dimensions. The decoder only subsamples by powers of two, and rounds other
+     * values down.
+     * @param srcWidth  the width of the photo, in pixels.
+     * @param srcHeight the height of the photo, in pixels.
+     * @param minWidth  the smallest width the sampled photo may have, in pixels.
+     * @param minHeight the smallest height the sampled photo may have, in pixels.
+     * @return the sample size, 1 if the photo is not larger than the size.
+     */
+    static int calculateInSampleSize(int srcWidth, int srcHeight, int minWidth, int minHeight) {
+        int sampleSize = 1;
+        if (minWidth <= 0 || minHeight <= 0) {
+            return sampleSize;
+        }
+        while (srcWidth / (sampleSize * 2) >= minWidth &&
+                srcHeight / (sampleSize * 2) >= minHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Calculates the factor that scales a photo to fit inside a size, keeping its aspect ratio.
+     * @param srcWidth   the width of the photo, in pixels.
+     * @param srcHeight  the height of the photo, in pixels.
+     * @param destWidth  the width to fit the photo in, in pixels.
+     * @param destHeight the height to fit the photo in, in pixels.
+     * @return the factor, never more than 1 so photos are not scaled up.
+     */
+    static float calculateFitScale(int srcWidth, int srcHeight, int destWidth, int destHeight) {
+        if (srcWidth <= 0 || srcHeight <= 0 || destWidth <= 0 || destHeight <= 0) {
+            return 1;
+        }
+        float scale = Math.min((float) destWidth / srcWidth, (float) destHeight / srcHeight);
+        return Math.min(1, scale);
+    }
+
+    /**
+     * Reads the size of a photo without decoding it.
+     * @return the options holding the size, null if the file is not a photo.
+     */
+    private static BitmapFactory.Options decodeBounds(String path) {
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(path, options);
-
-        float srcWidth = options.outWidth;
-        float srcHeight = options.outHeight;
-
-        int inSampleSize = 1;
-        if (srcHeight > destHeight || srcWidth > destWidth) {
-            if (srcWidth > srcHeight) {
-                inSampleSize = Math.round(srcHeight / destHeight);
-            } else {
-                inSampleSize = Math.round(srcWidth / destWidth);
-            }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
         }
+        return options;
+    }
 
-        options = new BitmapFactory.Options();
-        options.inSampleSize = inSampleSize;
+    /**
+     * Decodes a photo subsampled to at least a size into a pooled bitmap. If the pooled bitmap
+     * can not be decoded into, it is put back in the pool and the photo is decoded into a new
+     * bitmap instead.
+     */
+    private static Bitmap decodeSampled(String path, BitmapFactory.Options bounds, int minWidth,
+                                        int minHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calculateInSampleSize(bounds.outWidth, bounds.outHeight,
+                minWidth, minHeight);
+        options.inMutable = true;
+        // The decoder rounds the sampled size up
+        int width = (bounds.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (bounds.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = BitmapPool.get().get(width, height, options.inPreferredConfig);
 
-        return BitmapFactory.decodeFile(path, options);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Could not decode " + path + " into a pooled bitmap", e);
+            // The pooled bitmap was not decoded into, so it can be used for another size
+            BitmapPool.get().put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(path, options);
+        }
+        if (bitmap == null && options.inBitmap != null) {
+            BitmapPool.get().put(options.inBitmap);
+        }
+        return bitmap;
     }
 
     public static Bitmap getScaledBitmap(String path, Activity activity) {
+        Point size = getDisplaySize(activity);
+        return getScaledBitmap(path, size.x, size.y);
+    }
+
+    /**
+     * Gets the size of the display in pixels, which is the size photos are scaled to.
+     */
+    public static Point getDisplaySize(Activity activity) {
         Point size = new Point();
         activity.getWindowManager().getDefaultDisplay().getSize(size);
-        return getScaledBitmap(path, size.x, size.y);
+        return size;
     }
 
-    public static void saveScaledBitmap() {
+    /**
+     * Writes a copy of a photo that is turned upright and scaled down, for storing instead of
+     * the photo from the camera. The EXIF orientation of the photo is applied to the pixels, the
+     * photo is scaled to fit its longest edge within a size, and it is encoded as a JPEG. The
+     * copy is written to a temporary file that is renamed when it is complete, so the
+     * destination is either the old file or the whole copy.
+     * @param source      the photo file.
+     * @param destination the file to write the copy to. It may not be the source.
+     * @param maxEdge     the longest edge the copy may have, in pixels.
+     * @param quality     the JPEG quality, from 0 to 100.
+     * @return true if the copy was written.
+     */
+    public static boolean saveScaledBitmap(File source, File destination, int maxEdge,
+                                           int quality) {
+        int orientation = readOrientation(source.getPath());
+        Bitmap bitmap = getScaledBitmap(source.getPath(), maxEdge, maxEdge);
+        if (bitmap == null) {
+            return false;
+        }
+        Matrix matrix = getOrientationMatrix(orientation);
+        if (matrix != null) {
+            Bitmap upright = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
+                    bitmap.getHeight(), matrix, true);
+            if (upright != bitmap) {
+                BitmapPool.get().put(bitmap);
+            }
+            bitmap = upright;
+        }
 
+        File temp = new File(destination.getPath() + ".tmp");
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out)) {
+                    throw new IOException("Could not encode " + source);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(destination)) {
+                throw new IOException("Could not rename " + temp + " to " + destination);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + destination, e);
+            temp.delete();
+            return false;
+        } finally {
+            BitmapPool.get().put(bitmap);
+        }
+    }
+
+    /**
+     * Tells if a photo is already upright and within a size, so saveScaledBitmap() would only
+     * encode it again.
+     * @param path    the path of the photo file.
+     * @param maxEdge the longest edge the photo may have, in pixels.
+     */
+    public static boolean isScaled(String path, int maxEdge) {
+        BitmapFactory.Options bounds = decodeBounds(path);
+        return bounds != null && Math.max(bounds.outWidth, bounds.outHeight) <= maxEdge &&
+                getOrientationMatrix(readOrientation(path)) == null;
+    }
+
+    /**
+     * Reads the EXIF orientation of a photo.
+     * @return the orientation, ORIENTATION_NORMAL if the photo has none or can not be read.
+     */
+    private static int readOrientation(String path) {
+        try {
+            return new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the orientation of " + path, e);
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Creates the matrix that turns a photo with an EXIF orientation upright.
+     * @return the matrix, null if the photo is already upright.
+     */
+    private static Matrix getOrientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(-90);
+                break;
+            default:
+                return null;
+        }
+        return matrix;
     }
 }
@@ -0,0 +1,291 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes quantity changes to the database behind the screens that make them. A change is first
+ * appended to a QuantityJournal on the journal thread, and then added to the pending changes,
+ * where all changes of a food item are summed into one. The pending changes are written on the
+ * writer thread in one transaction, a short while after the last change was journaled or as soon
+ * as the journal has caught up when flush() is called.
+ * The transaction also stores the sequence number of the last journal entry it contains, and the
+ * journal is emptied after it. When the queue is created, the journal entries after the stored
+ * sequence number are written before any new change, so changes that were journaled but not
+ * written when the process was killed are not lost, and are never written twice.
+ */
+class QuantityWriteQueue {
+    private static final String TAG = "QuantityWriteQueue";
+    private static final String JOURNAL_FILE = "quantity_journal.bin";
+    private static final long FLUSH_DELAY_MS = 2000;
+    private static QuantityWriteQueue sQueue = null;
+    private final FoodManager mFoodManager;
+    private final AsyncFoodManager mAsyncFoodManager;
+    private final QuantityJournal mJournal;
+    // Opens, reads and appends to the journal, in the order the changes are made
+    private final ExecutorService mJournalExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "QuantityJournal");
+                }
+            });
+    // Changes that have not been journaled yet, by food id
+    private final Map<Integer, Integer> mQueued = new HashMap<>();
+    // Journaled changes that have not been written yet, by food id
+    private final Map<Integer, Integer> mPending = new LinkedHashMap<>();
+    // The sequence number of the last journal entry in the pending changes
+    private long mPendingSequence = FoodManager.NO_SEQUENCE;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private volatile boolean mJournalOpen;
+
+    public static synchronized QuantityWriteQueue get(Context context) {
+        if (sQueue == null) {
+            sQueue = new QuantityWriteQueue(context);
+        }
+        return sQueue;
+    }
+
+    /**
+     * Creates the queue and replays its journal. The journal is opened and read on the journal
+     * thread. The replay is requested on the writer thread at once, so it is written before any
+     * new change, and waits there until the journal has been read.
+     */
+    private QuantityWriteQueue(Context context) {
+        mFoodManager = FoodManager.get(context);
+        mAsyncFoodManager = AsyncFoodManager.get(context);
+        mJournal = new QuantityJournal(new File(context.getFilesDir(), JOURNAL_FILE));
+        final Future<List<QuantityJournal.Entry>> opened = mJournalExecutor.submit(
+                new Callable<List<QuantityJournal.Entry>>() {
+                    @Override
+                    public List<QuantityJournal.Entry> call() {
+                        return openJournal();
+                    }
+                });
+        mAsyncFoodManager.write(null, new Callable<Void>() {
+            @Override
+            public Void call() {
+                List<QuantityJournal.Entry> entries = await(opened);
+                if (entries != null && !entries.isEmpty()) {
+                    replay(entries);
+                }
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Changes the quantity of a food item. The change is synced to the journal on the journal
+     * thread, and is written to the database a while after that. A food item whose quantity
+     * becomes zero or less is deleted together with its photo.
+     * @param foodId the id of the food item.
+     * @param delta  the number to add to the quantity. Negative numbers reduce the quantity.
+     */
+    public void adjust(final int foodId, final int delta) {
+        if (delta == 0) {
+            return;
+        }
+        synchronized (this) {
+            QuantityJournal.add(mQueued, foodId, delta);
+        }
+        mJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                journal(foodId, delta);
+            }
+        });
+    }
+
+    /**
+     * Returns the sum of the changes of a food item that have not yet been written.
+     */
+    public synchronized int getPendingDelta(int foodId) {
+        Integer queued = mQueued.get(foodId);
+        Integer pending = mPending.get(foodId);
+        return (queued == null ? 0 : queued) + (pending == null ? 0 : pending);
+    }
+
+    /**
+     * Writes the pending changes on the writer thread, including the changes that are still
+     * being journaled. Queries requested after this see the changes, since they wait for earlier
+     * writes.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        // Runs after the changes that have been made so far are journaled
+        final Future<?> journaled = mJournalExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        mAsyncFoodManager.write(null, new Callable<Void>() {
+            @Override
+            public Void call() {
+                await(journaled);
+                writePending();
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Opens the journal and reads its entries. Runs on the journal thread.
+     * @return the entries, null if the journal could not be opened.
+     */
+    private List<QuantityJournal.Entry> openJournal() {
+        try {
+            List<QuantityJournal.Entry> entries = mJournal.open();
+            mJournalOpen = true;
+            return entries;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open the journal, changes are only kept in memory", e);
+            return null;
+        }
+    }
+
+    /**
+     * Appends a change to the journal, moves it to the pending changes and schedules the flush.
+     * Runs on the journal thread, so the change is always journaled before it is written.
+     */
+    private void journal(int foodId, int delta) {
+        long sequence = FoodManager.NO_SEQUENCE;
+        if (mJournalOpen) {
+            try {
+                sequence = mJournal.append(foodId, delta);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not journal the change of food item " + foodId, e);
+            }
+        }
+        synchronized (this) {
+            QuantityJournal.add(mQueued, foodId, -delta);
+            QuantityJournal.add(mPending, foodId, delta);
+            if (sequence != FoodManager.NO_SEQUENCE) {
+                mPendingSequence = sequence;
+            }
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.removeCallbacks(mFlushRunnable);
+                mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+            }
+        });
+    }
+
+    /**
+     * Writes the journal entries that were not applied before the process was stopped. Runs on
+     * the writer thread.
+     */
+    private void replay(List<QuantityJournal.Entry> entries) {
+        long applied = mFoodManager.getAppliedWriteSequence();
+        long last = QuantityJournal.getLastSequence(entries);
+        Map<Integer, Integer> deltas = QuantityJournal.coalesce(entries, applied);
+        if (!deltas.isEmpty()) {
+            Log.i(TAG, "Replaying changes of " + deltas.size() + " food items");
+            write(deltas, last);
+        }
+        compact(last);
+    }
+
+    /**
+     * Writes the pending changes in one transaction. Runs on the writer thread.
+     */
+    private void writePending() {
+        Map<Integer, Integer> deltas;
+        long sequence;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            deltas = new LinkedHashMap<>(mPending);
+            sequence = mPendingSequence;
+            mPending.clear();
+        }
+        try {
+            write(deltas, sequence);
+        } catch (RuntimeException e) {
+            // The changes are kept, both in memory and in the journal, and tried again
+            Log.e(TAG, "Could not write the changes of " + deltas.size() + " food items", e);
+            synchronized (this) {
+                for (Map.Entry<Integer, Integer> delta : deltas.entrySet()) {
+                    QuantityJournal.add(mPending, delta.getKey(), delta.getValue());
+                }
+            }
+            return;
+        }
+        if (sequence != FoodManager.NO_SEQUENCE) {
+            compact(sequence);
+        }
+    }
+
+    /**
+     * Writes summed changes to the database, and deletes the photos and thumbnails of the food
+     * items that were deleted.
+     */
+    private void write(Map<Integer, Integer> deltas, long sequence) {
+        List<Integer> deleted = mFoodManager.adjustQuantities(
+                Collections.unmodifiableMap(deltas), sequence);
+        for (int id : deleted) {
+            mFoodManager.deletePhotoFiles(id);
+        }
+    }
+
+    /**
+     * Empties the journal if no change has been appended after the applied sequence number.
+     */
+    private void compact(long appliedSequence) {
+        if (!mJournalOpen) {
+            return;
+        }
+        try {
+            mJournal.compact(appliedSequence);
+        } catch (IOException e) {
+            // The entries are skipped on replay, since their sequence number is stored
+            Log.w(TAG, "Could not compact the journal", e);
+        }
+    }
+
+    /**
+     * Waits for work on the journal thread. Runs on the writer thread.
+     * @return the result of the work, null if it failed.
+     */
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Journal work failed", e);
+        }
+        return null;
+    }
+}
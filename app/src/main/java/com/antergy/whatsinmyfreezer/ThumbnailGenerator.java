@@ -0,0 +1,200 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes a small square thumbnail next to the photo of a food item, so the lists can show the
+ * photos without decoding the full size files. A thumbnail is generated when a photo is saved,
+ * and backfill() generates the thumbnails of photos that were saved before thumbnails existed.
+ * The work is done on a background priority thread of its own. The backfill generates one
+ * thumbnail at a time and queues the next after it, so the thumbnail of a photo that is saved
+ * while the backfill runs does not wait for all of it.
+ */
+public class ThumbnailGenerator {
+    private static final String TAG = "ThumbnailGenerator";
+    public static final int THUMBNAIL_SIZE = 160; // px
+    private static final int THUMBNAIL_QUALITY = 80;
+    private static final Pattern PHOTO_NAME = Pattern.compile("IMG_(\\d+)\\.jpg");
+    private static ThumbnailGenerator sThumbnailGenerator = null;
+    private final FoodManager mFoodManager;
+    private final ImageLoader mImageLoader;
+    private final BitmapPool mBitmapPool = BitmapPool.get();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, TAG);
+                }
+            });
+
+    public static synchronized ThumbnailGenerator get(Context context) {
+        if (sThumbnailGenerator == null) {
+            sThumbnailGenerator = new ThumbnailGenerator(context);
+        }
+        return sThumbnailGenerator;
+    }
+
+    private ThumbnailGenerator(Context context) {
+        mFoodManager = FoodManager.get(context);
+        mImageLoader = ImageLoader.get(context);
+    }
+
+    /**
+     * Generates the thumbnail of a food item in the background, replacing any earlier one.
+     * Nothing is written if the food item has no photo.
+     * @param foodId the id of the food item.
+     */
+    public void generate(final int foodId) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                generateThumbnail(foodId);
+            }
+        });
+    }
+
+    /**
+     * Generates, in the background, the thumbnails of all photos that have none or that are
+     * newer than their thumbnails.
+     */
+    public void backfill() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Integer> foodIds = findPhotosWithoutThumbnail();
+                if (!foodIds.isEmpty()) {
+                    Log.i(TAG, "Generating thumbnails of " + foodIds.size() + " photos");
+                    backfillNext(foodIds, 0);
+                }
+            }
+        });
+    }
+
+    /**
+     * Generates one thumbnail of the backfill, and queues the next one.
+     */
+    private void backfillNext(final List<Integer> foodIds, final int index) {
+        generateThumbnail(foodIds.get(index));
+        if (index + 1 < foodIds.size()) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    backfillNext(foodIds, index + 1);
+                }
+            });
+        } else {
+            Log.i(TAG, "Generated thumbnails of " + foodIds.size() + " photos, " +
+                    mBitmapPool.getReport());
+        }
+    }
+
+    /**
+     * Lists the ids of the food items whose photos need a thumbnail.
+     */
+    private List<Integer> findPhotosWithoutThumbnail() {
+        List<Integer> foodIds = new ArrayList<>();
+        File directory = mFoodManager.getPhotoDirectory();
+        File[] files = directory != null ? directory.listFiles() : null;
+        if (files == null) {
+            return foodIds;
+        }
+        for (File file : files) {
+            Matcher matcher = PHOTO_NAME.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+            int foodId;
+            try {
+                foodId = Integer.parseInt(matcher.group(1));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            File thumbnail = new File(directory, Food.getThumbnailFilename(foodId));
+            if (thumbnail.lastModified() < file.lastModified()) {
+                foodIds.add(foodId);
+            }
+        }
+        return foodIds;
+    }
+
+    /**
+     * Scales and crops the photo of a food item to a thumbnail, and writes it. The thumbnail is
+     * written to a temporary file that is renamed when it is complete, so the list never reads
+     * half a file. Runs on the thumbnail thread.
+     */
+    private void generateThumbnail(int foodId) {
+        File photoFile = mFoodManager.getPhotoFile(Food.getPhotoFilename(foodId));
+        File thumbnailFile = mFoodManager.getThumbnailFile(foodId);
+        if (photoFile == null || thumbnailFile == null || !photoFile.exists()) {
+            return;
+        }
+        Bitmap photo = PictureUtils.getSampledBitmap(photoFile.getPath(), THUMBNAIL_SIZE,
+                THUMBNAIL_SIZE);
+        if (photo == null) {
+            Log.w(TAG, "Could not decode " + photoFile);
+            return;
+        }
+        Bitmap thumbnail = cropToSquare(photo, THUMBNAIL_SIZE);
+        if (thumbnail != photo) {
+            mBitmapPool.put(photo);
+        }
+        File temp = new File(thumbnailFile.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(thumbnailFile)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + thumbnailFile, e);
+            temp.delete();
+        } finally {
+            mBitmapPool.put(thumbnail);
+        }
+        mImageLoader.evictThumbnail(thumbnailFile);
+    }
+
+    /**
+     * Crops the middle square of a bitmap and scales it to a size. Intermediate bitmaps are put
+     * in the pool.
+     * @param bitmap the bitmap.
+     * @param size   the width and height of the square, in pixels.
+     */
+    private static Bitmap cropToSquare(Bitmap bitmap, int size) {
+        int side = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        Bitmap square = Bitmap.createBitmap(bitmap, (bitmap.getWidth() - side) / 2,
+                (bitmap.getHeight() - side) / 2, side, side);
+        if (side == size) {
+            return square;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(square, size, size, true);
+        if (square != bitmap && square != scaled) {
+            BitmapPool.get().put(square);
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,488 @@
+package com.antergy.whatsinmyfreezer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v7.widget.AppCompatImageView;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An image view that can be zoomed into a photo by pinching or double tapping, and panned by
+ * dragging. The view shows the drawable it is given, usually a screen sized bitmap from
+ * ImageLoader, until the photo is zoomed. When zoomed, the drawable is drawn scaled up underneath
+ * and the visible part of the photo is decoded at the zoom level in square tiles with
+ * BitmapRegionDecoder, so the full photo is never decoded. The region decoder is only opened
+ * when the user starts to zoom. Tiles are decoded on a background thread, tiles that have
+ * scrolled out of view before their turn are skipped, and decoded tiles are kept in the memory
+ * cache of ImageLoader, so zooming shares its budget instead of adding a cache of its own.
+ * Drawing only draws bitmaps that are already decoded.
+ * A view that is too small to zoom in, such as the photo of a food item, is given an
+ * OnZoomListener, which is told when the user starts to zoom instead, so it can show the photo
+ * full screen. A tap on the view is a click.
+ */
+public class TiledPhotoView extends AppCompatImageView {
+    private static final String TAG = "TiledPhotoView";
+    private static final int TILE_SIZE = 256; // px, decoded
+    private static final float MAX_SCALE = 2f; // view px per photo px
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+    private static final ExecutorService sTileDecoder = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, TAG);
+                }
+            });
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ImageLoader mImageLoader;
+    private final Set<Long> mPendingTiles = new HashSet<>();
+    private final Set<Long> mVisibleTiles = new HashSet<>();
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mDestination = new RectF();
+    private File mFile;
+    private BitmapRegionDecoder mDecoder;
+    private boolean mOpeningDecoder;
+    private OnZoomListener mOnZoomListener;
+    private int mGeneration;
+    private int mImageWidth;
+    private int mImageHeight;
+    private float mMinScale;
+    private float mScale;
+    private float mTranslateX;
+    private float mTranslateY;
+    // The zoom the user asked for while the region decoder was opened, and where
+    private float mPendingZoom = 1;
+    private float mPendingFocusX;
+    private float mPendingFocusY;
+
+    /**
+     * Is told when the user starts to zoom into a photo, instead of the view zooming itself.
+     */
+    public interface OnZoomListener {
+        void onZoom(TiledPhotoView view);
+    }
+
+    public TiledPhotoView(Context context) {
+        this(context, null);
+    }
+
+    public TiledPhotoView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mImageLoader = ImageLoader.get(context);
+        mScaleDetector = new ScaleGestureDetector(context,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScaleBegin(ScaleGestureDetector detector) {
+                        return startZoom();
+                    }
+
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        if (mDecoder == null) {
+                            mPendingZoom *= detector.getScaleFactor();
+                            mPendingFocusX = detector.getFocusX();
+                            mPendingFocusY = detector.getFocusY();
+                        } else {
+                            zoomTo(mScale * detector.getScaleFactor(), detector.getFocusX(),
+                                    detector.getFocusY());
+                        }
+                        return true;
+                    }
+                });
+        mGestureDetector = new GestureDetector(context,
+                new GestureDetector.SimpleOnGestureListener() {
+                    @Override
+                    public boolean onDown(MotionEvent event) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onScroll(MotionEvent first, MotionEvent event,
+                                            float distanceX, float distanceY) {
+                        if (isZoomed() && !mScaleDetector.isInProgress()) {
+                            mTranslateX -= distanceX;
+                            mTranslateY -= distanceY;
+                            clampTranslation();
+                            invalidate();
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onSingleTapConfirmed(MotionEvent event) {
+                        performClick();
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onDoubleTap(MotionEvent event) {
+                        if (isZoomed()) {
+                            zoomTo(mMinScale, event.getX(), event.getY());
+                        } else if (startZoom()) {
+                            if (mDecoder == null) {
+                                mPendingZoom = DOUBLE_TAP_ZOOM;
+                                mPendingFocusX = event.getX();
+                                mPendingFocusY = event.getY();
+                            } else {
+                                zoomTo(mMinScale * DOUBLE_TAP_ZOOM, event.getX(), event.getY());
+                            }
+                        }
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Sets the listener that is told when the user starts to zoom. While a listener is set, the
+     * view does not zoom itself.
+     * @param listener the listener, null to zoom in the view.
+     */
+    public void setOnZoomListener(OnZoomListener listener) {
+        mOnZoomListener = listener;
+    }
+
+    /**
+     * Sets the photo that can be zoomed into. The drawable of the view should be set to a scaled
+     * copy of the same photo, for example with ImageLoader. The region decoder is opened in the
+     * background when the user starts to zoom.
+     * @param file the photo file, null to stop zooming.
+     */
+    public void setPhotoFile(File file) {
+        if (file == null ? mFile == null : file.equals(mFile)) {
+            return;
+        }
+        release();
+        mFile = file;
+    }
+
+    /**
+     * Tells the listener that the user starts to zoom, or opens the region decoder in the
+     * background if it is not open yet.
+     * @return true if the view zooms itself.
+     */
+    private boolean startZoom() {
+        if (mOnZoomListener != null) {
+            mOnZoomListener.onZoom(this);
+            return false;
+        }
+        if (mDecoder != null || mOpeningDecoder) {
+            return true;
+        }
+        mOpeningDecoder = true;
+        final File file = mFile;
+        final int generation = mGeneration;
+        sTileDecoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                BitmapRegionDecoder decoder = null;
+                try {
+                    decoder = BitmapRegionDecoder.newInstance(file.getPath(), false);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not open " + file, e);
+                }
+                final BitmapRegionDecoder result = decoder;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDecoderOpened(result, generation);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        release();
+        mFile = null;
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        resetZoom();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mFile == null) {
+            return super.onTouchEvent(event);
+        }
+        mScaleDetector.onTouchEvent(event);
+        mGestureDetector.onTouchEvent(event);
+        // Panning a zoomed photo should not scroll the screen
+        if (getParent() != null) {
+            getParent().requestDisallowInterceptTouchEvent(isZoomed());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    /**
+     * Draws the drawable as an image view does, unless the photo is zoomed. A zoomed photo is
+     * drawn as the drawable scaled up, with the decoded tiles of the visible part on top of it.
+     * Tiles that are not decoded yet are queued.
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (!isZoomed()) {
+            super.onDraw(canvas);
+            return;
+        }
+        Drawable drawable = getDrawable();
+        if (drawable != null && drawable.getIntrinsicWidth() > 0 &&
+                drawable.getIntrinsicHeight() > 0) {
+            canvas.save();
+            canvas.translate(mTranslateX, mTranslateY);
+            canvas.scale(mScale * mImageWidth / drawable.getIntrinsicWidth(),
+                    mScale * mImageHeight / drawable.getIntrinsicHeight());
+            drawable.setBounds(0, 0, drawable.getIntrinsicWidth(),
+                    drawable.getIntrinsicHeight());
+            drawable.draw(canvas);
+            canvas.restore();
+        }
+
+        int sampleSize = getSampleSize(mScale);
+        int tileSize = TILE_SIZE * sampleSize;
+        int firstColumn = (int) Math.max(0, -mTranslateX / mScale / tileSize);
+        int firstRow = (int) Math.max(0, -mTranslateY / mScale / tileSize);
+        int lastColumn = (int) Math.min((mImageWidth - 1) / tileSize,
+                (getWidth() - mTranslateX) / mScale / tileSize);
+        int lastRow = (int) Math.min((mImageHeight - 1) / tileSize,
+                (getHeight() - mTranslateY) / mScale / tileSize);
+
+        synchronized (mVisibleTiles) {
+            mVisibleTiles.clear();
+            for (int row = firstRow; row <= lastRow; ++row) {
+                for (int column = firstColumn; column <= lastColumn; ++column) {
+                    mVisibleTiles.add(getTileKey(sampleSize, column, row));
+                }
+            }
+        }
+        for (int row = firstRow; row <= lastRow; ++row) {
+            for (int column = firstColumn; column <= lastColumn; ++column) {
+                long key = getTileKey(sampleSize, column, row);
+                Bitmap tile = mImageLoader.getTile(mFile, key);
+                if (tile == null) {
+                    requestTile(key, sampleSize, column, row);
+                    continue;
+                }
+                float left = column * tileSize;
+                float top = row * tileSize;
+                mDestination.set(left * mScale + mTranslateX, top * mScale + mTranslateY,
+                        Math.min(left + tileSize, mImageWidth) * mScale + mTranslateX,
+                        Math.min(top + tileSize, mImageHeight) * mScale + mTranslateY);
+                canvas.drawBitmap(tile, null, mDestination, mPaint);
+            }
+        }
+    }
+
+    /**
+     * Takes the opened region decoder into use, unless another photo has been set since, and
+     * zooms as the user asked while it was opened.
+     */
+    private void onDecoderOpened(final BitmapRegionDecoder decoder, int generation) {
+        if (generation != mGeneration) {
+            if (decoder != null) {
+                recycle(decoder);
+            }
+            return;
+        }
+        mOpeningDecoder = false;
+        if (decoder == null) {
+            mPendingZoom = 1;
+            return;
+        }
+        mDecoder = decoder;
+        mImageWidth = decoder.getWidth();
+        mImageHeight = decoder.getHeight();
+        resetZoom();
+        if (mPendingZoom > 1) {
+            zoomTo(mMinScale * mPendingZoom, mPendingFocusX, mPendingFocusY);
+        }
+        mPendingZoom = 1;
+    }
+
+    /**
+     * Queues the decoding of a tile, unless it is already queued. The tile is skipped if it is
+     * no longer visible when the decoder gets to it.
+     */
+    private void requestTile(final long key, final int sampleSize, int column, int row) {
+        if (mPendingTiles.contains(key)) {
+            return;
+        }
+        mPendingTiles.add(key);
+        int tileSize = TILE_SIZE * sampleSize;
+        final Rect region = new Rect(column * tileSize, row * tileSize,
+                Math.min((column + 1) * tileSize, mImageWidth),
+                Math.min((row + 1) * tileSize, mImageHeight));
+        final BitmapRegionDecoder decoder = mDecoder;
+        final File file = mFile;
+        final int generation = mGeneration;
+        sTileDecoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap tile = null;
+                boolean visible;
+                synchronized (mVisibleTiles) {
+                    visible = mVisibleTiles.contains(key);
+                }
+                if (visible && !decoder.isRecycled()) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = sampleSize;
+                    // Photos have no transparency
+                    options.inPreferredConfig = Bitmap.Config.RGB_565;
+                    tile = decoder.decodeRegion(region, options);
+                }
+                final Bitmap result = tile;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mPendingTiles.remove(key);
+                        if (result != null) {
+                            mImageLoader.putTile(file, key, result);
+                            invalidate();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Closes the region decoder once the queued tiles have been skipped. The decoded tiles stay
+     * in the memory cache of ImageLoader until it needs the room.
+     */
+    private void release() {
+        mGeneration++;
+        mOpeningDecoder = false;
+        mPendingZoom = 1;
+        mPendingTiles.clear();
+        synchronized (mVisibleTiles) {
+            mVisibleTiles.clear();
+        }
+        if (mDecoder != null) {
+            recycle(mDecoder);
+            mDecoder = null;
+        }
+        mImageWidth = 0;
+        mImageHeight = 0;
+        resetZoom();
+    }
+
+    private static void recycle(final BitmapRegionDecoder decoder) {
+        sTileDecoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                decoder.recycle();
+            }
+        });
+    }
+
+    /**
+     * Fits the whole photo in the view, centered.
+     */
+    private void resetZoom() {
+        if (mImageWidth == 0 || mImageHeight == 0 || getWidth() == 0 || getHeight() == 0) {
+            mMinScale = 0;
+            mScale = 0;
+            invalidate();
+            return;
+        }
+        mMinScale = Math.min((float) getWidth() / mImageWidth,
+                (float) getHeight() / mImageHeight);
+        mScale = mMinScale;
+        clampTranslation();
+        invalidate();
+    }
+
+    /**
+     * Zooms around a point of the view, keeping the point of the photo under it in place.
+     */
+    private void zoomTo(float scale, float focusX, float focusY) {
+        if (mMinScale == 0) {
+            return;
+        }
+        float newScale = Math.max(mMinScale, Math.min(scale, Math.max(MAX_SCALE, mMinScale)));
+        mTranslateX = focusX - (focusX - mTranslateX) * newScale / mScale;
+        mTranslateY = focusY - (focusY - mTranslateY) * newScale / mScale;
+        mScale = newScale;
+        clampTranslation();
+        invalidate();
+    }
+
+    /**
+     * Keeps the photo covering the view, or centered in a direction where it is smaller.
+     */
+    private void clampTranslation() {
+        float width = mImageWidth * mScale;
+        float height = mImageHeight * mScale;
+        if (width <= getWidth()) {
+            mTranslateX = (getWidth() - width) / 2;
+        } else {
+            mTranslateX = Math.max(getWidth() - width, Math.min(0, mTranslateX));
+        }
+        if (height <= getHeight()) {
+            mTranslateY = (getHeight() - height) / 2;
+        } else {
+            mTranslateY = Math.max(getHeight() - height, Math.min(0, mTranslateY));
+        }
+    }
+
+    private boolean isZoomed() {
+        return mDecoder != null && mScale > mMinScale * 1.01f;
+    }
+
+    /**
+     * Returns the largest power of two to subsample the photo with at a zoom level, without
+     * showing fewer photo pixels than view pixels.
+     */
+    private static int getSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static long getTileKey(int sampleSize, int column, int row) {
+        return ((long) sampleSize << 48) | ((long) column << 24) | row;
+    }
+}
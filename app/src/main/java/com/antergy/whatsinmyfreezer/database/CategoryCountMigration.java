@@ -0,0 +1,19 @@
+package com.antergy.whatsinmyfreezer.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Version 5. Adds the number of food items and their total quantity to every category, and the
+ * triggers that keep them up to date. The counts are computed once from the category index of the
+ * food table, so the migration reads each food item once.
+ */
+class CategoryCountMigration extends Migration {
+    CategoryCountMigration() {
+        super(5);
+    }
+
+    @Override
+    public void upgrade(SQLiteDatabase db) {
+        FoodBaseHelper.createCategoryCounts(db);
+    }
+}
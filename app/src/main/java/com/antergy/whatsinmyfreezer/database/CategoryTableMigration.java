@@ -0,0 +1,149 @@
+package com.antergy.whatsinmyfreezer.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseIntArray;
+
+import com.antergy.whatsinmyfreezer.CategoryManager;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.CategoryTable;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodTable;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.MigrationTable;
+
+/**
+ * Version 4. Moves the categories into a table of their own, and makes the food table refer to
+ * them by id instead of repeating the name in every row. SQLite can not change the type of a
+ * column, so the food table is rebuilt. Food items with the same key are merged while they are
+ * copied, which also does the work of the older chunked migrations, so they are removed if they
+ * have not finished yet.
+ * When the database is opened, the old food table is only renamed and an empty food table with
+ * the new schema takes its place, so the later migrations and the application can use the new
+ * schema right away. The food items are copied over in chunks in the background, and the old
+ * table is dropped when all of them have been copied. Until then the food items that have not
+ * been copied yet are missing from the lists.
+ * The categories stored in the preferences of older versions are imported by FoodBaseHelper.
+ */
+class CategoryTableMigration extends Migration {
+    private static final String FOOD_OLD = "food_old";
+
+    CategoryTableMigration() {
+        super(4);
+    }
+
+    @Override
+    public void upgrade(SQLiteDatabase db) {
+        FoodBaseHelper.createCategoryTable(db);
+        db.execSQL("insert into " + CategoryTable.CATEGORY + " (" + CategoryTable.Cols.NAME +
+                ") values (?)", new Object[] {CategoryManager.VALUE_NO_CATEGORY});
+
+        // Indexes keep their names when their table is renamed, so they are dropped first
+        db.execSQL("drop index if exists " + KeyIndexMigration.LOOKUP_INDEX);
+        db.execSQL("drop index if exists " + FoodTable.KEY_INDEX);
+        db.execSQL("drop index if exists " + FoodTable.NAME_INDEX);
+        db.execSQL("drop index if exists " + FoodTable.BRAND_INDEX);
+        db.execSQL("drop index if exists " + FoodTable.CATEGORY_NAME_INDEX);
+        db.execSQL("drop index if exists " + FoodTable.CATEGORY_BRAND_INDEX);
+        db.execSQL("alter table " + FoodTable.FOOD + " rename to " + FOOD_OLD);
+
+        FoodBaseHelper.createFoodTable(db, FoodTable.FOOD);
+        // Keep the id sequence, so new food items do not get the ids of the ones being copied
+        db.execSQL("insert into sqlite_sequence (name, seq)" +
+                " select '" + FoodTable.FOOD + "', seq from sqlite_sequence" +
+                " where name = '" + FOOD_OLD + "'");
+        FoodBaseHelper.createKeyIndex(db);
+        FoodBaseHelper.createListIndexes(db);
+        FoodBaseHelper.createFoodView(db);
+        db.delete(MigrationTable.MIGRATION, MigrationTable.Cols.VERSION + " < ?",
+                new String[] {Integer.toString(getVersion())});
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    /**
+     * Copies the food items of the chunk into the new food table, with the id of their category.
+     * A food item with the key of a food item that is already in the new table is merged into it
+     * instead, which is the food item with the lowest id unless the user has added it since the
+     * upgrade.
+     */
+    @Override
+    public long migrateChunk(SQLiteDatabase db, long afterId, int chunkSize,
+                             SparseIntArray merged) {
+        long lastId = KeyIndexMigration.lastIdOfChunk(db, FOOD_OLD, afterId, chunkSize);
+        if (lastId == DONE) {
+            return DONE;
+        }
+        Object[] args = new Object[] {CategoryManager.VALUE_NO_CATEGORY, afterId, lastId};
+        String category = "coalesce(o." + FoodTable.Cols.CATEGORY + ", ?)";
+        String inChunk = " where o." + FoodTable.Cols.FOOD_ID + " > ?" +
+                " and o." + FoodTable.Cols.FOOD_ID + " <= ?";
+
+        db.execSQL("insert or ignore into " + CategoryTable.CATEGORY + " (" +
+                        CategoryTable.Cols.NAME + ")" +
+                        " select distinct " + category + " from " + FOOD_OLD + " o" + inChunk,
+                args
+        );
+        db.execSQL("insert or ignore into " + FoodTable.FOOD + " (" +
+                        FoodTable.Cols.FOOD_ID + ", " +
+                        FoodTable.Cols.NAME + ", " +
+                        FoodTable.Cols.QUANTITY + ", " +
+                        FoodTable.Cols.AMOUNT + ", " +
+                        FoodTable.Cols.BRAND + ", " +
+                        FoodTable.Cols.CATEGORY_ID + ")" +
+                        " select o." + FoodTable.Cols.FOOD_ID + ", o." + FoodTable.Cols.NAME +
+                        ", o." + FoodTable.Cols.QUANTITY +
+                        ", coalesce(o." + FoodTable.Cols.AMOUNT + ", '')" +
+                        ", coalesce(o." + FoodTable.Cols.BRAND + ", '')" +
+                        ", c." + CategoryTable.Cols.CATEGORY_ID +
+                        " from " + FOOD_OLD + " o join " + CategoryTable.CATEGORY + " c" +
+                        " on c." + CategoryTable.Cols.NAME + " = " + category + inChunk +
+                        " order by o." + FoodTable.Cols.FOOD_ID,
+                args
+        );
+
+        // The food items that were ignored have the key of another food item in the new table
+        Cursor cursor = db.rawQuery("select o." + FoodTable.Cols.FOOD_ID + ", o." +
+                        FoodTable.Cols.QUANTITY + ", f." + FoodTable.Cols.FOOD_ID +
+                        " from " + FOOD_OLD + " o join " + CategoryTable.CATEGORY + " c" +
+                        " on c." + CategoryTable.Cols.NAME + " = " + category +
+                        " join " + FoodTable.FOOD + " f" +
+                        " on f." + FoodTable.Cols.NAME + " = o." + FoodTable.Cols.NAME +
+                        " and f." + FoodTable.Cols.AMOUNT +
+                        " = coalesce(o." + FoodTable.Cols.AMOUNT + ", '')" +
+                        " and f." + FoodTable.Cols.BRAND +
+                        " = coalesce(o." + FoodTable.Cols.BRAND + ", '')" +
+                        " and f." + FoodTable.Cols.CATEGORY_ID +
+                        " = c." + CategoryTable.Cols.CATEGORY_ID + inChunk +
+                        " and f." + FoodTable.Cols.FOOD_ID + " != o." + FoodTable.Cols.FOOD_ID,
+                new String[] {CategoryManager.VALUE_NO_CATEGORY, Long.toString(afterId),
+                        Long.toString(lastId)}
+        );
+
+        SQLiteStatement add = db.compileStatement("update " + FoodTable.FOOD +
+                " set " + FoodTable.Cols.QUANTITY + " = " + FoodTable.Cols.QUANTITY + " + ?, " +
+                FoodTable.Cols.VERSION + " = " + FoodTable.Cols.VERSION + " + 1" +
+                " where " + FoodTable.Cols.FOOD_ID + " = ?");
+        try {
+            while (cursor.moveToNext()) {
+                add.bindLong(1, cursor.getLong(1));
+                add.bindLong(2, cursor.getLong(2));
+                add.executeUpdateDelete();
+                merged.put(cursor.getInt(0), cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+            add.close();
+        }
+        return lastId;
+    }
+
+    /**
+     * Drops the old food table, now that all of its food items have been copied.
+     */
+    @Override
+    public void finish(SQLiteDatabase db) {
+        db.execSQL("drop table " + FOOD_OLD);
+    }
+}
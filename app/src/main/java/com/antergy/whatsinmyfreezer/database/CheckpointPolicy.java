@@ -0,0 +1,33 @@
+package com.antergy.whatsinmyfreezer.database;
+
+/**
+ * Decides when the write-ahead log of the database is copied back into the database file. SQLite
+ * does this automatically when the log has grown past a number of pages. The application can also
+ * do it when it goes to the background, so the log is small when the user returns and reads do
+ * not have to look through it.
+ */
+public class CheckpointPolicy {
+    public static final CheckpointPolicy DEFAULT = new CheckpointPolicy(1000, true);
+
+    private final int mAutoCheckpointPages;
+    private final boolean mCheckpointInBackground;
+
+    /**
+     * @param autoCheckpointPages    the size of the log, in pages, that makes SQLite checkpoint
+     *                               it after a commit. 0 turns automatic checkpoints off.
+     * @param checkpointInBackground true if the log should be checkpointed when the application
+     *                               goes to the background.
+     */
+    public CheckpointPolicy(int autoCheckpointPages, boolean checkpointInBackground) {
+        mAutoCheckpointPages = autoCheckpointPages;
+        mCheckpointInBackground = checkpointInBackground;
+    }
+
+    public int getAutoCheckpointPages() {
+        return mAutoCheckpointPages;
+    }
+
+    public boolean isCheckpointInBackground() {
+        return mCheckpointInBackground;
+    }
+}
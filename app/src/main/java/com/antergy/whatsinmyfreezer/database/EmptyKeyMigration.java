@@ -0,0 +1,92 @@
+package com.antergy.whatsinmyfreezer.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseIntArray;
+
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodTable;
+
+/**
+ * Version 9. Stores a missing amount or brand as an empty string instead of null. The unique key
+ * index treats every null as different, so food items with a null amount or brand could be stored
+ * twice. A food item that gets the key of an existing food item is merged into it.
+ * Until the migration is finished a food item with a null amount or brand can still be stored
+ * twice, but new food items are always written with empty strings.
+ */
+class EmptyKeyMigration extends Migration {
+    private static final String HAS_NULL = "(" + FoodTable.Cols.AMOUNT + " is null or " +
+            FoodTable.Cols.BRAND + " is null)";
+
+    EmptyKeyMigration() {
+        super(9);
+    }
+
+    @Override
+    public void upgrade(SQLiteDatabase db) {
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    /**
+     * Replaces the nulls in the chunk with empty strings. The rows that would then get the key of
+     * another row are left unchanged by the update, and are merged into that row instead.
+     */
+    @Override
+    public long migrateChunk(SQLiteDatabase db, long afterId, int chunkSize,
+                             SparseIntArray merged) {
+        long lastId = KeyIndexMigration.lastIdOfChunk(db, afterId, chunkSize);
+        if (lastId == DONE) {
+            return DONE;
+        }
+        String[] range = new String[] {Long.toString(afterId), Long.toString(lastId)};
+        db.execSQL("update or ignore " + FoodTable.FOOD + " set " +
+                        FoodTable.Cols.AMOUNT + " = coalesce(" + FoodTable.Cols.AMOUNT + ", ''), " +
+                        FoodTable.Cols.BRAND + " = coalesce(" + FoodTable.Cols.BRAND + ", '')" +
+                        " where " + FoodTable.Cols.FOOD_ID + " > ?" +
+                        " and " + FoodTable.Cols.FOOD_ID + " <= ? and " + HAS_NULL,
+                range
+        );
+
+        Cursor cursor = db.rawQuery("select f." + FoodTable.Cols.FOOD_ID + ", f." +
+                        FoodTable.Cols.QUANTITY + ", k." + FoodTable.Cols.FOOD_ID +
+                        " from " + FoodTable.FOOD + " f join " + FoodTable.FOOD + " k" +
+                        " on k." + FoodTable.Cols.NAME + " = f." + FoodTable.Cols.NAME +
+                        " and k." + FoodTable.Cols.AMOUNT +
+                        " = coalesce(f." + FoodTable.Cols.AMOUNT + ", '')" +
+                        " and k." + FoodTable.Cols.BRAND +
+                        " = coalesce(f." + FoodTable.Cols.BRAND + ", '')" +
+                        " and k." + FoodTable.Cols.CATEGORY_ID + " = f." + FoodTable.Cols.CATEGORY_ID +
+                        " where f." + FoodTable.Cols.FOOD_ID + " > ?" +
+                        " and f." + FoodTable.Cols.FOOD_ID + " <= ?" +
+                        " and (f." + FoodTable.Cols.AMOUNT + " is null or f." +
+                        FoodTable.Cols.BRAND + " is null)",
+                range
+        );
+
+        SQLiteStatement add = db.compileStatement("update " + FoodTable.FOOD +
+                " set " + FoodTable.Cols.QUANTITY + " = " + FoodTable.Cols.QUANTITY + " + ?, " +
+                FoodTable.Cols.VERSION + " = " + FoodTable.Cols.VERSION + " + 1" +
+                " where " + FoodTable.Cols.FOOD_ID + " = ?");
+        SQLiteStatement delete = db.compileStatement("delete from " + FoodTable.FOOD +
+                " where " + FoodTable.Cols.FOOD_ID + " = ?");
+        try {
+            while (cursor.moveToNext()) {
+                add.bindLong(1, cursor.getLong(1));
+                add.bindLong(2, cursor.getLong(2));
+                add.executeUpdateDelete();
+                delete.bindLong(1, cursor.getLong(0));
+                delete.executeUpdateDelete();
+                merged.put(cursor.getInt(0), cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+            add.close();
+            delete.close();
+        }
+        return lastId;
+    }
+}
@@ -1,36 +1,430 @@
 package com.antergy.whatsinmyfreezer.database;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
+import com.antergy.whatsinmyfreezer.CategoryManager;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.CategoryTable;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodSearchTable;
 import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodTable;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.MigrationTable;
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.WriteJournalTable;
+
+import java.util.Map;
 
 /**
  * Helper class for creating the SQLite database associated with this application.
+ * The database is opened in write-ahead-log mode by default. Writes then go to a separate log
+ * file, so queries on other connections keep reading while a write transaction is open.
+ * A database of an older version is upgraded by running the registered migrations in version
+ * order. To change the schema, add a Migration to MIGRATIONS and make onCreate() create the new
+ * schema directly.
  */
 public class FoodBaseHelper extends SQLiteOpenHelper {
-    private static final int VERSION = 1;
-    private static final String DATABASE_NAME = "foodBase.db";
+    private static final Migration[] MIGRATIONS = {
+            new KeyIndexMigration(),
+            new ListIndexMigration(),
+            new CategoryTableMigration(),
+            new CategoryCountMigration(),
+            new FoodSearchMigration(),
+            new WriteJournalMigration(),
+            new RowVersionMigration(),
+            new EmptyKeyMigration()
+    };
+    private static final int VERSION = 9;
+    public static final String DATABASE_NAME = "foodBase.db";
+    // Where the categories were stored before version 4
+    private static final String CATEGORY_PREFERENCES = "_CATEGORY_PREFERENCES";
+    private final Context mContext;
+    private final CheckpointPolicy mCheckpointPolicy;
 
     public FoodBaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    public FoodBaseHelper(Context context, String databaseName) {
+        this(context, databaseName, CheckpointPolicy.DEFAULT);
+    }
+
+    /**
+     * Creates a helper for a specific database.
+     * @param databaseName     the name of the database file.
+     * @param checkpointPolicy the checkpoint policy of the write-ahead log, null to open the
+     *                         database in rollback journal mode instead.
+     */
+    public FoodBaseHelper(Context context, String databaseName, CheckpointPolicy checkpointPolicy) {
+        super(context, databaseName, null, VERSION);
+        mContext = context.getApplicationContext();
+        mCheckpointPolicy = checkpointPolicy;
+        setWriteAheadLoggingEnabled(checkpointPolicy != null);
+    }
+
+    /**
+     * Sets the automatic checkpoint size of the write-ahead log. Only the primary connection
+     * writes, so it is the only connection that needs it. A query outside of a transaction can
+     * run on any connection of the pool, so the pragma is run inside a transaction, which always
+     * uses the primary connection.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (mCheckpointPolicy != null && db.isWriteAheadLoggingEnabled()) {
+            db.beginTransactionNonExclusive();
+            try {
+                pragma(db, "wal_autocheckpoint = " + mCheckpointPolicy.getAutoCheckpointPages());
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Gets the checkpoint policy of the database, null if it does not use write-ahead logging.
+     */
+    public CheckpointPolicy getCheckpointPolicy() {
+        return mCheckpointPolicy;
+    }
+
+    /**
+     * Copies the write-ahead log back into the database file, without waiting for readers.
+     * @param db the database to checkpoint.
+     */
+    public static void checkpoint(SQLiteDatabase db) {
+        if (db.isWriteAheadLoggingEnabled()) {
+            pragma(db, "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    /**
+     * Runs a pragma. Pragmas that return a row can not be run with execSQL().
+     */
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("pragma " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase dB) {
-        dB.execSQL("create table " + FoodTable.FOOD + "(" +
+        createCategoryTable(dB);
+        createFoodTable(dB, FoodTable.FOOD);
+        createCategoryCounts(dB);
+        ContentValues values = new ContentValues();
+        values.put(CategoryTable.Cols.NAME, CategoryManager.VALUE_NO_CATEGORY);
+        dB.insert(CategoryTable.CATEGORY, null, values);
+        createKeyIndex(dB);
+        createListIndexes(dB);
+        createFoodView(dB);
+        createFoodSearch(dB);
+        createWriteJournalTable(dB);
+        createMigrationTable(dB);
+    }
+
+    /**
+     * Runs the synchronous part of every migration newer than the old version. Chunked
+     * migrations are stored as pending and are run by MigrationRunner once the database is open.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // The migration table itself was added in version 2
+            createMigrationTable(db);
+        }
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getVersion() > oldVersion && migration.getVersion() <= newVersion) {
+                migration.upgrade(db);
+                if (migration.isChunked()) {
+                    MigrationRunner.addPending(db, migration);
+                }
+            }
+        }
+        if (oldVersion < 4) {
+            importCategoryPreferences(db);
+        }
+    }
+
+    /**
+     * Copies the categories that older versions stored in the preferences into the category
+     * table. The preferences are left as they are, so the import can be run again if the upgrade
+     * transaction fails.
+     */
+    private void importCategoryPreferences(SQLiteDatabase db) {
+        SharedPreferences preferences = mContext.getSharedPreferences(
+                CATEGORY_PREFERENCES, Context.MODE_PRIVATE);
+        SQLiteStatement insert = db.compileStatement("insert or ignore into " +
+                CategoryTable.CATEGORY + " (" + CategoryTable.Cols.NAME + ") values (?)");
+        try {
+            for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+                if (entry.getValue() != null &&
+                        !entry.getKey().equalsIgnoreCase(CategoryManager.KEY_NO_CATEGORY)) {
+                    insert.bindString(1, entry.getValue().toString());
+                    insert.executeInsert();
+                }
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Returns the registered migration to a specific version.
+     * @param version the version the migration upgrades to.
+     * @return the migration, null if there is none.
+     */
+    static Migration getMigration(int version) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getVersion() == version) {
+                return migration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the table that stores the categories. The names are unique, so renaming a category
+     * to the name of another one fails instead of creating a second category with the same name.
+     * Food items without a category belong to the category named VALUE_NO_CATEGORY.
+     */
+    static void createCategoryTable(SQLiteDatabase db) {
+        db.execSQL("create table " + CategoryTable.CATEGORY + "(" +
+                CategoryTable.Cols.CATEGORY_ID + " integer primary key autoincrement, " +
+                CategoryTable.Cols.NAME + " text not null unique" +
+                ")"
+        );
+    }
+
+    /**
+     * Creates a table for food items. Every food item refers to its category by id, so a category
+     * is renamed by changing a single row. The version is increased by every write that changes
+     * a food item, and lets a writer detect that a food item changed since it was read.
+     * @param table the name of the table.
+     */
+    static void createFoodTable(SQLiteDatabase db, String table) {
+        db.execSQL("create table " + table + "(" +
                 " _id integer primary key autoincrement, " +
                 FoodTable.Cols.NAME + ", " +
                 FoodTable.Cols.QUANTITY + ", " +
                 FoodTable.Cols.AMOUNT + ", " +
                 FoodTable.Cols.BRAND + ", " +
-                FoodTable.Cols.CATEGORY +
+                FoodTable.Cols.CATEGORY_ID + " integer references " +
+                CategoryTable.CATEGORY + "(" + CategoryTable.Cols.CATEGORY_ID + "), " +
+                FoodTable.Cols.VERSION + " integer not null default 0" +
                 ")"
         );
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    /**
+     * Tells if a table has a column.
+     */
+    static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        Cursor cursor = db.rawQuery("pragma table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameIndex))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds the number of food items and their total quantity to the category table, and creates
+     * the triggers that update them when a food item is inserted, changed or deleted. The
+     * triggers run for every row, so the counts are also right after writes that change many
+     * food items at once. A migration that rebuilds the food table has to create the triggers
+     * again.
+     */
+    static void createCategoryCounts(SQLiteDatabase db) {
+        db.execSQL("alter table " + CategoryTable.CATEGORY + " add column " +
+                CategoryTable.Cols.ITEM_COUNT + " integer not null default 0");
+        db.execSQL("alter table " + CategoryTable.CATEGORY + " add column " +
+                CategoryTable.Cols.TOTAL_QUANTITY + " integer not null default 0");
+        db.execSQL("update " + CategoryTable.CATEGORY + " set " +
+                CategoryTable.Cols.ITEM_COUNT + " = (select count(*) from " + FoodTable.FOOD +
+                " where " + FoodTable.Cols.CATEGORY_ID + " = " + CategoryTable.CATEGORY + "." +
+                CategoryTable.Cols.CATEGORY_ID + "), " +
+                CategoryTable.Cols.TOTAL_QUANTITY + " = (select coalesce(sum(" +
+                FoodTable.Cols.QUANTITY + "), 0) from " + FoodTable.FOOD +
+                " where " + FoodTable.Cols.CATEGORY_ID + " = " + CategoryTable.CATEGORY + "." +
+                CategoryTable.Cols.CATEGORY_ID + ")"
+        );
+
+        db.execSQL("create trigger " + FoodTable.INSERT_TRIGGER +
+                " after insert on " + FoodTable.FOOD + " begin " +
+                addToCategory("new", "+") + "; end"
+        );
+        db.execSQL("create trigger " + FoodTable.UPDATE_TRIGGER +
+                " after update of " + FoodTable.Cols.QUANTITY + ", " + FoodTable.Cols.CATEGORY_ID +
+                " on " + FoodTable.FOOD + " begin " +
+                addToCategory("old", "-") + "; " +
+                addToCategory("new", "+") + "; end"
+        );
+        db.execSQL("create trigger " + FoodTable.DELETE_TRIGGER +
+                " after delete on " + FoodTable.FOOD + " begin " +
+                addToCategory("old", "-") + "; end"
+        );
+    }
+
+    /**
+     * Returns the trigger statement that adds a food item to, or subtracts it from, the counts
+     * of its category.
+     * @param row      the row of the trigger, "new" or "old".
+     * @param operator "+" to add the food item, "-" to subtract it.
+     */
+    private static String addToCategory(String row, String operator) {
+        return "update " + CategoryTable.CATEGORY + " set " +
+                CategoryTable.Cols.ITEM_COUNT + " = " + CategoryTable.Cols.ITEM_COUNT +
+                " " + operator + " 1, " +
+                CategoryTable.Cols.TOTAL_QUANTITY + " = " + CategoryTable.Cols.TOTAL_QUANTITY +
+                " " + operator + " " + row + "." + FoodTable.Cols.QUANTITY +
+                " where " + CategoryTable.Cols.CATEGORY_ID + " = " +
+                row + "." + FoodTable.Cols.CATEGORY_ID;
+    }
+
+    /**
+     * Creates the full-text index over the name and brand of the food items, fills it from the
+     * food table and creates the triggers that keep it in sync. The index uses the food table as
+     * its content, so the text is not stored twice, and has prefix indexes for the short prefixes
+     * typed while searching. A migration that rebuilds the food table has to create the triggers
+     * again.
+     */
+    static void createFoodSearch(SQLiteDatabase db) {
+        db.execSQL("create virtual table " + FoodSearchTable.FOOD_SEARCH + " using fts4(" +
+                FoodSearchTable.Cols.NAME + ", " +
+                FoodSearchTable.Cols.BRAND + ", " +
+                "content=\"" + FoodTable.FOOD + "\", prefix=\"1,2,3\")"
+        );
+        db.execSQL("insert into " + FoodSearchTable.FOOD_SEARCH + "(" +
+                FoodSearchTable.FOOD_SEARCH + ") values ('rebuild')");
+
+        // The old text has to be removed from an external content index before the row changes
+        db.execSQL("create trigger " + FoodSearchTable.INSERT_TRIGGER +
+                " after insert on " + FoodTable.FOOD + " begin " +
+                insertIntoSearch("new") + "; end"
+        );
+        db.execSQL("create trigger " + FoodSearchTable.BEFORE_UPDATE_TRIGGER +
+                " before update of " + FoodTable.Cols.NAME + ", " + FoodTable.Cols.BRAND +
+                " on " + FoodTable.FOOD + " begin " +
+                deleteFromSearch() + "; end"
+        );
+        db.execSQL("create trigger " + FoodSearchTable.AFTER_UPDATE_TRIGGER +
+                " after update of " + FoodTable.Cols.NAME + ", " + FoodTable.Cols.BRAND +
+                " on " + FoodTable.FOOD + " begin " +
+                insertIntoSearch("new") + "; end"
+        );
+        db.execSQL("create trigger " + FoodSearchTable.DELETE_TRIGGER +
+                " before delete on " + FoodTable.FOOD + " begin " +
+                deleteFromSearch() + "; end"
+        );
+    }
+
+    /**
+     * Returns the trigger statement that adds the text of a food item row to the search index.
+     */
+    private static String insertIntoSearch(String row) {
+        return "insert into " + FoodSearchTable.FOOD_SEARCH + "(docid, " +
+                FoodSearchTable.Cols.NAME + ", " + FoodSearchTable.Cols.BRAND + ") values (" +
+                row + "." + FoodTable.Cols.FOOD_ID + ", " +
+                row + "." + FoodTable.Cols.NAME + ", " +
+                row + "." + FoodTable.Cols.BRAND + ")";
+    }
+
+    /**
+     * Returns the trigger statement that removes the old text of a food item from the search
+     * index.
+     */
+    private static String deleteFromSearch() {
+        return "insert into " + FoodSearchTable.FOOD_SEARCH + "(" + FoodSearchTable.FOOD_SEARCH +
+                ", docid, " + FoodSearchTable.Cols.NAME + ", " + FoodSearchTable.Cols.BRAND +
+                ") values ('delete', old." + FoodTable.Cols.FOOD_ID + ", old." +
+                FoodTable.Cols.NAME + ", old." + FoodTable.Cols.BRAND + ")";
+    }
+
+    /**
+     * Creates the view that food items are read from. It has the columns of the food table plus
+     * the name of the category of each food item.
+     */
+    static void createFoodView(SQLiteDatabase db) {
+        db.execSQL("create view " + FoodTable.FOOD_VIEW + " as select" +
+                " f." + FoodTable.Cols.FOOD_ID + " as " + FoodTable.Cols.FOOD_ID +
+                ", f." + FoodTable.Cols.NAME + " as " + FoodTable.Cols.NAME +
+                ", f." + FoodTable.Cols.QUANTITY + " as " + FoodTable.Cols.QUANTITY +
+                ", f." + FoodTable.Cols.AMOUNT + " as " + FoodTable.Cols.AMOUNT +
+                ", f." + FoodTable.Cols.BRAND + " as " + FoodTable.Cols.BRAND +
+                ", f." + FoodTable.Cols.CATEGORY_ID + " as " + FoodTable.Cols.CATEGORY_ID +
+                ", f." + FoodTable.Cols.VERSION + " as " + FoodTable.Cols.VERSION +
+                ", c." + CategoryTable.Cols.NAME + " as " + FoodTable.Cols.CATEGORY +
+                " from " + FoodTable.FOOD + " f left join " + CategoryTable.CATEGORY + " c" +
+                " on c." + CategoryTable.Cols.CATEGORY_ID + " = f." + FoodTable.Cols.CATEGORY_ID
+        );
+    }
+
+    /**
+     * Creates the unique index on the columns that identifies a food item. The index makes the
+     * duplicate check when adding food items an indexed lookup instead of a full table scan, and
+     * lets the database reject a second row with the same key. Every null is different in a
+     * unique index, so a missing amount or brand is stored as an empty string.
+     */
+    static void createKeyIndex(SQLiteDatabase db) {
+        db.execSQL("create unique index " + FoodTable.KEY_INDEX + " on " + FoodTable.FOOD + "(" +
+                FoodTable.Cols.NAME + ", " +
+                FoodTable.Cols.AMOUNT + ", " +
+                FoodTable.Cols.BRAND + ", " +
+                FoodTable.Cols.CATEGORY_ID +
+                ")"
+        );
+    }
+
+    /**
+     * Creates the indexes used for reading the food list one page at a time, sorted by name or
+     * brand, either for all food items or for one category. The rowid is part of every index, so
+     * the indexes also give the order of food items with the same name or brand.
+     */
+    static void createListIndexes(SQLiteDatabase db) {
+        db.execSQL("create index if not exists " + FoodTable.NAME_INDEX + " on " +
+                FoodTable.FOOD + "(" + FoodTable.Cols.NAME + ")");
+        db.execSQL("create index if not exists " + FoodTable.BRAND_INDEX + " on " +
+                FoodTable.FOOD + "(" + FoodTable.Cols.BRAND + ")");
+        db.execSQL("create index if not exists " + FoodTable.CATEGORY_NAME_INDEX + " on " +
+                FoodTable.FOOD + "(" + FoodTable.Cols.CATEGORY_ID + ", " + FoodTable.Cols.NAME + ")");
+        db.execSQL("create index if not exists " + FoodTable.CATEGORY_BRAND_INDEX + " on " +
+                FoodTable.FOOD + "(" + FoodTable.Cols.CATEGORY_ID + ", " + FoodTable.Cols.BRAND + ")");
+    }
+
+    /**
+     * Creates the table that stores the sequence number of the last write journal entry applied
+     * to the database. It is updated in the same transaction as the write, so an entry that is
+     * replayed after a crash can be recognized as already applied.
+     */
+    static void createWriteJournalTable(SQLiteDatabase db) {
+        db.execSQL("create table " + WriteJournalTable.WRITE_JOURNAL + "(" +
+                WriteJournalTable.Cols.ROW_ID + " integer primary key, " +
+                WriteJournalTable.Cols.APPLIED_SEQUENCE + " integer not null" +
+                ")"
+        );
+    }
+
+    /**
+     * Creates the table that keeps track of the chunked migrations that have not yet finished.
+     */
+    private static void createMigrationTable(SQLiteDatabase db) {
+        db.execSQL("create table " + MigrationTable.MIGRATION + "(" +
+                MigrationTable.Cols.VERSION + " integer primary key, " +
+                MigrationTable.Cols.LAST_ID + " integer" +
+                ")"
+        );
     }
 }
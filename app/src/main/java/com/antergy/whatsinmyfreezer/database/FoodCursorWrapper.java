@@ -4,6 +4,7 @@ import android.database.Cursor;
 import android.database.CursorWrapper;
 
 import com.antergy.whatsinmyfreezer.Food;
+import com.antergy.whatsinmyfreezer.FoodSnapshot;
 
 import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodTable;
 
@@ -11,20 +12,110 @@ import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodTable;
 /**
  * A wrapper class for the database when retrieving a food item from the database. Makes it more
  * secure to use a wrapper.
+ * The column indices are looked up once when the wrapper is created, instead of once per column
+ * and row. The cursor only has to contain the columns of its projection. Columns that are not in
+ * it are read as null, or 0 for numbers.
  */
 public class FoodCursorWrapper extends CursorWrapper {
+    /**
+     * Selects only the id, for callers that check if food items exist or need their ids.
+     */
+    public static final String[] ID_PROJECTION = {
+            FoodTable.Cols.FOOD_ID
+    };
+
+    /**
+     * Selects the columns a row of the food list binds, and the id the rows are told apart by.
+     * The version is left out, so food items read with it have version 0 and can not be used
+     * for updateFood(). Should be used on the food view, since the category name is not in the
+     * food table.
+     */
+    public static final String[] LIST_PROJECTION = {
+            FoodTable.Cols.FOOD_ID,
+            FoodTable.Cols.NAME,
+            FoodTable.Cols.QUANTITY,
+            FoodTable.Cols.AMOUNT,
+            FoodTable.Cols.BRAND,
+            FoodTable.Cols.CATEGORY
+    };
+
+    /**
+     * Selects all the columns of a Food object, including the version. Should be used on the
+     * food view, since the category name is not in the food table.
+     */
+    public static final String[] FOOD_PROJECTION = {
+            FoodTable.Cols.FOOD_ID,
+            FoodTable.Cols.NAME,
+            FoodTable.Cols.QUANTITY,
+            FoodTable.Cols.AMOUNT,
+            FoodTable.Cols.BRAND,
+            FoodTable.Cols.CATEGORY,
+            FoodTable.Cols.VERSION
+    };
+
+    /**
+     * Selects all columns. Only needed when the cursor is used for more than reading Food objects.
+     */
+    public static final String[] FULL_PROJECTION = null;
+
+    private final int mIdIndex;
+    private final int mNameIndex;
+    private final int mQuantityIndex;
+    private final int mAmountIndex;
+    private final int mBrandIndex;
+    private final int mCategoryIndex;
+    private final int mVersionIndex;
+
     public FoodCursorWrapper(Cursor cursor) {
         super(cursor);
+        mIdIndex = cursor.getColumnIndex(FoodTable.Cols.FOOD_ID);
+        mNameIndex = cursor.getColumnIndex(FoodTable.Cols.NAME);
+        mQuantityIndex = cursor.getColumnIndex(FoodTable.Cols.QUANTITY);
+        mAmountIndex = cursor.getColumnIndex(FoodTable.Cols.AMOUNT);
+        mBrandIndex = cursor.getColumnIndex(FoodTable.Cols.BRAND);
+        mCategoryIndex = cursor.getColumnIndex(FoodTable.Cols.CATEGORY);
+        mVersionIndex = cursor.getColumnIndex(FoodTable.Cols.VERSION);
+    }
+
+    /**
+     * Returns the id of the food item in the current row.
+     */
+    public int getFoodId() {
+        return readInt(mIdIndex);
     }
 
+    /**
+     * Returns the food item in the current row. Only the columns in the projection of the cursor
+     * are read.
+     */
     public Food getFood() {
-        String name = getString(getColumnIndex(FoodTable.Cols.NAME));
-        int quantity = getInt(getColumnIndex(FoodTable.Cols.QUANTITY));
-        String amount = getString(getColumnIndex(FoodTable.Cols.AMOUNT));
-        String brand = getString(getColumnIndex(FoodTable.Cols.BRAND));
-        int foodId = getInt(getColumnIndex(FoodTable.Cols.FOOD_ID));
-        String category = getString(getColumnIndex(FoodTable.Cols.CATEGORY));
-
-        return new Food(name, quantity, amount, brand, foodId, category);
+        String name = readString(mNameIndex);
+        int quantity = readInt(mQuantityIndex);
+        String amount = readString(mAmountIndex);
+        String brand = readString(mBrandIndex);
+        int foodId = readInt(mIdIndex);
+        String category = readString(mCategoryIndex);
+
+        Food food = new Food(name, quantity, amount, brand, foodId, category);
+        food.setVersion(readInt(mVersionIndex));
+        return food;
+    }
+
+    /**
+     * Adds the food item in the current row to a snapshot, without creating a Food object.
+     * @param builder the snapshot to add the row to.
+     */
+    public void addTo(FoodSnapshot.Builder builder) {
+        builder.add(readInt(mIdIndex), readString(mNameIndex), readInt(mQuantityIndex),
+                readString(mAmountIndex), readString(mBrandIndex), readString(mCategoryIndex),
+                readInt(mVersionIndex));
+    }
+
+    private String readString(int columnIndex) {
+        return columnIndex == -1 ? null : getString(columnIndex);
+    }
+
+    private int readInt(int columnIndex) {
+        return columnIndex == -1 ? 0 : getInt(columnIndex);
     }
 }
@@ -7,6 +7,15 @@ package com.antergy.whatsinmyfreezer.database;
 public class FoodDbSchema {
     public static final class FoodTable {
         public static final String FOOD = "food";
+        public static final String FOOD_VIEW = "food_view";
+        public static final String KEY_INDEX = "food_key_index";
+        public static final String NAME_INDEX = "food_name_index";
+        public static final String BRAND_INDEX = "food_brand_index";
+        public static final String CATEGORY_NAME_INDEX = "food_category_name_index";
+        public static final String CATEGORY_BRAND_INDEX = "food_category_brand_index";
+        public static final String INSERT_TRIGGER = "food_insert_trigger";
+        public static final String UPDATE_TRIGGER = "food_update_trigger";
+        public static final String DELETE_TRIGGER = "food_delete_trigger";
 
         public static final class Cols {
             public static final String NAME = "name";
@@ -14,7 +23,55 @@ public class FoodDbSchema {
             public static final String AMOUNT = "amount";
             public static final String BRAND = "brand";
             public static final String FOOD_ID = "_id";
+            public static final String CATEGORY_ID = "category_id";
+            // Increased by every write that changes the row
+            public static final String VERSION = "version";
+            // Only in FOOD_VIEW, where it is the name of the category of the food item
             public static final String CATEGORY = "category";
         }
     }
+
+    public static final class FoodSearchTable {
+        public static final String FOOD_SEARCH = "food_search";
+        public static final String INSERT_TRIGGER = "food_search_insert_trigger";
+        public static final String BEFORE_UPDATE_TRIGGER = "food_search_before_update_trigger";
+        public static final String AFTER_UPDATE_TRIGGER = "food_search_after_update_trigger";
+        public static final String DELETE_TRIGGER = "food_search_delete_trigger";
+
+        public static final class Cols {
+            public static final String NAME = "name";
+            public static final String BRAND = "brand";
+        }
+    }
+
+    public static final class CategoryTable {
+        public static final String CATEGORY = "category";
+
+        public static final class Cols {
+            public static final String CATEGORY_ID = "_id";
+            public static final String NAME = "name";
+            public static final String ITEM_COUNT = "item_count";
+            public static final String TOTAL_QUANTITY = "total_quantity";
+        }
+    }
+
+    public static final class WriteJournalTable {
+        public static final String WRITE_JOURNAL = "write_journal";
+        // The table has one row, with this id
+        public static final int ROW_ID = 1;
+
+        public static final class Cols {
+            public static final String ROW_ID = "_id";
+            public static final String APPLIED_SEQUENCE = "applied_sequence";
+        }
+    }
+
+    public static final class MigrationTable {
+        public static final String MIGRATION = "migration";
+
+        public static final class Cols {
+            public static final String VERSION = "version";
+            public static final String LAST_ID = "last_id";
+        }
+    }
 }
@@ -0,0 +1,18 @@
+package com.antergy.whatsinmyfreezer.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Version 6. Adds the full-text index over the names and brands of the food items. The index is
+ * built from the food table in one pass, and the triggers keep it in sync from then on.
+ */
+class FoodSearchMigration extends Migration {
+    FoodSearchMigration() {
+        super(6);
+    }
+
+    @Override
+    public void upgrade(SQLiteDatabase db) {
+        FoodBaseHelper.createFoodSearch(db);
+    }
+}
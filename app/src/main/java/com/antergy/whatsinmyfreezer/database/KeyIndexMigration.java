@@ -0,0 +1,134 @@
+package com.antergy.whatsinmyfreezer.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseIntArray;
+
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodTable;
+
+/**
+ * Version 2. Merges food items with the same name, amount, brand and category, which older
+ * versions could store when two categories were merged, and then creates the unique key index.
+ * Until the migration is finished food items can still be stored twice, but every duplicate has a
+ * larger id than the food item it duplicates and is merged when its chunk is migrated. The merged
+ * food items are reported to MigrationRunner, so their photos are not left behind.
+ * It works on the food table of version 3 and older, so it is removed by CategoryTableMigration
+ * if it is still pending when the database is upgraded to version 4.
+ */
+class KeyIndexMigration extends Migration {
+    static final String LOOKUP_INDEX = "food_key_lookup";
+
+    KeyIndexMigration() {
+        super(2);
+    }
+
+    @Override
+    public void upgrade(SQLiteDatabase db) {
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    /**
+     * Merges the food items in the chunk into the food item with the lowest id and the same key.
+     * A non-unique index on the key columns is used to find the food item to merge into.
+     */
+    @Override
+    public long migrateChunk(SQLiteDatabase db, long afterId, int chunkSize,
+                             SparseIntArray merged) {
+        db.execSQL("create index if not exists " + LOOKUP_INDEX + " on " + FoodTable.FOOD + "(" +
+                FoodTable.Cols.NAME + ", " +
+                FoodTable.Cols.AMOUNT + ", " +
+                FoodTable.Cols.BRAND + ", " +
+                FoodTable.Cols.CATEGORY +
+                ")"
+        );
+
+        long lastId = lastIdOfChunk(db, afterId, chunkSize);
+        if (lastId == DONE) {
+            return DONE;
+        }
+
+        Cursor cursor = db.rawQuery("select " + FoodTable.Cols.FOOD_ID + ", " +
+                        FoodTable.Cols.QUANTITY + ", keep from (" +
+                        "select f." + FoodTable.Cols.FOOD_ID + ", f." + FoodTable.Cols.QUANTITY + "," +
+                        " (select min(k." + FoodTable.Cols.FOOD_ID + ") from " + FoodTable.FOOD + " k" +
+                        " where k." + FoodTable.Cols.NAME + " = f." + FoodTable.Cols.NAME +
+                        " and k." + FoodTable.Cols.AMOUNT + " = f." + FoodTable.Cols.AMOUNT +
+                        " and k." + FoodTable.Cols.BRAND + " = f." + FoodTable.Cols.BRAND +
+                        " and k." + FoodTable.Cols.CATEGORY + " = f." + FoodTable.Cols.CATEGORY +
+                        ") as keep from " + FoodTable.FOOD + " f" +
+                        " where f." + FoodTable.Cols.FOOD_ID + " > ?" +
+                        " and f." + FoodTable.Cols.FOOD_ID + " <= ?)" +
+                        " where keep < " + FoodTable.Cols.FOOD_ID,
+                new String[] {Long.toString(afterId), Long.toString(lastId)}
+        );
+
+        SQLiteStatement add = db.compileStatement("update " + FoodTable.FOOD +
+                " set " + FoodTable.Cols.QUANTITY + " = " + FoodTable.Cols.QUANTITY + " + ?" +
+                " where " + FoodTable.Cols.FOOD_ID + " = ?");
+        SQLiteStatement delete = db.compileStatement("delete from " + FoodTable.FOOD +
+                " where " + FoodTable.Cols.FOOD_ID + " = ?");
+        try {
+            while (cursor.moveToNext()) {
+                add.bindLong(1, cursor.getLong(1));
+                add.bindLong(2, cursor.getLong(2));
+                add.executeUpdateDelete();
+                delete.bindLong(1, cursor.getLong(0));
+                delete.executeUpdateDelete();
+                merged.put(cursor.getInt(0), cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+            add.close();
+            delete.close();
+        }
+        return lastId;
+    }
+
+    /**
+     * Replaces the lookup index with the unique key index.
+     */
+    @Override
+    public void finish(SQLiteDatabase db) {
+        db.execSQL("drop index if exists " + LOOKUP_INDEX);
+        FoodBaseHelper.createKeyIndex(db);
+    }
+
+    /**
+     * Finds the id of the last row of a chunk of the food table.
+     * @param afterId   the id of the row before the chunk.
+     * @param chunkSize the maximum number of rows in the chunk.
+     * @return the id of the last row in the chunk, or DONE if there are no rows after afterId.
+     */
+    static long lastIdOfChunk(SQLiteDatabase db, long afterId, int chunkSize) {
+        return lastIdOfChunk(db, FoodTable.FOOD, afterId, chunkSize);
+    }
+
+    /**
+     * Finds the id of the last row of a chunk of a table with food items.
+     * @param table     the table.
+     * @param afterId   the id of the row before the chunk.
+     * @param chunkSize the maximum number of rows in the chunk.
+     * @return the id of the last row in the chunk, or DONE if there are no rows after afterId.
+     */
+    static long lastIdOfChunk(SQLiteDatabase db, String table, long afterId, int chunkSize) {
+        Cursor cursor = db.rawQuery("select max(" + FoodTable.Cols.FOOD_ID + ") from (" +
+                        "select " + FoodTable.Cols.FOOD_ID + " from " + table +
+                        " where " + FoodTable.Cols.FOOD_ID + " > ?" +
+                        " order by " + FoodTable.Cols.FOOD_ID + " limit ?)",
+                new String[] {Long.toString(afterId), Integer.toString(chunkSize)}
+        );
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return DONE;
+            }
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
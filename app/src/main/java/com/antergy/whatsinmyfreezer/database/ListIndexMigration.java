@@ -0,0 +1,28 @@
+package com.antergy.whatsinmyfreezer.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Version 3. Adds the indexes used for reading the food list one page at a time. Building the
+ * indexes reads the whole food table, so it is done in the background. Until it is finished the
+ * pages are read without the indexes, which is slower but gives the same result.
+ */
+class ListIndexMigration extends Migration {
+    ListIndexMigration() {
+        super(3);
+    }
+
+    @Override
+    public void upgrade(SQLiteDatabase db) {
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    @Override
+    public void finish(SQLiteDatabase db) {
+        FoodBaseHelper.createListIndexes(db);
+    }
+}
@@ -0,0 +1,72 @@
+package com.antergy.whatsinmyfreezer.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.SparseIntArray;
+
+/**
+ * A step that upgrades the database from the previous version to the version of the migration.
+ * Every migration has a synchronous part, upgrade(), that is run by FoodBaseHelper when the
+ * database is opened. It should only contain cheap schema changes, since it blocks the thread
+ * that opens the database.
+ * Work that has to touch every row, like rewriting or merging food items, is done by a chunked
+ * migration. It is run by MigrationRunner on a background thread, a bounded number of rows at a
+ * time. Each chunk is committed together with its progress marker, so a migration that is
+ * interrupted by the process being killed continues after the last committed chunk.
+ */
+public abstract class Migration {
+    /**
+     * Returned by migrateChunk() when there are no rows left to migrate.
+     */
+    public static final long DONE = -1;
+
+    private final int mVersion;
+
+    protected Migration(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * Gets the database version this migration upgrades to.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Makes the schema changes of the migration. Called inside the upgrade transaction when the
+     * database is opened.
+     * @param db the database to upgrade.
+     */
+    public abstract void upgrade(SQLiteDatabase db);
+
+    /**
+     * Tells if the migration has row work that should be run in chunks in the background.
+     * @return true if migrateChunk() should be called, false otherwise.
+     */
+    public boolean isChunked() {
+        return false;
+    }
+
+    /**
+     * Migrates the next chunk of rows. Called inside a transaction that also stores the returned
+     * id as the progress of the migration.
+     * @param db        the database to migrate.
+     * @param afterId   the id of the last row migrated, 0 if no rows have been migrated yet.
+     * @param chunkSize the maximum number of rows to migrate.
+     * @param merged    gets the ids of the food items that were merged into another food item,
+     *                  mapped to the id of the food item they were merged into.
+     * @return the id of the last row migrated, or DONE if there were no rows left.
+     */
+    public long migrateChunk(SQLiteDatabase db, long afterId, int chunkSize,
+                             SparseIntArray merged) {
+        return DONE;
+    }
+
+    /**
+     * Completes the migration when all rows have been migrated. Called in the same transaction as
+     * the last call to migrateChunk(), so no rows can be written in between.
+     * @param db the migrated database.
+     */
+    public void finish(SQLiteDatabase db) {
+    }
+}
@@ -0,0 +1,198 @@
+package com.antergy.whatsinmyfreezer.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.MigrationTable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the chunked part of migrations in the background. Pending migrations are stored in the
+ * migration table together with the id of the last migrated row, and are run in version order.
+ * Each chunk is committed in its own transaction and is run as a separate task on the executor
+ * of the writer thread, so writes requested by the user are run in between the chunks instead
+ * of waiting for the whole migration.
+ * Migrations that merge food items report which food items they merged into which, so the
+ * listener can move their photos once the chunk has been committed.
+ * If a chunk fails, its transaction is rolled back, the migrations stop and the listener is told
+ * that they did not complete. The migration stays pending in the migration table, so it is run
+ * again from the last committed chunk the next time the database is opened.
+ */
+public class MigrationRunner implements Runnable {
+    private static final String TAG = "MigrationRunner";
+    private static final int CHUNK_SIZE = 500;
+    private static boolean sRunning = false;
+    private final SQLiteDatabase mDatabase;
+    private final Executor mExecutor;
+    private final Listener mListener;
+
+    /**
+     * Is told about the work of the chunked migrations. Called on the thread of the executor.
+     */
+    public interface Listener {
+        /**
+         * Called after a chunk that merged a food item into another food item with the same key
+         * has been committed.
+         * @param mergedId the id of the food item that was merged and no longer exists.
+         * @param keptId   the id of the food item it was merged into.
+         */
+        void onFoodMerged(int mergedId, int keptId);
+
+        /**
+         * Called when the migrations have stopped running.
+         * @param completed true if all pending migrations have finished, false if they stopped
+         *                  because a chunk failed and are still pending.
+         */
+        void onFinished(boolean completed);
+    }
+
+    private MigrationRunner(SQLiteDatabase database, Executor executor, Listener listener) {
+        mDatabase = database;
+        mExecutor = executor;
+        mListener = listener;
+    }
+
+    /**
+     * Starts running all pending chunked migrations, unless they are already running.
+     * @param database the opened database to migrate.
+     * @param executor the executor the chunks are run on. It should run one task at a time.
+     * @param listener told about merged food items and when the migrations have finished.
+     * @return true if the migrations were started, false if there was nothing to start.
+     */
+    public static synchronized boolean start(SQLiteDatabase database, Executor executor,
+                                             Listener listener) {
+        if (sRunning || !hasPendingMigrations(database)) {
+            return false;
+        }
+        sRunning = true;
+        executor.execute(new MigrationRunner(database, executor, listener));
+        return true;
+    }
+
+    /**
+     * Tells if there are chunked migrations that have not yet finished.
+     */
+    public static boolean hasPendingMigrations(SQLiteDatabase database) {
+        Cursor cursor = database.query(MigrationTable.MIGRATION,
+                new String[] {MigrationTable.Cols.VERSION},
+                null, null, null, null, null, "1");
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stores a chunked migration as pending. Called by FoodBaseHelper in the upgrade transaction.
+     */
+    static void addPending(SQLiteDatabase db, Migration migration) {
+        ContentValues values = new ContentValues();
+        values.put(MigrationTable.Cols.VERSION, migration.getVersion());
+        values.put(MigrationTable.Cols.LAST_ID, 0);
+        db.insert(MigrationTable.MIGRATION, null, values);
+    }
+
+    /**
+     * Migrates one chunk of the pending migration with the lowest version, and schedules the
+     * next chunk if there is more to migrate.
+     */
+    @Override
+    public void run() {
+        boolean more = false;
+        boolean failed = false;
+        try {
+            int version = nextPendingVersion();
+            if (version != -1) {
+                Migration migration = FoodBaseHelper.getMigration(version);
+                if (migration == null) {
+                    // Left behind by a version of the application that had the migration
+                    Log.w(TAG, "Dropping unknown pending migration to version " + version);
+                    mDatabase.delete(MigrationTable.MIGRATION, MigrationTable.Cols.VERSION + " = ?",
+                            new String[] {Integer.toString(version)});
+                } else if (migrateChunk(migration)) {
+                    Log.i(TAG, "Finished migration to version " + version);
+                }
+                more = true;
+            }
+        } catch (RuntimeException e) {
+            // The migration is left pending, and is run again when the database is next opened
+            Log.e(TAG, "Stopped the migrations after a failed chunk", e);
+            more = false;
+            failed = true;
+        } finally {
+            if (more) {
+                mExecutor.execute(this);
+            } else {
+                synchronized (MigrationRunner.class) {
+                    sRunning = false;
+                }
+            }
+        }
+        if (!more) {
+            mListener.onFinished(!failed);
+        }
+    }
+
+    /**
+     * Migrates one chunk and stores the progress in the same transaction. The listener is told
+     * about the merged food items after the transaction has been committed.
+     * @return true if the migration is finished, false if there are more chunks to migrate.
+     */
+    private boolean migrateChunk(Migration migration) {
+        String[] version = new String[] {Integer.toString(migration.getVersion())};
+        SparseIntArray merged = new SparseIntArray();
+        boolean done;
+        mDatabase.beginTransactionNonExclusive();
+        try {
+            long lastId = DatabaseUtils.longForQuery(mDatabase,
+                    "select " + MigrationTable.Cols.LAST_ID +
+                    " from " + MigrationTable.MIGRATION +
+                    " where " + MigrationTable.Cols.VERSION + " = ?",
+                    version);
+            long newLastId = migration.migrateChunk(mDatabase, lastId, CHUNK_SIZE, merged);
+            done = newLastId == Migration.DONE;
+
+            if (done) {
+                migration.finish(mDatabase);
+                mDatabase.delete(MigrationTable.MIGRATION,
+                        MigrationTable.Cols.VERSION + " = ?", version);
+            } else {
+                ContentValues values = new ContentValues();
+                values.put(MigrationTable.Cols.LAST_ID, newLastId);
+                mDatabase.update(MigrationTable.MIGRATION, values,
+                        MigrationTable.Cols.VERSION + " = ?", version);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        for (int i = 0; i < merged.size(); ++i) {
+            mListener.onFoodMerged(merged.keyAt(i), merged.valueAt(i));
+        }
+        return done;
+    }
+
+    /**
+     * Returns the lowest version of the pending migrations, -1 if there are none.
+     */
+    private int nextPendingVersion() {
+        Cursor cursor = mDatabase.query(MigrationTable.MIGRATION,
+                new String[] {MigrationTable.Cols.VERSION},
+                null, null, null, null,
+                MigrationTable.Cols.VERSION, "1");
+        try {
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
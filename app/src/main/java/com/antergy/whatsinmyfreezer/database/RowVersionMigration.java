@@ -0,0 +1,26 @@
+package com.antergy.whatsinmyfreezer.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.antergy.whatsinmyfreezer.database.FoodDbSchema.FoodTable;
+
+/**
+ * Version 8. Adds the version column to the food table, and to the food view. All existing food
+ * items start at version 0. A database upgraded from before version 4 already has the column,
+ * since the food table was rebuilt with the current definition then.
+ */
+class RowVersionMigration extends Migration {
+    RowVersionMigration() {
+        super(8);
+    }
+
+    @Override
+    public void upgrade(SQLiteDatabase db) {
+        if (!FoodBaseHelper.hasColumn(db, FoodTable.FOOD, FoodTable.Cols.VERSION)) {
+            db.execSQL("alter table " + FoodTable.FOOD + " add column " +
+                    FoodTable.Cols.VERSION + " integer not null default 0");
+        }
+        db.execSQL("drop view if exists " + FoodTable.FOOD_VIEW);
+        FoodBaseHelper.createFoodView(db);
+    }
+}
@@ -0,0 +1,18 @@
+package com.antergy.whatsinmyfreezer.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Version 7. Adds the table that remembers which entries of the quantity write journal have been
+ * applied. It starts out empty, which means that no entries have been applied.
+ */
+class WriteJournalMigration extends Migration {
+    WriteJournalMigration() {
+        super(7);
+    }
+
+    @Override
+    public void upgrade(SQLiteDatabase db) {
+        FoodBaseHelper.createWriteJournalTable(db);
+    }
+}
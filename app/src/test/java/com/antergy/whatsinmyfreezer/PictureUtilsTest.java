@@ -0,0 +1,58 @@
+package com.antergy.whatsinmyfreezer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PictureUtilsTest {
+    private static final float DELTA = 0.0001f;
+
+    @Test
+    public void sampleSizeIsOneForSmallerPhotos() {
+        assertEquals(1, PictureUtils.calculateInSampleSize(800, 600, 1080, 1920));
+        assertEquals(1, PictureUtils.calculateInSampleSize(1080, 1920, 1080, 1920));
+    }
+
+    @Test
+    public void sampleSizeIsLargestPowerOfTwoCoveringBothDimensions() {
+        // 4000 / 2 = 2000 >= 1080, but 4000 / 4 = 1000 < 1080
+        assertEquals(2, PictureUtils.calculateInSampleSize(4000, 3000, 1080, 810));
+        // 3000 / 16 = 187 >= 160, but 3000 / 32 = 93 < 160
+        assertEquals(16, PictureUtils.calculateInSampleSize(4000, 3000, 160, 160));
+        assertEquals(4, PictureUtils.calculateInSampleSize(4000, 4000, 1000, 1000));
+    }
+
+    @Test
+    public void sampleSizeIsLimitedByTheTighterDimension() {
+        // The width alone would allow 8, the height only 2
+        assertEquals(2, PictureUtils.calculateInSampleSize(4000, 3000, 500, 1000));
+        assertEquals(2, PictureUtils.calculateInSampleSize(3000, 4000, 1000, 500));
+    }
+
+    @Test
+    public void sampleSizeIsNeverRoundedBelowTheSize() {
+        // Math.round(3000 / 1200f) would give 3, which the decoder rounds down to 2 anyway
+        int sampleSize = PictureUtils.calculateInSampleSize(4000, 3000, 1600, 1200);
+        assertEquals(2, sampleSize);
+        assertTrue(3000 / sampleSize >= 1200);
+    }
+
+    @Test
+    public void sampleSizeIgnoresEmptySizes() {
+        assertEquals(1, PictureUtils.calculateInSampleSize(4000, 3000, 0, 0));
+        assertEquals(1, PictureUtils.calculateInSampleSize(4000, 3000, -1, 100));
+    }
+
+    @Test
+    public void fitScaleKeepsAspectRatioInsideBothDimensions() {
+        assertEquals(0.27f, PictureUtils.calculateFitScale(4000, 3000, 1080, 1920), DELTA);
+        assertEquals(0.36f, PictureUtils.calculateFitScale(3000, 4000, 1920, 1440), DELTA);
+    }
+
+    @Test
+    public void fitScaleNeverScalesUp() {
+        assertEquals(1f, PictureUtils.calculateFitScale(800, 600, 1080, 1920), DELTA);
+        assertEquals(1f, PictureUtils.calculateFitScale(0, 600, 1080, 1920), DELTA);
+    }
+}
@@ -0,0 +1,167 @@
+package com.antergy.whatsinmyfreezer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the operations of FoodRepository on InMemoryFoodRepository, filled with 1k, 10k and
+ * 100k food items spread over a few categories. The inventory mirror of the app keeps its food
+ * items in an InMemoryFoodRepository, so the lookups and the putFood() it applies changes with
+ * are measured as well. Every operation leaves the repository with the same number of food
+ * items, so the size does not drift while a benchmark runs.
+ * Run with ./gradlew :data:jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FoodRepositoryBenchmark {
+    private static final int CATEGORIES = 8;
+
+    @Param({"1000", "10000", "100000"})
+    public int items;
+
+    private InMemoryFoodRepository mRepository;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        mRepository = new InMemoryFoodRepository();
+        for (int i = 0; i < items; ++i) {
+            addFood(mRepository, i);
+        }
+    }
+
+    /**
+     * Adds a food item that already exists, which increases its quantity.
+     */
+    @Benchmark
+    public Food addExistingFood() {
+        return addFood(mRepository, nextItem());
+    }
+
+    /**
+     * Adds a new food item and deletes it again.
+     */
+    @Benchmark
+    public Food addAndDeleteFood() {
+        Food food = mRepository.addFood("New food", 1, "100 g", "Brand", "Category 0");
+        mRepository.deleteFood(food.getId());
+        return food;
+    }
+
+    /**
+     * Looks up a food item by name, amount, brand and category, like the mirror does when a food
+     * item is added.
+     */
+    @Benchmark
+    public Food getFoodByKey() {
+        int item = nextItem();
+        return mRepository.getFood("Food " + item, (item % 5) * 100 + " g", "Brand " + item % 20,
+                "Category " + item % CATEGORIES);
+    }
+
+    @Benchmark
+    public int[] getIds() {
+        return mRepository.getIds("Category " + nextItem() % CATEGORIES);
+    }
+
+    /**
+     * Replaces a food item with a copy that has a higher version, like the mirror does for a
+     * committed update.
+     */
+    @Benchmark
+    public Food putFood() {
+        Food food = mRepository.getFood(1 + nextItem());
+        food.setVersion(food.getVersion() + 1);
+        mRepository.putFood(food);
+        return food;
+    }
+
+    @Benchmark
+    public FoodSnapshot getAll() {
+        return mRepository.getAll();
+    }
+
+    @Benchmark
+    public FoodSnapshot getCategoryList() {
+        return mRepository.getCategoryList("Category " + nextItem() % CATEGORIES);
+    }
+
+    @Benchmark
+    public Food getFood() {
+        return mRepository.getFood(1 + nextItem());
+    }
+
+    /**
+     * Reads a food item and replaces it with another quantity, if it has not changed.
+     */
+    @Benchmark
+    public boolean updateFood() {
+        int id = 1 + nextItem();
+        Food food = mRepository.getFood(id);
+        food.setQuantity(food.getQuantity() + 1);
+        return mRepository.updateFood(id, food);
+    }
+
+    /**
+     * Adds to the quantity of a food item and takes it away again, with the arithmetic done by
+     * the repository.
+     */
+    @Benchmark
+    public Food adjustQuantity() {
+        int id = 1 + nextItem();
+        mRepository.adjustQuantity(id, 1);
+        return mRepository.adjustQuantity(id, -1);
+    }
+
+    /**
+     * Renames a category and renames it back, which moves all its food items twice.
+     */
+    @Benchmark
+    public boolean renameCategory() {
+        String category = "Category " + nextItem() % CATEGORIES;
+        mRepository.renameCategory(category, "Renamed");
+        return mRepository.renameCategory("Renamed", category);
+    }
+
+    /**
+     * Removes all food items of a category from a full repository. The repository is filled
+     * again before every call, which is not measured.
+     */
+    @Benchmark
+    public void removeAllInCategory(FullRepository full) {
+        full.mRepository.removeAllInCategory("Category 0");
+    }
+
+    @State(Scope.Thread)
+    public static class FullRepository {
+        private FoodRepository mRepository;
+
+        @Setup(Level.Invocation)
+        public void fill(FoodRepositoryBenchmark benchmark) {
+            mRepository = new InMemoryFoodRepository();
+            for (int i = 0; i < benchmark.items; ++i) {
+                addFood(mRepository, i);
+            }
+        }
+    }
+
+    private int nextItem() {
+        mNext = (mNext + 7919) % items;
+        return mNext;
+    }
+
+    private static Food addFood(FoodRepository repository, int item) {
+        return repository.addFood("Food " + item, 1, (item % 5) * 100 + " g",
+                "Brand " + item % 20, "Category " + item % CATEGORIES);
+    }
+}
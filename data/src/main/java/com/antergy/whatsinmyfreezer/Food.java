@@ -6,9 +6,12 @@ package com.antergy.whatsinmyfreezer;
  * an amount (always with a specified unit), a category. The quantity of a food item is always at
  * least 1. If food item with the same name, brand, amount and category is added to the freezer as
  * a food item already stored, the two food items will be stored together as one and the quantity
- * will be updated.
+ * will be updated. A food item without an amount or brand has an empty amount or brand, never
+ * null, so it is the same food item whether the amount or brand was given as null or empty.
  * A photo connected to the food item can be created. The food item will tie to the photo by
  * setting the name of the photo file in the phone storage, based on the food item id.
+ * A stored food item has a version, which is increased every time the stored food item changes. A
+ * food item that has not been stored yet has version 0.
  */
 public class Food {
     private String mName;
@@ -17,6 +20,7 @@ public class Food {
     private String mBrand;
     private int mId;
     private String mCategory;
+    private int mVersion;
 
     /**
      * Constructor for creating a Food object before its id have been created in the database.
@@ -24,8 +28,8 @@ public class Food {
     public Food(String name, int quantity, String amount, String brand, String category) {
         mName = name;
         mQuantity = quantity;
-        mAmount = amount;
-        mBrand = brand;
+        mAmount = emptyIfNull(amount);
+        mBrand = emptyIfNull(brand);
         mCategory = category;
     }
 
@@ -35,8 +39,8 @@ public class Food {
     public Food(String name, int quantity, String amount, String brand, int id, String category) {
         mName = name;
         mQuantity = quantity;
-        mAmount = amount;
-        mBrand = brand;
+        mAmount = emptyIfNull(amount);
+        mBrand = emptyIfNull(brand);
         mCategory = category;
         mId = id;
     }
@@ -104,11 +108,62 @@ public class Food {
         mCategory = category;
     }
 
+    /**
+     * Gets the version of the food item when it was read.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Sets the version of the food item.
+     */
+    public void setVersion(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * Returns a string that identifies food items with the same name, amount, brand and category.
+     * Only one food item can be stored with a specific key.
+     */
+    public static String getKey(String name, String amount, String brand, String category) {
+        return name + '\u0000' + emptyIfNull(amount) + '\u0000' + emptyIfNull(brand) + '\u0000' +
+                category;
+    }
+
+    /**
+     * Returns the value an optional key field is stored with. A unique index treats every null
+     * as different from all other values, so null is stored as an empty string.
+     * @param value the amount or brand of a food item, or null.
+     * @return the value, or an empty string if it is null.
+     */
+    public static String emptyIfNull(String value) {
+        return value != null ? value : "";
+    }
+
     /**
      * Gets the name of the photo file that can be created for the food item. The String created is
      * based on the id of the food item.
      */
     public String getPhotoFilename() {
-        return "IMG_" + Integer.toString(mId) + ".jpg";
+        return getPhotoFilename(mId);
+    }
+
+    /**
+     * Gets the name of the photo file of the food item with a specific id, for when only the id
+     * has been read from the database.
+     * @param id the id of the food item.
+     */
+    public static String getPhotoFilename(int id) {
+        return "IMG_" + Integer.toString(id) + ".jpg";
+    }
+
+    /**
+     * Gets the name of the thumbnail file of the food item with a specific id. The thumbnail is a
+     * small copy of the photo, stored next to it and shown in the lists.
+     * @param id the id of the food item.
+     */
+    public static String getThumbnailFilename(int id) {
+        return "IMG_" + Integer.toString(id) + "_thumb.jpg";
     }
 }
@@ -0,0 +1,85 @@
+package com.antergy.whatsinmyfreezer;
+
+/**
+ * Stores the food items in the freezer. FoodManager stores them in the SQLite database of the
+ * application, and InMemoryFoodRepository keeps them in memory, which makes it possible to test
+ * and benchmark code that uses a repository without Android.
+ * A food item is identified by its id, and by its key: the name, amount, brand and category.
+ * Only one food item can have a specific key.
+ * Every change of a stored food item increases its version. Quantities are changed relative to
+ * the stored quantity, and a food item is only replaced if it has the version it was read with, so
+ * writers never overwrite each other's changes without knowing it.
+ */
+public interface FoodRepository {
+    /**
+     * Adds a new food item. If a food item with the same name, amount, brand and category
+     * already exists, its quantity is increased by the quantity of the added food item instead.
+     * @param name      name of the food item.
+     * @param quantity  number of food items to store.
+     * @param amount    how much one food item contains (different units).
+     * @param brand     producer of the food item, if any.
+     * @param category  the category of the food.
+     * @return the stored food item, with its id and quantity.
+     */
+    Food addFood(String name, int quantity, String amount, String brand, String category);
+
+    /**
+     * Returns all food items.
+     * @return a snapshot of the food items, which may be shared with other callers.
+     */
+    FoodSnapshot getAll();
+
+    /**
+     * Returns the food items of a category.
+     * @param category the category of the food items.
+     * @return a snapshot of the food items, which may be shared with other callers.
+     */
+    FoodSnapshot getCategoryList(String category);
+
+    /**
+     * Returns a food item.
+     * @param id the id of the food item.
+     * @return a copy of the food item that the caller can change, null if the id is not valid.
+     */
+    Food getFood(int id);
+
+    /**
+     * Changes the quantity of a food item relative to its stored quantity. A food item whose
+     * quantity becomes zero or less is deleted.
+     * @param id    the id of the food item.
+     * @param delta the number to add to the quantity. Negative numbers reduce the quantity.
+     * @return the stored food item, null if it was deleted or the id is not valid.
+     */
+    Food adjustQuantity(int id, int delta);
+
+    /**
+     * Replaces a food item, if it has not changed since it was read.
+     * @param id          the id of the food item to update.
+     * @param updatedFood the new values of the food item. Its version must be the version of the
+     *                    stored food item. Its id is ignored.
+     * @return true if the food item was replaced, false if it has another version or has been
+     * deleted. The caller should read the food item again and decide what to do.
+     */
+    boolean updateFood(int id, Food updatedFood);
+
+    /**
+     * Deletes a food item.
+     * @param id the id of the food item.
+     */
+    void deleteFood(int id);
+
+    /**
+     * Renames a category. The food items in the category are moved to the new name.
+     * @param oldName the current name of the category.
+     * @param newName the new name of the category.
+     * @return true if the category was renamed, false if the new name is taken by another
+     * category or the category does not exist.
+     */
+    boolean renameCategory(String oldName, String newName);
+
+    /**
+     * Deletes all food items in a category. The category itself is kept.
+     * @param category the category of the food items to delete.
+     */
+    void removeAllInCategory(String category);
+}
@@ -0,0 +1,356 @@
+package com.antergy.whatsinmyfreezer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of food items stored by column instead of as one Food object per row. Ids,
+ * quantities and versions are kept in int arrays, and names, amounts, brands and categories are
+ * kept as codes into a dictionary with every distinct string once. An inventory repeats a few
+ * hundred brands, amounts and categories over many rows, so this takes a fraction of the memory
+ * of a list of Food objects.
+ * The list can be used as a list of Food objects, but get() creates a new Food object each time.
+ * Code that reads many rows, like binding the rows of a list, should use the column getters.
+ * A sub list shares the columns and the dictionary of the list it is taken from.
+ * A snapshot can be written to a stream and read back, in the same columnar form.
+ */
+public class FoodSnapshot extends AbstractList<Food> implements RandomAccess {
+    private static final int NO_STRING = -1;
+    private static final FoodSnapshot EMPTY = new Builder(0).build();
+
+    private final int[] mIds;
+    private final int[] mQuantities;
+    private final int[] mNames;
+    private final int[] mAmounts;
+    private final int[] mBrands;
+    private final int[] mCategories;
+    private final int[] mVersions;
+    private final String[] mDictionary;
+    private final int mOffset;
+    private final int mSize;
+
+    private FoodSnapshot(int[] ids, int[] quantities, int[] names, int[] amounts, int[] brands,
+                         int[] categories, int[] versions, String[] dictionary, int offset,
+                         int size) {
+        mIds = ids;
+        mQuantities = quantities;
+        mNames = names;
+        mAmounts = amounts;
+        mBrands = brands;
+        mCategories = categories;
+        mVersions = versions;
+        mDictionary = dictionary;
+        mOffset = offset;
+        mSize = size;
+    }
+
+    /**
+     * Returns a snapshot without food items.
+     */
+    public static FoodSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Creates a snapshot of a list of food items.
+     * @param foods the food items.
+     */
+    public static FoodSnapshot of(Iterable<Food> foods) {
+        Builder builder = new Builder(16);
+        for (Food food : foods) {
+            builder.add(food);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Creates a Food object of a row. The Food object is not part of the snapshot, so changing
+     * it does not change the snapshot.
+     * @param index the row.
+     */
+    @Override
+    public Food get(int index) {
+        checkIndex(index);
+        int row = mOffset + index;
+        Food food = new Food(getString(mNames[row]), mQuantities[row], getString(mAmounts[row]),
+                getString(mBrands[row]), mIds[row], getString(mCategories[row]));
+        food.setVersion(mVersions[row]);
+        return food;
+    }
+
+    public int getId(int index) {
+        checkIndex(index);
+        return mIds[mOffset + index];
+    }
+
+    public int getQuantity(int index) {
+        checkIndex(index);
+        return mQuantities[mOffset + index];
+    }
+
+    public String getName(int index) {
+        checkIndex(index);
+        return getString(mNames[mOffset + index]);
+    }
+
+    public String getAmount(int index) {
+        checkIndex(index);
+        return getString(mAmounts[mOffset + index]);
+    }
+
+    public String getBrand(int index) {
+        checkIndex(index);
+        return getString(mBrands[mOffset + index]);
+    }
+
+    public String getCategory(int index) {
+        checkIndex(index);
+        return getString(mCategories[mOffset + index]);
+    }
+
+    public int getVersion(int index) {
+        checkIndex(index);
+        return mVersions[mOffset + index];
+    }
+
+    /**
+     * Returns the row of the food item with a specific id.
+     * @param id the id of the food item.
+     * @return the row, -1 if the food item is not in the snapshot.
+     */
+    public int indexOfId(int id) {
+        for (int i = 0; i < mSize; ++i) {
+            if (mIds[mOffset + i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the rows between two indices. The columns are shared, not copied.
+     * @param fromIndex the first row, inclusive.
+     * @param toIndex   the last row, exclusive.
+     */
+    @Override
+    public FoodSnapshot subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > mSize || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("from " + fromIndex + ", to " + toIndex +
+                    ", size " + mSize);
+        }
+        return new FoodSnapshot(mIds, mQuantities, mNames, mAmounts, mBrands, mCategories,
+                mVersions, mDictionary, mOffset + fromIndex, toIndex - fromIndex);
+    }
+
+    /**
+     * Returns a copy of the snapshot with one row replaced. Only the rows of this snapshot are
+     * copied, not the rest of the list it may be a sub list of.
+     * @param index the row to replace.
+     * @param food  the food item to put in the row.
+     */
+    public FoodSnapshot with(int index, Food food) {
+        checkIndex(index);
+        Builder builder = new Builder(mSize);
+        for (int i = 0; i < mSize; ++i) {
+            if (i == index) {
+                builder.add(food);
+            } else {
+                addRow(builder, mOffset + i);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Writes the rows of the snapshot to a stream. Only the strings used by the rows are written,
+     * so writing a sub list does not write the dictionary of the whole list.
+     * @param out the stream to write to.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        FoodSnapshot compact = this;
+        if (mOffset != 0 || mSize != mIds.length) {
+            Builder builder = new Builder(mSize);
+            for (int i = 0; i < mSize; ++i) {
+                addRow(builder, mOffset + i);
+            }
+            compact = builder.build();
+        }
+        out.writeInt(compact.mDictionary.length);
+        for (String value : compact.mDictionary) {
+            out.writeUTF(value);
+        }
+        out.writeInt(compact.mSize);
+        writeColumn(out, compact.mIds);
+        writeColumn(out, compact.mQuantities);
+        writeColumn(out, compact.mNames);
+        writeColumn(out, compact.mAmounts);
+        writeColumn(out, compact.mBrands);
+        writeColumn(out, compact.mCategories);
+        writeColumn(out, compact.mVersions);
+    }
+
+    /**
+     * Reads a snapshot written by writeTo().
+     * @param in the stream to read from.
+     * @throws IOException if the stream can not be read or does not contain a snapshot.
+     */
+    public static FoodSnapshot readFrom(DataInput in) throws IOException {
+        String[] dictionary = new String[checkLength(in.readInt())];
+        for (int i = 0; i < dictionary.length; ++i) {
+            dictionary[i] = in.readUTF();
+        }
+        int size = checkLength(in.readInt());
+        int[] ids = readColumn(in, size, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        int[] quantities = readColumn(in, size, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        int[] names = readColumn(in, size, NO_STRING, dictionary.length - 1);
+        int[] amounts = readColumn(in, size, NO_STRING, dictionary.length - 1);
+        int[] brands = readColumn(in, size, NO_STRING, dictionary.length - 1);
+        int[] categories = readColumn(in, size, NO_STRING, dictionary.length - 1);
+        int[] versions = readColumn(in, size, 0, Integer.MAX_VALUE);
+        return new FoodSnapshot(ids, quantities, names, amounts, brands, categories, versions,
+                dictionary, 0, size);
+    }
+
+    private void addRow(Builder builder, int row) {
+        builder.add(mIds[row], getString(mNames[row]), mQuantities[row], getString(mAmounts[row]),
+                getString(mBrands[row]), getString(mCategories[row]), mVersions[row]);
+    }
+
+    private static void writeColumn(DataOutput out, int[] column) throws IOException {
+        for (int value : column) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readColumn(DataInput in, int size, int min, int max) throws IOException {
+        int[] column = new int[size];
+        for (int i = 0; i < size; ++i) {
+            column[i] = in.readInt();
+            if (column[i] < min || column[i] > max) {
+                throw new IOException("Invalid value " + column[i] + " in snapshot");
+            }
+        }
+        return column;
+    }
+
+    private static int checkLength(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid length " + length + " in snapshot");
+        }
+        return length;
+    }
+
+    private String getString(int code) {
+        return code == NO_STRING ? null : mDictionary[code];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+    }
+
+    /**
+     * Builds a snapshot one row at a time, for example while reading a cursor. The strings are
+     * looked up in the dictionary as they are added, so only the first copy of each distinct
+     * string is kept.
+     */
+    public static class Builder {
+        private final Map<String, Integer> mCodes = new HashMap<>();
+        private String[] mDictionary = new String[16];
+        private int[] mIds;
+        private int[] mQuantities;
+        private int[] mNames;
+        private int[] mAmounts;
+        private int[] mBrands;
+        private int[] mCategories;
+        private int[] mVersions;
+        private int mSize;
+
+        /**
+         * @param capacity the number of rows expected, which the columns are created for.
+         */
+        public Builder(int capacity) {
+            mIds = new int[capacity];
+            mQuantities = new int[capacity];
+            mNames = new int[capacity];
+            mAmounts = new int[capacity];
+            mBrands = new int[capacity];
+            mCategories = new int[capacity];
+            mVersions = new int[capacity];
+        }
+
+        public Builder add(Food food) {
+            return add(food.getId(), food.getName(), food.getQuantity(), food.getAmount(),
+                    food.getBrand(), food.getCategory(), food.getVersion());
+        }
+
+        public Builder add(int id, String name, int quantity, String amount, String brand,
+                           String category, int version) {
+            if (mSize == mIds.length) {
+                grow();
+            }
+            mIds[mSize] = id;
+            mQuantities[mSize] = quantity;
+            mNames[mSize] = encode(name);
+            mAmounts[mSize] = encode(amount);
+            mBrands[mSize] = encode(brand);
+            mCategories[mSize] = encode(category);
+            mVersions[mSize] = version;
+            mSize++;
+            return this;
+        }
+
+        /**
+         * Creates the snapshot. The columns are trimmed to the number of rows added, unless the
+         * capacity was exact. The builder should not be used afterwards.
+         */
+        public FoodSnapshot build() {
+            return new FoodSnapshot(trim(mIds), trim(mQuantities), trim(mNames), trim(mAmounts),
+                    trim(mBrands), trim(mCategories), trim(mVersions),
+                    Arrays.copyOf(mDictionary, mCodes.size()), 0, mSize);
+        }
+
+        private int[] trim(int[] column) {
+            return column.length == mSize ? column : Arrays.copyOf(column, mSize);
+        }
+
+        private int encode(String value) {
+            if (value == null) {
+                return NO_STRING;
+            }
+            Integer code = mCodes.get(value);
+            if (code == null) {
+                code = mCodes.size();
+                if (code == mDictionary.length) {
+                    mDictionary = Arrays.copyOf(mDictionary, code * 2);
+                }
+                mDictionary[code] = value;
+                mCodes.put(value, code);
+            }
+            return code;
+        }
+
+        private void grow() {
+            int capacity = Math.max(16, mIds.length * 2);
+            mIds = Arrays.copyOf(mIds, capacity);
+            mQuantities = Arrays.copyOf(mQuantities, capacity);
+            mNames = Arrays.copyOf(mNames, capacity);
+            mAmounts = Arrays.copyOf(mAmounts, capacity);
+            mBrands = Arrays.copyOf(mBrands, capacity);
+            mCategories = Arrays.copyOf(mCategories, capacity);
+            mVersions = Arrays.copyOf(mVersions, capacity);
+        }
+    }
+}
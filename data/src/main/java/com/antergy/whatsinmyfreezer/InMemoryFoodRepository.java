@@ -0,0 +1,271 @@
+package com.antergy.whatsinmyfreezer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A food repository that keeps the food items in memory. The food items are indexed by id, by key
+ * and by category, and lists are returned sorted by id, which is the order the food items were
+ * added in. Ids are given out in increasing order and are never reused, like the ids of the
+ * database. Versions are increased by the same changes as in the database, so renaming a category
+ * does not change the versions of its food items.
+ * The repository can also hold a copy of food items stored elsewhere, with their ids and versions,
+ * which is how the inventory mirror of the app keeps its indexes.
+ * All methods are synchronized, so the repository can be shared between threads.
+ */
+public class InMemoryFoodRepository implements FoodRepository {
+    private final TreeMap<Integer, Food> mById = new TreeMap<>();
+    private final Map<String, Food> mByKey = new HashMap<>();
+    private final Map<String, TreeMap<Integer, Food>> mByCategory = new HashMap<>();
+    private final Set<String> mCategories = new HashSet<>();
+    private int mLastId;
+
+    @Override
+    public synchronized Food addFood(String name, int quantity, String amount, String brand,
+                                     String category) {
+        Food food = mByKey.get(Food.getKey(name, amount, brand, category));
+        if (food != null) {
+            food.setQuantity(food.getQuantity() + quantity);
+            food.setVersion(food.getVersion() + 1);
+        } else {
+            food = new Food(name, quantity, amount, brand, ++mLastId, category);
+            put(food);
+        }
+        return copyOf(food);
+    }
+
+    @Override
+    public synchronized FoodSnapshot getAll() {
+        return FoodSnapshot.of(mById.values());
+    }
+
+    @Override
+    public synchronized FoodSnapshot getCategoryList(String category) {
+        TreeMap<Integer, Food> foods = mByCategory.get(category);
+        return foods == null ? FoodSnapshot.empty() : FoodSnapshot.of(foods.values());
+    }
+
+    @Override
+    public synchronized Food getFood(int id) {
+        Food food = mById.get(id);
+        return food == null ? null : copyOf(food);
+    }
+
+    /**
+     * Returns a copy of the food item with a specific key, null if there is none.
+     */
+    public synchronized Food getFood(String name, String amount, String brand,
+                                     String category) {
+        Food food = mByKey.get(Food.getKey(name, amount, brand, category));
+        return food == null ? null : copyOf(food);
+    }
+
+    /**
+     * Returns the ids of the food items in a category, sorted.
+     * @param category the category, null for all food items.
+     */
+    public synchronized int[] getIds(String category) {
+        Map<Integer, Food> foods = getIndex(category);
+        if (foods == null) {
+            return new int[0];
+        }
+        int[] ids = new int[foods.size()];
+        int i = 0;
+        for (Integer id : foods.keySet()) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the number of food items in a category.
+     * @param category the category, null for all food items.
+     */
+    public synchronized int getCount(String category) {
+        Map<Integer, Food> foods = getIndex(category);
+        return foods == null ? 0 : foods.size();
+    }
+
+    /**
+     * Stores a copy of a food item with its id and version, replacing the food item with the
+     * same id. Used to keep a copy of food items stored elsewhere, so the key of the food item
+     * is not checked against the other food items.
+     */
+    public synchronized void putFood(Food food) {
+        remove(food.getId());
+        put(copyOf(food));
+        mLastId = Math.max(mLastId, food.getId());
+    }
+
+    /**
+     * Removes all food items, and forgets the categories.
+     */
+    public synchronized void clear() {
+        mById.clear();
+        mByKey.clear();
+        mByCategory.clear();
+        mCategories.clear();
+    }
+
+    @Override
+    public synchronized Food adjustQuantity(int id, int delta) {
+        Food food = mById.get(id);
+        if (food == null) {
+            return null;
+        }
+        food.setQuantity(food.getQuantity() + delta);
+        food.setVersion(food.getVersion() + 1);
+        if (food.getQuantity() <= 0) {
+            remove(id);
+            return null;
+        }
+        return copyOf(food);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException if another food item has the same key as the updated
+     * food item.
+     */
+    @Override
+    public synchronized boolean updateFood(int id, Food updatedFood) {
+        Food stored = mById.get(id);
+        if (stored == null || stored.getVersion() != updatedFood.getVersion()) {
+            return false;
+        }
+        Food other = mByKey.get(Food.getKey(updatedFood.getName(), updatedFood.getAmount(),
+                updatedFood.getBrand(), updatedFood.getCategory()));
+        if (other != null && other.getId() != id) {
+            throw new IllegalArgumentException("Food item " + other.getId() +
+                    " already has the same name, amount, brand and category");
+        }
+        remove(id);
+        Food food = new Food(updatedFood.getName(), updatedFood.getQuantity(),
+                updatedFood.getAmount(), updatedFood.getBrand(), id, updatedFood.getCategory());
+        food.setVersion(stored.getVersion() + 1);
+        put(food);
+        return true;
+    }
+
+    @Override
+    public synchronized void deleteFood(int id) {
+        remove(id);
+    }
+
+    @Override
+    public synchronized boolean renameCategory(String oldName, String newName) {
+        if (!mCategories.contains(oldName) || mCategories.contains(newName)) {
+            return false;
+        }
+        mCategories.remove(oldName);
+        mCategories.add(newName);
+        TreeMap<Integer, Food> foods = mByCategory.remove(oldName);
+        if (foods != null) {
+            for (Food food : foods.values()) {
+                mByKey.remove(getKey(food));
+                food.setCategory(newName);
+                mByKey.put(getKey(food), food);
+            }
+            mByCategory.put(newName, foods);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void removeAllInCategory(String category) {
+        TreeMap<Integer, Food> foods = mByCategory.remove(category);
+        if (foods == null) {
+            return;
+        }
+        for (Food food : foods.values()) {
+            mById.remove(food.getId());
+            mByKey.remove(getKey(food));
+        }
+    }
+
+    /**
+     * Removes all food items of a category, and forgets the category.
+     */
+    public synchronized void removeCategory(String category) {
+        removeAllInCategory(category);
+        mCategories.remove(category);
+    }
+
+    /**
+     * Checks that the key and category indexes hold the same food items as the index by id.
+     * @param maxProblems the number of differences after which the check stops.
+     * @return a description of every difference found, empty if the indexes are consistent.
+     */
+    public synchronized List<String> checkIndexes(int maxProblems) {
+        List<String> problems = new ArrayList<>();
+        for (Food food : mById.values()) {
+            if (problems.size() >= maxProblems) {
+                return problems;
+            }
+            TreeMap<Integer, Food> foods = mByCategory.get(food.getCategory());
+            if (mByKey.get(getKey(food)) != food) {
+                problems.add("Food item " + food.getId() + " is not indexed by key");
+            } else if (foods == null || foods.get(food.getId()) != food) {
+                problems.add("Food item " + food.getId() + " is not indexed by category");
+            }
+        }
+        if (mByKey.size() != mById.size()) {
+            problems.add(mByKey.size() + " keys for " + mById.size() + " food items");
+        }
+        int indexed = 0;
+        for (TreeMap<Integer, Food> foods : mByCategory.values()) {
+            indexed += foods.size();
+        }
+        if (indexed != mById.size()) {
+            problems.add(indexed + " food items in categories, " + mById.size() + " by id");
+        }
+        return problems;
+    }
+
+    private Map<Integer, Food> getIndex(String category) {
+        return category == null ? mById : mByCategory.get(category);
+    }
+
+    private void put(Food food) {
+        mById.put(food.getId(), food);
+        mByKey.put(getKey(food), food);
+        mCategories.add(food.getCategory());
+        TreeMap<Integer, Food> foods = mByCategory.get(food.getCategory());
+        if (foods == null) {
+            foods = new TreeMap<>();
+            mByCategory.put(food.getCategory(), foods);
+        }
+        foods.put(food.getId(), food);
+    }
+
+    private Food remove(int id) {
+        Food food = mById.remove(id);
+        if (food == null) {
+            return null;
+        }
+        mByKey.remove(getKey(food));
+        TreeMap<Integer, Food> foods = mByCategory.get(food.getCategory());
+        foods.remove(id);
+        if (foods.isEmpty()) {
+            mByCategory.remove(food.getCategory());
+        }
+        return food;
+    }
+
+    private static String getKey(Food food) {
+        return Food.getKey(food.getName(), food.getAmount(), food.getBrand(),
+                food.getCategory());
+    }
+
+    private static Food copyOf(Food food) {
+        Food copy = new Food(food.getName(), food.getQuantity(), food.getAmount(),
+                food.getBrand(), food.getId(), food.getCategory());
+        copy.setVersion(food.getVersion());
+        return copy;
+    }
+}
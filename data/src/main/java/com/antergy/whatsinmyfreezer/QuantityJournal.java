@@ -0,0 +1,209 @@
+package com.antergy.whatsinmyfreezer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only file of quantity changes that have not yet been written to the database. Every
+ * change is an entry with a sequence number, the id of the food item and the number to add to its
+ * quantity. An entry is synced to disk before append() returns, so a change survives the process
+ * being killed before it is written.
+ * The file starts with the sequence number of the last entry that has been compacted away, so
+ * sequence numbers keep increasing after the file has been emptied. Whoever applies the entries
+ * must remember the sequence number of the last applied entry together with the changes, and skip
+ * entries up to it when they are replayed; replaying is then idempotent.
+ * An entry that was only partly written when the process was killed is dropped when the journal is
+ * opened. Its change was never acknowledged, since append() had not returned.
+ */
+public class QuantityJournal {
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 16;
+    private final File mFile;
+    private long mLastSequence;
+    private boolean mOpen;
+
+    /**
+     * A change of the quantity of a food item.
+     */
+    public static final class Entry {
+        private final long mSequence;
+        private final int mFoodId;
+        private final int mDelta;
+
+        public Entry(long sequence, int foodId, int delta) {
+            mSequence = sequence;
+            mFoodId = foodId;
+            mDelta = delta;
+        }
+
+        public long getSequence() {
+            return mSequence;
+        }
+
+        public int getFoodId() {
+            return mFoodId;
+        }
+
+        public int getDelta() {
+            return mDelta;
+        }
+    }
+
+    public QuantityJournal(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Reads the entries of the journal, and drops a partly written entry at the end. Creates the
+     * file if it does not exist. Must be called before the journal is used.
+     * @return the entries in the order they were appended.
+     * @throws IOException if the file can not be read or written.
+     */
+    public synchronized List<Entry> open() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            long length = file.length();
+            if (length < HEADER_SIZE) {
+                // The file is new, or was killed while the header was first written
+                file.setLength(0);
+                file.writeLong(0);
+                file.getFD().sync();
+                mLastSequence = 0;
+            } else {
+                mLastSequence = file.readLong();
+                long count = (length - HEADER_SIZE) / ENTRY_SIZE;
+                for (long i = 0; i < count; ++i) {
+                    Entry entry = new Entry(file.readLong(), file.readInt(), file.readInt());
+                    entries.add(entry);
+                    mLastSequence = Math.max(mLastSequence, entry.getSequence());
+                }
+                if (HEADER_SIZE + count * ENTRY_SIZE != length) {
+                    file.setLength(HEADER_SIZE + count * ENTRY_SIZE);
+                    file.getFD().sync();
+                }
+            }
+        } finally {
+            file.close();
+        }
+        mOpen = true;
+        return entries;
+    }
+
+    /**
+     * Appends a change to the journal and syncs it to disk.
+     * @param foodId the id of the food item.
+     * @param delta  the number to add to the quantity. Negative numbers reduce the quantity.
+     * @return the sequence number of the entry.
+     * @throws IOException if the entry could not be written. The change is then not recorded.
+     */
+    public synchronized long append(int foodId, int delta) throws IOException {
+        checkOpen();
+        long sequence = mLastSequence + 1;
+        // The entry is written with a single write, so it is never interleaved with another
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(ENTRY_SIZE);
+        DataOutputStream entry = new DataOutputStream(bytes);
+        entry.writeLong(sequence);
+        entry.writeInt(foodId);
+        entry.writeInt(delta);
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(bytes.toByteArray());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        mLastSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * Returns the sequence number of the last entry appended, or of the last entry compacted away
+     * if the journal is empty.
+     */
+    public synchronized long getLastSequence() {
+        return mLastSequence;
+    }
+
+    /**
+     * Removes all entries if they have been applied. Nothing is removed if an entry has been
+     * appended after the last applied one.
+     * @param appliedSequence the sequence number of the last applied entry.
+     * @return true if the journal was emptied, false otherwise.
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized boolean compact(long appliedSequence) throws IOException {
+        checkOpen();
+        if (appliedSequence != mLastSequence) {
+            return false;
+        }
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            // If the process is killed in between, the header is a sequence number that has
+            // already been applied, and the entries left are skipped on replay
+            file.writeLong(appliedSequence);
+            file.setLength(HEADER_SIZE);
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        return true;
+    }
+
+    /**
+     * Adds up the changes of the entries after a sequence number, per food item.
+     * @param entries         the entries of the journal.
+     * @param appliedSequence the sequence number of the last entry that has been applied.
+     *                        Entries up to and including it are skipped.
+     * @return the sum of the changes keyed by food item id, in the order the food items were
+     * first changed. Food items whose changes add up to zero are left out.
+     */
+    public static Map<Integer, Integer> coalesce(List<Entry> entries, long appliedSequence) {
+        Map<Integer, Integer> deltas = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (entry.getSequence() > appliedSequence) {
+                add(deltas, entry.getFoodId(), entry.getDelta());
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Adds a change to a map of changes per food item. The food item is removed from the map if
+     * its changes add up to zero.
+     */
+    public static void add(Map<Integer, Integer> deltas, int foodId, int delta) {
+        Integer sum = deltas.get(foodId);
+        int total = (sum == null ? 0 : sum) + delta;
+        if (total == 0) {
+            deltas.remove(foodId);
+        } else {
+            deltas.put(foodId, total);
+        }
+    }
+
+    /**
+     * Returns the last sequence number in a list of entries, 0 if it is empty.
+     */
+    public static long getLastSequence(List<Entry> entries) {
+        long last = 0;
+        for (Entry entry : entries) {
+            last = Math.max(last, entry.getSequence());
+        }
+        return last;
+    }
+
+    private void checkOpen() {
+        if (!mOpen) {
+            throw new IllegalStateException("The journal has not been opened");
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.antergy.whatsinmyfreezer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that FoodSnapshot returns the rows it was built from, and that it keeps a large inventory
+ * in a tenth of the memory of Food objects.
+ */
+public class FoodSnapshotTest {
+    private static final int ROWS = 100000;
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int INT = 4;
+    private static final String[] NAMES = {"Minced beef", "Chicken breast", "Salmon fillet",
+            "Green peas", "Blueberries", "Cinnamon buns", "Meatballs", "Vegetable soup"};
+    private static final String[] AMOUNTS = {"250 g", "400 g", "500 g", "1 kg", "2 l", "6 pcs"};
+
+    @Test
+    public void rowsMatchFoods() throws Exception {
+        List<Food> foods = Arrays.asList(
+                new Food("Peas", 2, "500 g", "Findus", 1, "Vegetables"),
+                new Food("Carrots", 1, "500 g", null, 2, "Vegetables"),
+                new Food("Peas", 3, "1 kg", "Findus", 3, null)
+        );
+        FoodSnapshot snapshot = FoodSnapshot.of(foods);
+
+        assertEquals(foods.size(), snapshot.size());
+        for (int i = 0; i < foods.size(); ++i) {
+            assertSameFood(foods.get(i), snapshot.get(i));
+            assertEquals(foods.get(i).getId(), snapshot.getId(i));
+            assertEquals(foods.get(i).getBrand(), snapshot.getBrand(i));
+        }
+        assertEquals(1, snapshot.indexOfId(2));
+        assertEquals(-1, snapshot.indexOfId(4));
+
+        FoodSnapshot tail = snapshot.subList(1, 3);
+        assertEquals(2, tail.size());
+        assertEquals(3, tail.getId(1));
+        assertEquals(1, tail.indexOfId(3));
+
+        Food changed = new Food("Carrots", 5, "500 g", "Ica", 2, "Vegetables");
+        FoodSnapshot replaced = tail.with(0, changed);
+        assertSameFood(changed, replaced.get(0));
+        assertSameFood(foods.get(2), replaced.get(1));
+        assertSameFood(foods.get(1), snapshot.get(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void subListIsBounded() throws Exception {
+        FoodSnapshot snapshot = FoodSnapshot.of(Arrays.asList(
+                new Food("Peas", 2, "500 g", "Findus", 1, "Vegetables"),
+                new Food("Carrots", 1, "500 g", null, 2, "Vegetables")
+        ));
+        snapshot.subList(1, 2).getId(1);
+    }
+
+    @Test
+    public void writtenSubListIsReadBack() throws Exception {
+        List<Food> foods = Arrays.asList(
+                new Food("Peas", 2, "500 g", "Findus", 1, "Vegetables"),
+                new Food("Carrots", 1, "500 g", null, 2, "Vegetables"),
+                new Food("Salmon", 4, "250 g", "Ica", 3, "Fish")
+        );
+        foods.get(2).setVersion(7);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FoodSnapshot.of(foods).subList(1, 3).writeTo(new DataOutputStream(bytes));
+
+        FoodSnapshot read = FoodSnapshot.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(2, read.size());
+        assertSameFood(foods.get(1), read.get(0));
+        assertSameFood(foods.get(2), read.get(1));
+    }
+
+    /**
+     * Compares the bytes that an array of Food objects and a snapshot of the same inventory
+     * retain, by walking the objects and arrays they actually consist of, as laid out on a 64-bit
+     * JVM with compressed references. Every Food object has its own strings, like rows read from
+     * a cursor do, and a few hundred names, amounts, brands and categories repeat over the rows.
+     */
+    @Test
+    public void snapshotKeepsATenthOfTheBytes() throws Exception {
+        FoodSnapshot.Builder builder = new FoodSnapshot.Builder(ROWS);
+        Food[] foods = new Food[ROWS];
+        for (int i = 0; i < ROWS; ++i) {
+            foods[i] = createFood(i);
+            builder.add(foods[i]);
+        }
+        FoodSnapshot snapshot = builder.build();
+
+        long foodBytes = getRetainedBytes(foods);
+        long snapshotBytes = getRetainedBytes(snapshot);
+
+        assertEquals(ROWS, snapshot.size());
+        assertSameFood(createFood(ROWS - 1), snapshot.get(ROWS - 1));
+        assertTrue("Food objects " + foodBytes + " bytes, snapshot " + snapshotBytes + " bytes",
+                snapshotBytes * 10 <= foodBytes);
+    }
+
+    /**
+     * Creates a food item with a name, amount, brand and category out of a few that many food
+     * items share. The strings are new copies, like the strings of a cursor row.
+     */
+    private static Food createFood(int i) {
+        String name = NAMES[i % NAMES.length] + " " + (i % 50 + 1);
+        return new Food(name, 1 + i % 3, new String(AMOUNTS[i % AMOUNTS.length]),
+                "Brand " + i % 200, i + 1, "Category " + i % 8);
+    }
+
+    /**
+     * Returns the bytes retained by an object and everything it refers to, by walking its
+     * fields and array elements. An object is counted once however many references it has, so
+     * a string that is shared is only counted once. Strings are counted by their length, since
+     * their fields can not be read on every JVM.
+     */
+    private static long getRetainedBytes(Object root) throws IllegalAccessException {
+        Map<Object, Boolean> seen = new IdentityHashMap<>();
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(root);
+        long bytes = 0;
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            if (seen.put(object, Boolean.TRUE) != null) {
+                continue;
+            }
+            Class<?> type = object.getClass();
+            if (object instanceof String) {
+                bytes += getStringBytes((String) object);
+            } else if (type.isArray()) {
+                Class<?> component = type.getComponentType();
+                int length = Array.getLength(object);
+                bytes += align(ARRAY_HEADER + (long) getFieldBytes(component) * length);
+                if (!component.isPrimitive()) {
+                    for (int i = 0; i < length; ++i) {
+                        Object element = Array.get(object, i);
+                        if (element != null) {
+                            pending.push(element);
+                        }
+                    }
+                }
+            } else {
+                long shallow = OBJECT_HEADER;
+                for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers())) {
+                            continue;
+                        }
+                        shallow += getFieldBytes(field.getType());
+                        if (!field.getType().isPrimitive()) {
+                            field.setAccessible(true);
+                            Object value = field.get(object);
+                            if (value != null) {
+                                pending.push(value);
+                            }
+                        }
+                    }
+                }
+                bytes += align(shallow);
+            }
+        }
+        return bytes;
+    }
+
+    private static int getFieldBytes(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return INT;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    /**
+     * Returns the bytes of a string and its char array, as strings are stored up to Java 8.
+     */
+    private static long getStringBytes(String value) {
+        return align(OBJECT_HEADER + REFERENCE + INT) +
+                align(ARRAY_HEADER + 2L * value.length());
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static void assertSameFood(Food expected, Food actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getQuantity(), actual.getQuantity());
+        assertEquals(expected.getAmount(), actual.getAmount());
+        assertEquals(expected.getBrand(), actual.getBrand());
+        assertEquals(expected.getCategory(), actual.getCategory());
+        assertEquals(expected.getVersion(), actual.getVersion());
+    }
+}
@@ -0,0 +1,82 @@
+package com.antergy.whatsinmyfreezer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that InMemoryFoodRepository changes quantities relative to the stored quantity, only
+ * replaces a food item that has not changed since it was read, and keeps its indexes consistent
+ * when it holds a copy of food items stored elsewhere.
+ */
+public class InMemoryFoodRepositoryTest {
+
+    @Test
+    public void adjustQuantityChangesStoredQuantity() throws Exception {
+        FoodRepository repository = new InMemoryFoodRepository();
+        Food food = repository.addFood("Peas", 2, "500 g", "Findus", "Vegetables");
+
+        assertEquals(5, repository.adjustQuantity(food.getId(), 3).getQuantity());
+        assertEquals(1, repository.adjustQuantity(food.getId(), -4).getQuantity());
+        assertNull(repository.adjustQuantity(food.getId(), -1));
+        assertNull(repository.getFood(food.getId()));
+        assertNull(repository.adjustQuantity(food.getId(), 1));
+    }
+
+    @Test
+    public void staleUpdateIsRejected() throws Exception {
+        FoodRepository repository = new InMemoryFoodRepository();
+        int id = repository.addFood("Peas", 2, "500 g", "Findus", "Vegetables").getId();
+        Food first = repository.getFood(id);
+        Food second = repository.getFood(id);
+
+        first.setQuantity(4);
+        assertTrue(repository.updateFood(id, first));
+        second.setQuantity(1);
+        assertFalse(repository.updateFood(id, second));
+        assertEquals(4, repository.getFood(id).getQuantity());
+
+        Food fresh = repository.getFood(id);
+        assertEquals(first.getVersion() + 1, fresh.getVersion());
+        repository.adjustQuantity(id, 1);
+        fresh.setQuantity(10);
+        assertFalse(repository.updateFood(id, fresh));
+        assertEquals(5, repository.getFood(id).getQuantity());
+    }
+
+    @Test
+    public void missingAmountAndBrandAreTheSameAsEmpty() throws Exception {
+        FoodRepository repository = new InMemoryFoodRepository();
+        Food food = repository.addFood("Peas", 2, null, null, "Vegetables");
+        assertEquals("", food.getAmount());
+        assertEquals("", food.getBrand());
+
+        Food same = repository.addFood("Peas", 3, "", "", "Vegetables");
+        assertEquals(food.getId(), same.getId());
+        assertEquals(5, same.getQuantity());
+    }
+
+    @Test
+    public void putFoodKeepsIdVersionAndIndexes() throws Exception {
+        InMemoryFoodRepository repository = new InMemoryFoodRepository();
+        Food stored = new Food("Peas", 2, "500 g", "Findus", 42, "Vegetables");
+        stored.setVersion(3);
+        repository.putFood(stored);
+
+        Food moved = new Food("Peas", 2, "500 g", "Findus", 42, "Frozen");
+        moved.setVersion(4);
+        repository.putFood(moved);
+
+        assertEquals(4, repository.getFood(42).getVersion());
+        assertEquals(42, repository.getFood("Peas", "500 g", "Findus", "Frozen").getId());
+        assertNull(repository.getFood("Peas", "500 g", "Findus", "Vegetables"));
+        assertEquals(0, repository.getCount("Vegetables"));
+        assertArrayEquals(new int[] {42}, repository.getIds("Frozen"));
+        assertEquals(43, repository.addFood("Carrots", 1, "1 kg", "", "Frozen").getId());
+        assertArrayEquals(new int[] {42, 43}, repository.getIds(null));
+
+        repository.removeCategory("Frozen");
+        assertEquals(0, repository.getCount(null));
+        assertTrue(repository.checkIndexes(10).isEmpty());
+    }
+}
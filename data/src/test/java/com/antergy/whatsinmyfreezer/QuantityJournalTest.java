@@ -0,0 +1,110 @@
+package com.antergy.whatsinmyfreezer;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that QuantityJournal keeps appended changes across reopening, drops a partly written
+ * entry, and that replaying the entries after the last applied one is idempotent.
+ */
+public class QuantityJournalTest {
+
+    @Test
+    public void entriesAreReadBackCoalesced() throws Exception {
+        File file = File.createTempFile("journal", ".bin");
+        try {
+            QuantityJournal journal = new QuantityJournal(file);
+            assertEquals(0, journal.open().size());
+            journal.append(1, 2);
+            journal.append(2, -1);
+            journal.append(1, 3);
+            journal.append(3, 1);
+            journal.append(3, -1);
+
+            List<QuantityJournal.Entry> entries = new QuantityJournal(file).open();
+            assertEquals(5, entries.size());
+            assertEquals(5, QuantityJournal.getLastSequence(entries));
+            Map<Integer, Integer> deltas = QuantityJournal.coalesce(entries, 0);
+            assertEquals(2, deltas.size());
+            assertEquals(5, (int) deltas.get(1));
+            assertEquals(-1, (int) deltas.get(2));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void partlyWrittenEntryIsDropped() throws Exception {
+        File file = File.createTempFile("journal", ".bin");
+        try {
+            QuantityJournal journal = new QuantityJournal(file);
+            journal.open();
+            journal.append(1, 2);
+            journal.append(2, 4);
+            RandomAccessFile raw = new RandomAccessFile(file, "rw");
+            try {
+                raw.setLength(raw.length() - 5);
+            } finally {
+                raw.close();
+            }
+
+            journal = new QuantityJournal(file);
+            assertEquals(1, journal.open().size());
+            assertEquals(2, journal.append(3, 1));
+            List<QuantityJournal.Entry> entries = new QuantityJournal(file).open();
+            assertEquals(2, entries.size());
+            assertEquals(3, entries.get(1).getFoodId());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void replayAfterAppliedSequenceIsIdempotent() throws Exception {
+        File file = File.createTempFile("journal", ".bin");
+        try {
+            QuantityJournal journal = new QuantityJournal(file);
+            journal.open();
+            journal.append(1, -1);
+            long applied = journal.append(2, 2);
+            journal.append(1, -1);
+
+            // The first two entries were applied, but the process was killed before compacting
+            List<QuantityJournal.Entry> entries = new QuantityJournal(file).open();
+            Map<Integer, Integer> first = QuantityJournal.coalesce(entries, applied);
+            Map<Integer, Integer> second = QuantityJournal.coalesce(entries, applied);
+            assertEquals(first, second);
+            assertEquals(1, first.size());
+            assertEquals(-1, (int) first.get(1));
+            assertEquals(0, QuantityJournal.coalesce(entries, 3).size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void compactKeepsSequenceIncreasing() throws Exception {
+        File file = File.createTempFile("journal", ".bin");
+        try {
+            QuantityJournal journal = new QuantityJournal(file);
+            journal.open();
+            journal.append(1, 1);
+            long last = journal.append(1, 1);
+            assertFalse(journal.compact(last - 1));
+            assertTrue(journal.compact(last));
+
+            journal = new QuantityJournal(file);
+            assertEquals(0, journal.open().size());
+            assertEquals(last, journal.getLastSequence());
+            assertEquals(last + 1, journal.append(2, 1));
+        } finally {
+            file.delete();
+        }
+    }
+}